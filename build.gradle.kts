@@ -25,6 +25,15 @@ dependencies {
     compileOnly("io.papermc.paper:paper-api:1.21.1-R0.1-SNAPSHOT")
     implementation("org.java-websocket:Java-WebSocket:1.5.6")
     implementation("org.json:json:20240303")
+
+    // tests load classes that reference the plugin, so the API has to be on their classpath too
+    testImplementation("io.papermc.paper:paper-api:1.21.1-R0.1-SNAPSHOT")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 tasks.withType<JavaCompile> {
@@ -32,7 +41,39 @@ tasks.withType<JavaCompile> {
     options.release.set(21)
 }
 
+// Strips indentation, blank lines and whole-line comments only; the extension has
+// no template literals, so line structure (and ASI) is left intact.
+fun minifyJs(source: String): String =
+    source.lineSequence()
+        .map { it.trim() }
+        .filter { it.isNotEmpty() && !it.startsWith("//") }
+        .joinToString("\n", postfix = "\n")
+
+val renderLocaleVariants by tasks.registering {
+    val template = layout.projectDirectory.file("src/main/resources/turbowarp/twbridge.js")
+    val outputDir = layout.buildDirectory.dir("generated/twbridge-variants")
+    inputs.file(template)
+    outputs.dir(outputDir)
+    doLast {
+        val source = template.asFile.readText(Charsets.UTF_8)
+        val locales = source.substringAfter("const TWB_LOCALES = {").substringBefore("\n  };")
+        val langs = Regex("""(?m)^    '?([a-z]{2,8}(?:[-_][a-z0-9]{1,8})*)'?: \{""")
+            .findAll(locales).map { it.groupValues[1] }.toList()
+        require(langs.isNotEmpty()) { "no locales found in TWB_LOCALES" }
+        val langConst = Regex("""const TWB_DEFAULT_LANG = "[^"]*";""")
+        val target = outputDir.get().dir("turbowarp/variants").asFile
+        target.deleteRecursively()
+        target.mkdirs()
+        langs.forEach { lang ->
+            val rendered = langConst.replaceFirst(source, "const TWB_DEFAULT_LANG = \"$lang\";")
+            target.resolve("$lang.js").writeText(minifyJs(rendered), Charsets.UTF_8)
+        }
+        target.resolve("index.txt").writeText(langs.joinToString("\n", postfix = "\n"), Charsets.UTF_8)
+    }
+}
+
 tasks.processResources {
+    from(renderLocaleVariants)
     filesMatching("plugin.yml") {
         expand("version" to project.version)
     }
@@ -1,7 +1,38 @@
 package net.nando256.twbridge;
 
+import net.nando256.twbridge.admin.AdminDashboard;
+import net.nando256.twbridge.admin.BridgeMetrics;
+import net.nando256.twbridge.agent.AgentDirection;
+import net.nando256.twbridge.agent.AgentInventory;
+import net.nando256.twbridge.agent.AgentMotionSystem;
+import net.nando256.twbridge.agent.AgentRaycaster;
+import net.nando256.twbridge.agent.AgentStandPool;
+import net.nando256.twbridge.agent.AgentWatchHub;
+import net.nando256.twbridge.agent.MaterialIndex;
+import net.nando256.twbridge.cluster.ClusterNode;
+import net.nando256.twbridge.command.CommandOutput;
+import net.nando256.twbridge.command.CommandPolicy;
+import net.nando256.twbridge.command.HealthGovernor;
+import net.nando256.twbridge.command.LaneScheduler;
+import net.nando256.twbridge.command.ThrottledLane;
 import net.nando256.twbridge.http.TwHttpServer;
+import net.nando256.twbridge.log.EventAppender;
+import net.nando256.twbridge.log.EventLog;
+import net.nando256.twbridge.log.EventLog.Category;
+import net.nando256.twbridge.replay.ReplayRun;
+import net.nando256.twbridge.replay.SessionRecorder;
+import net.nando256.twbridge.structure.StructureCapture;
+import net.nando256.twbridge.structure.StructurePasteJob;
+import net.nando256.twbridge.structure.StructureRegion;
+import net.nando256.twbridge.structure.StructureStore;
+import net.nando256.twbridge.structure.StructureTemplate;
+import net.nando256.twbridge.tls.TlsContext;
+import net.nando256.twbridge.world.BlockPlacementPipeline;
+import net.nando256.twbridge.world.ChangeJournal;
+import net.nando256.twbridge.world.ChunkGate;
+import net.nando256.twbridge.world.JournalRevertJob;
 import net.nando256.twbridge.ws.BridgeServer;
+import net.nando256.twbridge.ws.BridgeState;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Color;
@@ -9,6 +40,7 @@ import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.World;
+import org.bukkit.block.Container;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.ArmorStand;
@@ -17,19 +49,32 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.player.PlayerInteractAtEntityEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.LeatherArmorMeta;
 import org.bukkit.inventory.meta.SkullMeta;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.util.EulerAngle;
-import org.bukkit.util.Vector;
+import org.bukkit.scheduler.BukkitTask;
+import org.java_websocket.server.DefaultSSLWebSocketServerFactory;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -38,27 +83,139 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 public final class TwBridgePlugin extends JavaPlugin implements Listener {
-    private BridgeServer wsServer;
+    private final List<BridgeServer> wsServers = new ArrayList<>();
+    private BridgeState bridgeState;
     private TwHttpServer httpServer;
+    private AdminDashboard dashboard;
+    private final BridgeMetrics metrics = new BridgeMetrics();
+    private final Set<String> frozenOwners = ConcurrentHashMap.newKeySet();
+    private TlsContext tls;
+    private BukkitTask tlsReloadTask;
+    private SessionRecorder recorder;
+    private ReplayRun replay;
+    private AgentMotionSystem motionSystem;
+    private ChunkGate chunkGate;
+    private double agentMaxDistance;
+    private AgentWatchHub watchHub;
+    private BlockPlacementPipeline placementPipeline;
+    private StructureStore structureStore;
+    private int structureMaxVolume;
+    private ChangeJournal changeJournal;
+    private volatile CommandPolicy commandPolicy = CommandPolicy.fromConfig(null);
+    private ThrottledLane heavyCommandLane;
+    private LaneScheduler laneScheduler;
+    private HealthGovernor healthGovernor;
+    private int commandOutputMaxChars;
+    private int commandOutputMaxLines;
+    private volatile ClusterNode cluster;
     private final Map<String, AgentEntry> agents = new ConcurrentHashMap<>();
     private final Map<String, AgentInventory> agentInventories = new ConcurrentHashMap<>();
-    private boolean debug;
+    private AgentStandPool standPool = new AgentStandPool(0);
+    private BukkitTask hibernateTask;
+    private long hibernateAfterMillis;
+    private ItemStack golemHead;
+    private final ItemStack agentChestplate = new ItemStack(Material.IRON_CHESTPLATE);
+    private final ItemStack agentLeggings = new ItemStack(Material.LEATHER_LEGGINGS);
+    private final ItemStack agentBoots = new ItemStack(Material.LEATHER_BOOTS);
+    private volatile EventLog events = EventLog.disabled();
     private volatile List<BlockEntry> cachedBlockList;
+    private MaterialIndex materialIndex;
+    private AgentRaycaster raycaster;
 
     @Override
     public void onEnable() {
         saveDefaultConfig();
+        materialIndex = MaterialIndex.build();
+        raycaster = new AgentRaycaster(this, materialIndex);
+        cachedBlockList = computeBlockList();
+        changeJournal = new ChangeJournal(this, getDataFolder().toPath().resolve("journal"));
+        changeJournal.clear();
         getServer().getPluginManager().registerEvents(this, this);
         applyConfigAndStart();
     }
 
     @Override
-    public void onDisable() { stopServers(); }
+    public void onDisable() {
+        stopServers();
+        if (changeJournal != null) {
+            changeJournal.clear();
+            changeJournal.close();
+        }
+    }
 
     private void applyConfigAndStart() {
         stopServers();
-        debug = getConfig().getBoolean("debug", false);
-        logDebug("Debug mode enabled");
+        events = createEventLog();
+        events.info(Category.SYSTEM, "config.applied");
+
+        chunkGate = new ChunkGate(this, getConfig().getInt("agent.maxChunkWaits", 256));
+        agentMaxDistance = getConfig().getDouble("agent.maxDistanceFromOwner", 96.0);
+        motionSystem = new AgentMotionSystem(this, getConfig().getDouble("agent.moveBlocksPerTick", 0.5), chunkGate,
+            (agentKey, world, x, z) -> {
+                var entry = agents.get(agentKey);
+                return entry == null || withinOwnerRange(entry.owner(), world, x + 0.5, z + 0.5);
+            });
+        motionSystem.start();
+        watchHub = new AgentWatchHub(this, this::sampleAgent, getConfig().getDouble("agent.watchUpdatesPerSecond", 10.0));
+        watchHub.start();
+        standPool = new AgentStandPool(getConfig().getInt("agent.poolSize", 16));
+        hibernateAfterMillis = getConfig().getLong("agent.hibernateAfterMinutes", 10L) * 60_000L;
+        if (hibernateAfterMillis > 0) {
+            hibernateTask = Bukkit.getScheduler().runTaskTimer(this, this::hibernateIdleAgents, 600L, 600L);
+        }
+        placementPipeline = new BlockPlacementPipeline(
+            this,
+            changeJournal,
+            chunkGate,
+            getConfig().getInt("world.placeBudgetMillis", 5),
+            getConfig().getInt("world.maxBlocksPerTick", 20000)
+        );
+        placementPipeline.start();
+        structureStore = new StructureStore(getDataFolder().toPath().resolve("structures"));
+        structureMaxVolume = getConfig().getInt("structure.maxVolume", 131072);
+        changeJournal.configure(getConfig().getInt("journal.memoryEntriesPerOwner", 65536),
+            getConfig().getInt("journal.memoryEntriesTotal", 524288));
+        commandPolicy = CommandPolicy.fromConfig(getConfig().getConfigurationSection("command"));
+        if ("scoped".equalsIgnoreCase(getConfig().getString("command.runAs", "").trim())) {
+            getLogger().warning("command.runAs: scoped was removed (it ran with console permissions); using console, limited by command.allow/deny");
+        }
+        heavyCommandLane = new ThrottledLane(
+            this,
+            getConfig().getInt("command.heavyPerTick", 1),
+            getConfig().getInt("command.heavyQueueSize", 32)
+        );
+        heavyCommandLane.start();
+        var weights = LaneScheduler.defaultWeights();
+        var weightSection = getConfig().getConfigurationSection("scheduler.weights");
+        if (weightSection != null) {
+            for (var key : weightSection.getKeys(false)) {
+                var lane = LaneScheduler.parseLane(key);
+                if (lane != null) weights.put(lane, weightSection.getInt(key, weights.get(lane)));
+            }
+        }
+        laneScheduler = new LaneScheduler(
+            this,
+            getConfig().getLong("scheduler.budgetMillis", 8L),
+            getConfig().getInt("scheduler.maxQueuedPerSession", 512),
+            weights
+        );
+        laneScheduler.start();
+        if (getConfig().getBoolean("health.enabled", true)) {
+            healthGovernor = new HealthGovernor(
+                this,
+                getConfig().getLong("health.sampleTicks", 20L),
+                getConfig().getDouble("health.healthyMspt", 40.0),
+                getConfig().getDouble("health.overloadedMspt", 50.0),
+                getConfig().getDouble("health.minTps", 18.0),
+                getConfig().getDouble("health.minScale", 0.2),
+                getConfig().getDouble("health.decreaseFactor", 0.7),
+                getConfig().getDouble("health.recoverStep", 0.1),
+                this::applyThrottle
+            );
+            healthGovernor.start();
+        }
+        commandOutputMaxChars = getConfig().getInt("command.outputMaxChars", 4096);
+        commandOutputMaxLines = getConfig().getInt("command.outputMaxLines", 64);
 
         String wsAddr = firstNonBlank(
             getConfig().getString("ws.bindAddress"),
@@ -79,54 +236,384 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
             getConfig().getString("ws.advertiseAddress"),
             wsAddr
         );
-        String wsDefaultUrl = buildWsDefaultUrl(clientHost, wsPort);
+        if (getConfig().getBoolean("tls.enabled", false)) {
+            tls = loadTls();
+            if (tls == null) {
+                getServer().getPluginManager().disablePlugin(this);
+                return;
+            }
+        }
+        String wsScheme = tls != null ? "wss" : "ws";
+        String httpScheme = tls != null ? "https" : "http";
+        boolean httpEnabled = getConfig().getBoolean("http.enabled", true);
+        boolean singlePort = httpEnabled && getConfig().getBoolean("http.singlePort", false);
+        String wsDefaultUrl = buildWsDefaultUrl(wsScheme, clientHost, wsPort) + (singlePort ? "/ws" : "");
+        TwHttpServer frontend = null;
+        if (singlePort) {
+            try {
+                frontend = createHttpServer(wsDefaultUrl, null);
+                frontend.load();
+            } catch (Exception e) {
+                getLogger().severe("HTTP Server Failed: " + e.getMessage());
+                frontend = null;
+            }
+        }
+
+        int decoders = getConfig().getInt("ws.decoderThreads", 0);
+        int listeners = Math.max(1, getConfig().getInt("ws.listeners", 1));
+        if (listeners > 1 && !BridgeServer.isReusePortSupported()) {
+            getLogger().warning("ws.listeners > 1 needs SO_REUSEPORT (Linux); using a single listener.");
+            listeners = 1;
+        }
 
         try {
-            wsServer = new BridgeServer(this, wsAddr, wsPort, origins, rate, maxBytes, pairingRequired, pairWindowSec);
-            wsServer.setReuseAddr(true);
-            wsServer.start();
-            getLogger().info("WS: ws://" + wsAddr + ":" + wsPort);
+            if (getConfig().getBoolean("recorder.enabled", false)) {
+                try {
+                    recorder = SessionRecorder.open(getLogger(), getDataFolder().toPath().resolve("recordings"),
+                        getConfig().getInt("recorder.queueSize", 65536));
+                    getLogger().info("Recording bridge sessions to " + recorder.file());
+                } catch (IOException e) {
+                    getLogger().warning("Session recorder failed: " + e.getMessage());
+                }
+            }
+            bridgeState = new BridgeState(this, pairingRequired, pairWindowSec, recorder,
+                getConfig().getInt("workspace.maxMembers", 32), getConfig().getInt("workspace.stallSeconds", 120));
+            for (int i = 0; i < listeners; i++) {
+                var server = new BridgeServer(this, bridgeState, wsAddr, wsPort, origins, rate, maxBytes,
+                    decoders, listeners > 1, frontend);
+                server.setReuseAddr(true);
+                if (tls != null) server.setWebSocketFactory(new DefaultSSLWebSocketServerFactory(tls.context()));
+                server.start();
+                wsServers.add(server);
+            }
+            getLogger().info("WS: " + wsScheme + "://" + wsAddr + ":" + wsPort + " (" + listeners + " listener(s))");
         } catch (Exception e) {
             getLogger().severe("WS Server Failed: " + e.getMessage());
             getServer().getPluginManager().disablePlugin(this);
             return;
         }
 
-        if (getConfig().getBoolean("http.enabled", true)) {
+        if (getConfig().getBoolean("cluster.enabled", false)) {
+            startCluster(wsServers.get(0));
+        }
+
+        if (frontend != null) {
+            httpServer = frontend;
+            if (getConfig().getBoolean("dashboard.enabled", false)) {
+                getLogger().warning("The admin dashboard needs its own HTTP port; set http.singlePort to false to use it.");
+            }
+            getLogger().info("HTTP: " + httpScheme + "://" + wsAddr + ":" + wsPort + getConfig().getString("http.path", "/tw/twbridge.js")
+                + " (shared with WS at /ws)");
+        } else if (httpEnabled && !singlePort) {
             String hAddr = firstNonBlank(
                 getConfig().getString("http.bindAddress"),
                 getConfig().getString("http.address"),
                 "0.0.0.0"
             );
             int hPort = getConfig().getInt("http.port", 8788);
-            String hPath = getConfig().getString("http.path", "/tw/twbridge.js");
-            var cors = getConfig().getStringList("http.corsAllowOrigins");
-            int cache = getConfig().getInt("http.cacheSeconds", 60);
             try {
-                httpServer = new TwHttpServer(this, hAddr, hPort, hPath, cors, cache, wsDefaultUrl);
+                dashboard = createDashboard();
+                httpServer = createHttpServer(wsDefaultUrl, dashboard);
                 httpServer.start();
-                getLogger().info("HTTP: http://" + hAddr + ":" + hPort + hPath);
+                getLogger().info("HTTP: " + httpScheme + "://" + hAddr + ":" + hPort + getConfig().getString("http.path", "/tw/twbridge.js"));
+                if (dashboard != null) {
+                    dashboard.start();
+                    getLogger().info("Dashboard: " + httpScheme + "://" + hAddr + ":" + hPort + dashboard.path());
+                }
             } catch (Exception e) {
                 getLogger().severe("HTTP Server Failed: " + e.getMessage());
             }
         }
     }
 
+    private TwHttpServer createHttpServer(String wsDefaultUrl, AdminDashboard dashboard) {
+        String hAddr = firstNonBlank(
+            getConfig().getString("http.bindAddress"),
+            getConfig().getString("http.address"),
+            "0.0.0.0"
+        );
+        return new TwHttpServer(this, hAddr,
+            getConfig().getInt("http.port", 8788),
+            getConfig().getString("http.path", "/tw/twbridge.js"),
+            getConfig().getStringList("http.corsAllowOrigins"),
+            getConfig().getInt("http.cacheSeconds", 60),
+            wsDefaultUrl,
+            getConfig().getBoolean("http.redirectToHashed", true),
+            getConfig().getInt("http.variantCacheSize", 8),
+            tls == null ? null : tls.context(),
+            dashboard);
+    }
+
+    private AdminDashboard createDashboard() {
+        if (!getConfig().getBoolean("dashboard.enabled", false)) return null;
+        byte[] page;
+        try (var in = getResource("admin/dashboard.html")) {
+            if (in == null) throw new IOException("resource admin/dashboard.html not found");
+            page = in.readAllBytes();
+        } catch (IOException e) {
+            getLogger().warning("Dashboard disabled: " + e.getMessage());
+            return null;
+        }
+        var token = getConfig().getString("dashboard.token", "");
+        if (token == null || token.isBlank()) {
+            var bytes = new byte[18];
+            new SecureRandom().nextBytes(bytes);
+            token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            getLogger().info("[twbridge] Dashboard token: " + token + " (set dashboard.token to keep it across restarts)");
+        }
+        return new AdminDashboard(getLogger(),
+            getConfig().getString("dashboard.path", "/admin"),
+            token,
+            getConfig().getInt("dashboard.maxStreams", 4),
+            getConfig().getLong("dashboard.intervalMillis", 1000L),
+            this::dashboardSnapshot,
+            new AdminDashboard.Actions() {
+                @Override public boolean kick(String connectionId) {
+                    var state = bridgeState;
+                    return state != null && state.kick(connectionId);
+                }
+
+                @Override public boolean freeze(String player, boolean frozen) {
+                    return setAgentsFrozen(player, frozen);
+                }
+            },
+            page);
+    }
+
+    // runs on the dashboard thread: reads only concurrent maps, volatile fields and the lane stats
+    private String dashboardSnapshot() {
+        var root = new JSONObject()
+            .put("time", System.currentTimeMillis())
+            .put("tps", Bukkit.getTPS()[0])
+            .put("mspt", Bukkit.getAverageTickTime());
+        var sessions = new JSONArray();
+        var state = bridgeState;
+        if (state != null) {
+            for (var conn : state.connections()) {
+                sessions.put(new JSONObject()
+                    .put("id", conn.id())
+                    .put("remote", conn.remote())
+                    .put("player", conn.player() == null ? JSONObject.NULL : conn.player())
+                    .put("openedAt", conn.openedAt())
+                    .put("inbound", conn.inbound())
+                    .put("outbound", conn.outbound()));
+            }
+        }
+        root.put("sessions", sessions);
+        var perOwner = new TreeMap<String, int[]>();
+        for (var entry : agents.values()) {
+            var counts = perOwner.computeIfAbsent(entry.owner().toLowerCase(Locale.ROOT), k -> new int[2]);
+            counts[0]++;
+            if (entry.parked != null) counts[1]++;
+        }
+        var agentsJson = new JSONObject();
+        perOwner.forEach((owner, counts) -> agentsJson.put(owner, new JSONObject().put("count", counts[0]).put("hibernating", counts[1])));
+        root.put("agents", agentsJson);
+        var ownerWork = new JSONObject();
+        metrics.snapshot().forEach((owner, usage) -> ownerWork.put(owner, new JSONObject().put("nanos", usage[0]).put("tasks", usage[1])));
+        root.put("ownerWork", ownerWork);
+        var systemWork = new JSONObject();
+        var queues = new JSONObject();
+        var placement = placementPipeline;
+        if (placement != null) {
+            systemWork.put("placement", placement.busyNanos());
+            queues.put("placement jobs", placement.stats().queuedJobs());
+        }
+        var motion = motionSystem;
+        if (motion != null) systemWork.put("motion", motion.busyNanos());
+        var watch = watchHub;
+        if (watch != null) systemWork.put("watch", watch.busyNanos());
+        root.put("systemWork", systemWork);
+        var scheduler = laneScheduler;
+        if (scheduler != null) {
+            for (var lane : scheduler.stats()) queues.put("lane " + lane.lane().name().toLowerCase(Locale.ROOT), lane.queued());
+        }
+        var gate = chunkGate;
+        if (gate != null) queues.put("chunk waits", gate.parked());
+        if (state != null) queues.put("workspace sequences", state.activeSequences());
+        root.put("queues", queues);
+        root.put("frozen", new JSONArray(frozenOwners));
+        var governor = healthGovernor;
+        if (governor != null) root.put("health", governor.healthName()).put("throttle", governor.scale());
+        return root.toString();
+    }
+
+    private void applyThrottle(HealthGovernor governor) {
+        double scale = governor.scale();
+        if (laneScheduler != null) laneScheduler.setBudgetScale(scale);
+        if (placementPipeline != null) placementPipeline.setBudgetScale(scale);
+        if (bridgeState != null) bridgeState.throttle(scale, governor.healthName());
+        // clients pace themselves from this frame instead of running into timeouts
+        for (var server : wsServers) server.pushAllowance();
+        events.info(Category.SYSTEM, "health.throttle", e -> e.field("health", governor.healthName())
+            .field("scale", scale).field("mspt", governor.mspt()).field("tps", governor.tps()));
+    }
+
+    public boolean isFrozen(String ownerName) {
+        return !frozenOwners.isEmpty() && frozenOwners.contains(ownerName.toLowerCase(Locale.ROOT));
+    }
+
+    private boolean setAgentsFrozen(String player, boolean frozen) {
+        var key = player.trim().toLowerCase(Locale.ROOT);
+        if (key.isEmpty()) return false;
+        if (!frozen) {
+            frozenOwners.remove(key);
+            events.info(Category.AGENT, "agent.unfrozen", e -> e.field("player", key));
+            return true;
+        }
+        frozenOwners.add(key);
+        events.info(Category.AGENT, "agent.frozen", e -> e.field("player", key));
+        // new commands are refused by the bridge; stop the moves already under way
+        runSync(() -> {
+            var motion = motionSystem;
+            if (motion == null) return;
+            for (var agentKey : agents.keySet()) {
+                if (agentKey.startsWith(key + ".")) motion.cancel(agentKey, "agents frozen by admin");
+            }
+        });
+        return true;
+    }
+
+    private TlsContext loadTls() {
+        var path = getConfig().getString("tls.keystore", "tls/keystore.p12");
+        var keystore = getDataFolder().toPath().resolve(path == null ? "" : path);
+        try {
+            var context = TlsContext.load(
+                keystore,
+                getConfig().getString("tls.keystoreType", "PKCS12"),
+                getConfig().getString("tls.keystorePassword", ""),
+                getConfig().getString("tls.keyPassword", ""),
+                getConfig().getInt("tls.sessionCacheSize", 2048),
+                getConfig().getInt("tls.sessionTimeoutSeconds", 86400)
+            );
+            long checkTicks = getConfig().getLong("tls.reloadCheckSeconds", 300L) * 20L;
+            if (checkTicks > 0) {
+                tlsReloadTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> reloadTls(context, true),
+                    checkTicks, checkTicks);
+            }
+            return context;
+        } catch (Exception e) {
+            getLogger().severe("TLS keystore failed (" + keystore + "): " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String reloadTls(TlsContext context, boolean onlyIfChanged) {
+        try {
+            if (onlyIfChanged) {
+                if (!context.reloadIfChanged()) return null;
+            } else {
+                context.reload();
+            }
+            getLogger().info("TLS certificates reloaded from " + context.keystore());
+            return "TLS certificates reloaded.";
+        } catch (Exception e) {
+            getLogger().warning("TLS reload failed, keeping current certificates: " + e.getMessage());
+            return "TLS reload failed: " + e.getMessage();
+        }
+    }
+
+    private void startCluster(BridgeServer dispatcher) {
+        var nodeId = firstNonBlank(getConfig().getString("cluster.nodeId"), "node-" + getServer().getPort());
+        var secret = getConfig().getString("cluster.secret", "");
+        if (secret == null || secret.isBlank()) {
+            // without a secret any host that can reach the port could drive agents, so don't listen at all
+            getLogger().severe("cluster.secret is empty; cluster mode stays disabled.");
+            return;
+        }
+        var peers = new HashMap<String, InetSocketAddress>();
+        for (var entry : getConfig().getStringList("cluster.peers")) {
+            var peer = parsePeer(entry);
+            if (peer == null) {
+                getLogger().warning("Ignoring cluster peer (expected id=host:port): " + entry);
+                continue;
+            }
+            peers.put(peer.getKey(), peer.getValue());
+        }
+        var node = new ClusterNode(
+            getLogger(),
+            nodeId,
+            secret,
+            new InetSocketAddress(
+                firstNonBlank(getConfig().getString("cluster.bindAddress"), "127.0.0.1"),
+                getConfig().getInt("cluster.port", 8790)),
+            peers,
+            getConfig().getLong("cluster.requestTimeoutSeconds", 60L) * 1000L,
+            dispatcher::dispatchForwarded
+        );
+        try {
+            var online = new ArrayList<String>();
+            for (var player : getServer().getOnlinePlayers()) online.add(player.getName());
+            node.start(online);
+            cluster = node;
+        } catch (IOException e) {
+            node.stop();
+            getLogger().severe("Cluster node failed: " + e.getMessage());
+        }
+    }
+
+    private static Map.Entry<String, InetSocketAddress> parsePeer(String entry) {
+        if (entry == null) return null;
+        int eq = entry.indexOf('=');
+        int colon = entry.lastIndexOf(':');
+        if (eq <= 0 || colon <= eq + 1 || colon == entry.length() - 1) return null;
+        try {
+            int port = Integer.parseInt(entry.substring(colon + 1).trim());
+            var host = entry.substring(eq + 1, colon).trim();
+            return Map.entry(entry.substring(0, eq).trim(), InetSocketAddress.createUnresolved(host, port));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
     private void stopServers() {
+        if (tlsReloadTask != null) { tlsReloadTask.cancel(); tlsReloadTask = null; }
+        tls = null;
+        if (dashboard != null) { dashboard.stop(); dashboard = null; }
+        if (cluster != null) { cluster.stop(); cluster = null; }
         if (httpServer != null) { httpServer.stop(); httpServer = null; }
-        if (wsServer != null) { try { wsServer.stop(1000); } catch (Exception ignored) {} wsServer = null; }
+        for (var server : wsServers) { try { server.stop(1000); } catch (Exception ignored) {} }
+        wsServers.clear();
+        if (replay != null) { replay.cancel(); replay = null; }
+        if (recorder != null) { recorder.close(); recorder = null; }
+        if (bridgeState != null) { bridgeState.close(); bridgeState = null; }
+        if (motionSystem != null) { motionSystem.stop(); motionSystem = null; }
+        if (chunkGate != null) { chunkGate.stop(); chunkGate = null; }
+        if (watchHub != null) { watchHub.stop(); watchHub = null; }
+        if (placementPipeline != null) { placementPipeline.stop(); placementPipeline = null; }
+        if (heavyCommandLane != null) { heavyCommandLane.stop(); heavyCommandLane = null; }
+        if (laneScheduler != null) { laneScheduler.stop(); laneScheduler = null; }
+        if (healthGovernor != null) { healthGovernor.stop(); healthGovernor = null; }
+        if (hibernateTask != null) { hibernateTask.cancel(); hibernateTask = null; }
         cleanupAgents();
+        var log = events;
+        events = EventLog.disabled();
+        log.close();
     }
 
     @Override
     public boolean onCommand(CommandSender s, Command c, String l, String[] a) {
         if (!s.hasPermission("twbridge.admin")) { s.sendMessage("No permission"); return true; }
-        if (a.length == 0) { s.sendMessage("/twbridge reload | pair"); return true; }
+        if (a.length == 0) { s.sendMessage("/twbridge reload [certs] | pair | stats | rollback <player> [since] | replay <file|stop> [speed] [player]"); return true; }
         switch (a[0].toLowerCase(Locale.ROOT)) {
-            case "reload" -> { reloadConfig(); applyConfigAndStart(); s.sendMessage("twbridge reloaded."); }
+            case "reload" -> {
+                if (a.length > 1 && a[1].equalsIgnoreCase("certs")) {
+                    // swaps the key material under the live SSLContext; listeners and sessions stay up
+                    var context = tls;
+                    if (context == null) { s.sendMessage("TLS is not enabled."); break; }
+                    var result = reloadTls(context, false);
+                    s.sendMessage(result);
+                    break;
+                }
+                reloadConfig(); applyConfigAndStart(); s.sendMessage("twbridge reloaded.");
+            }
             case "pair" -> {
-                if (wsServer == null) { s.sendMessage("WS server not running."); break; }
-                var code = wsServer.rotatePairCode();
+                if (bridgeState == null) { s.sendMessage("WS server not running."); break; }
+                var code = bridgeState.rotatePairCode();
                 if (code == null) {
                     s.sendMessage("Pairing is disabled (ws.requirePairing = false).");
                 } else {
@@ -134,22 +621,148 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                     s.sendMessage("Pair code: " + code + " (valid " + ttl + "s)");
                 }
             }
+            case "stats" -> {
+                if (placementPipeline == null) { s.sendMessage("Placement pipeline not running."); break; }
+                var stats = placementPipeline.stats();
+                s.sendMessage(String.format(Locale.ROOT,
+                    "Block writes: applied=%d unchanged=%d rejected=%d | last tick %d in %d chunks | avg %.1f/tick, peak %d | jobs %d",
+                    stats.totalApplied(), stats.totalUnchanged(), stats.totalRejected(),
+                    stats.lastTickApplied(), stats.lastTickChunks(),
+                    stats.averageAppliedPerTick(), stats.peakAppliedPerTick(), stats.queuedJobs()));
+                if (laneScheduler != null) {
+                    for (var lane : laneScheduler.stats()) {
+                        s.sendMessage(String.format(Locale.ROOT,
+                            "Lane %s: queued=%d (%d sessions) executed=%d dropped=%d | last tick %d | wait avg %.1fms max %dms",
+                            lane.lane().name().toLowerCase(Locale.ROOT), lane.queued(), lane.sessions(), lane.executed(),
+                            lane.dropped(), lane.lastTickExecuted(), lane.averageWaitMillis(), lane.maxWaitMillis()));
+                    }
+                }
+                var node = cluster;
+                if (node != null) {
+                    s.sendMessage("Cluster node " + node.nodeId() + ": " + node.connectedPeers() + " peer link(s) up");
+                }
+                long hibernating = agents.values().stream().filter(entry -> entry.parked != null).count();
+                s.sendMessage("Agents: " + agents.size() + " (" + hibernating + " hibernating) | stand pool: "
+                    + standPool.idle() + " idle, " + standPool.reused() + " reused, " + standPool.created() + " spawned");
+                var governor = healthGovernor;
+                if (governor != null) {
+                    s.sendMessage(String.format(Locale.ROOT, "Health: %s | MSPT %.1f, TPS %.1f | bridge throttled to %.0f%%",
+                        governor.healthName(), governor.mspt(), governor.tps(), governor.scale() * 100));
+                }
+                var admin = dashboard;
+                if (admin != null) s.sendMessage("Dashboard: " + admin.streamCount() + " open stream(s), " + frozenOwners.size() + " player(s) frozen");
+                s.sendMessage("Events: " + events.sampledOut() + " sampled out, " + events.dropped() + " dropped by the appender");
+                var bridge = bridgeState;
+                if (bridge != null) {
+                    s.sendMessage("Workspaces: " + bridge.workspaces().count() + " open, " + bridge.workspaces().memberCount()
+                        + " connection(s) joined, " + bridge.activeSequences() + " shared agent(s) busy");
+                }
+                s.sendMessage("Raycasts: " + raycaster.castCount() + " cast, " + raycaster.cachedCount() + " served from the tick cache");
+                var gate = chunkGate;
+                if (gate != null) {
+                    s.sendMessage("Chunk waits: " + gate.parked() + " parked, " + gate.requested() + " async loads requested");
+                }
+                var rec = recorder;
+                if (rec != null) {
+                    s.sendMessage("Recording " + rec.file().getFileName() + ": " + rec.recorded() + " frames, " + rec.dropped() + " dropped");
+                }
+            }
+            case "replay" -> handleReplayCommand(s, a);
+            case "rollback" -> {
+                if (a.length < 2) { s.sendMessage("/twbridge rollback <player> [since, e.g. 30m]"); break; }
+                long since = 0L;
+                if (a.length >= 3) {
+                    long window = parseDurationMillis(a[2]);
+                    if (window <= 0) { s.sendMessage("Invalid duration: " + a[2]); break; }
+                    since = System.currentTimeMillis() - window;
+                }
+                var target = a[1];
+                long pending = changeJournal.size(target);
+                if (pending == 0) { s.sendMessage("No recorded changes for " + target + "."); break; }
+                s.sendMessage("Rolling back changes for " + target + "...");
+                placementPipeline.submit(new JournalRevertJob(changeJournal, target, Integer.MAX_VALUE, since,
+                    reverted -> s.sendMessage("Rolled back " + reverted + " block changes for " + target + "."),
+                    msg -> s.sendMessage("Rollback failed: " + msg)));
+            }
         }
         return true;
     }
 
-    public void handleCommand(String command, Runnable onSuccess, Consumer<String> onFailure) {
+    private void handleReplayCommand(CommandSender s, String[] a) {
+        if (a.length < 2) { s.sendMessage("/twbridge replay <file|stop> [speed, 0 = unpaced] [player]"); return; }
+        if (a[1].equalsIgnoreCase("stop")) {
+            if (replay == null || !replay.isRunning()) { s.sendMessage("No replay running."); return; }
+            replay.cancel();
+            return;
+        }
+        if (wsServers.isEmpty()) { s.sendMessage("WS server not running."); return; }
+        if (replay != null && replay.isRunning()) { s.sendMessage("A replay is already running."); return; }
+        var dir = getDataFolder().toPath().resolve("recordings").normalize();
+        var file = dir.resolve(a[1]).normalize();
+        if (!file.startsWith(dir) || !java.nio.file.Files.isRegularFile(file)) {
+            s.sendMessage("Recording not found in " + dir + ": " + a[1]);
+            return;
+        }
+        double speed = 1.0;
+        if (a.length >= 3) {
+            try {
+                speed = Double.parseDouble(a[2]);
+            } catch (NumberFormatException e) {
+                s.sendMessage("Invalid speed: " + a[2]);
+                return;
+            }
+        }
+        // replays act on the live world; point them at a scratch server or a player standing in a test world
+        String owner = s instanceof Player p ? p.getName() : null;
+        if (a.length >= 4) {
+            var target = resolvePlayer(a[3]);
+            if (target == null) { s.sendMessage("Player not online: " + a[3]); return; }
+            owner = target.getName();
+        }
+        replay = new ReplayRun(file, speed, owner, wsServers.get(0)::dispatchForwarded,
+            msg -> runSync(() -> s.sendMessage(msg)));
+        replay.start();
+        s.sendMessage("Replaying " + file.getFileName() + " at " + (speed > 0 ? speed + "x" : "full speed")
+            + (owner == null ? " as the recorded players" : " as " + owner) + "...");
+    }
+
+    public CommandPolicy getCommandPolicy() {
+        return commandPolicy;
+    }
+
+    public void handleCommand(String ownerName,
+                              String command,
+                              CommandPolicy.Decision decision,
+                              Consumer<CommandOutput> onSuccess,
+                              Consumer<String> onFailure) {
         if (command == null || command.isBlank()) {
             if (onFailure != null) onFailure.accept("command required");
             return;
         }
-        logDebug("Executing command: " + command);
-        runSync(() -> {
+        if (decision == null || !decision.allowed()) {
+            if (onFailure != null) onFailure.accept("command not allowed");
+            return;
+        }
+        var policy = commandPolicy;
+        var output = new CommandOutput(commandOutputMaxChars, commandOutputMaxLines);
+        events.debug(Category.COMMAND, "command.execute", e -> e.field("player", ownerName)
+            .field("runAs", policy.runAs()).field("cost", decision.cost()).field("command", command));
+        Runnable work = () -> {
             try {
-                boolean success = getServer().dispatchCommand(getServer().getConsoleSender(), command);
-                logDebug("Command result: " + success);
+                CommandSender sender = getServer().createCommandSender(output::accept);
+                if (policy.runAs() == CommandPolicy.RunAs.PLAYER) {
+                    var player = resolvePlayer(ownerName);
+                    if (player == null) {
+                        if (onFailure != null) onFailure.accept("player not online");
+                        return;
+                    }
+                    sender = player;
+                }
+                boolean success = getServer().dispatchCommand(sender, command);
+                events.debug(Category.COMMAND, "command.result", e -> e.field("success", success)
+                    .field("lines", output.lines().size()).field("truncated", output.truncated()));
                 if (success) {
-                    if (onSuccess != null) onSuccess.run();
+                    if (onSuccess != null) onSuccess.accept(output);
                 } else {
                     if (onFailure != null) onFailure.accept("command failed");
                 }
@@ -157,53 +770,76 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                 getLogger().warning("Bridge command failed: " + e.getMessage());
                 if (onFailure != null) onFailure.accept(e.getMessage());
             }
-        });
+        };
+        if (!decision.heavy()) {
+            schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, work, onFailure);
+            return;
+        }
+        var lane = heavyCommandLane;
+        if (lane == null || !lane.offer(work, onFailure)) {
+            if (onFailure != null) onFailure.accept("too many heavy commands queued");
+        }
     }
 
     public void handleAgentTeleportToPlayer(String agentId,
                                             String ownerName,
                                             Runnable onSuccess,
                                             Consumer<String> onFailure) {
-        runSync(() -> {
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, () -> {
             var player = resolvePlayer(ownerName);
             if (player == null) {
-                logDebug("Teleport failed: player '" + ownerName + "' not found");
+                events.debug(Category.AGENT, "agent.teleport.noPlayer", e -> e.field("player", ownerName));
                 if (onFailure != null) onFailure.accept("player not found");
                 return;
             }
             var ownerKey = player.getName();
             var agentKey = agentMapKey(ownerKey, agentId);
-            logDebug("Teleport agent " + agentId + " for " + ownerKey);
             var existing = agents.get(agentKey);
-            ArmorStand stand = existing == null ? null : getAgentEntity(existing.entityId());
             var inventory = agentInventories.computeIfAbsent(agentKey, k -> new AgentInventory());
             Location target = normalizeLocation(player.getLocation());
+            // a hibernating agent wakes up straight at the target
+            if (existing != null && existing.parked != null) existing.parked = target;
+            ArmorStand stand = existing == null ? null : agentStand(agentKey, existing);
             if (stand == null) {
-                logDebug("Spawning new agent " + agentId);
-                stand = spawnAgent(ownerKey, agentId, target);
+                events.debug(Category.AGENT, "agent.spawn", e -> e.field("agentId", agentId).field("player", ownerKey));
+                stand = acquireStand(ownerKey, agentId, target);
                 if (stand == null) {
-                    logDebug("Spawning agent failed (spawnAgent returned null)");
+                    events.warn(Category.AGENT, "agent.spawn.failed", e -> e.field("agentId", agentId).field("player", ownerKey));
                     if (onFailure != null) onFailure.accept("spawn failed");
                     return;
                 }
-                agents.put(agentKey, new AgentEntry(stand.getUniqueId(), ownerKey));
+                agents.put(agentKey, new AgentEntry(stand.getUniqueId(), ownerKey, agentId));
+                inventory.forgetEquipped();
             } else {
-                logDebug("Teleporting existing agent " + agentId);
+                events.debug(Category.AGENT, "agent.teleport", e -> e.field("agentId", agentId).field("player", ownerKey));
+                motionSystem.cancel(agentKey, "interrupted by teleport");
                 stand.teleport(target);
             }
             applyActiveSlotToStand(stand, inventory);
             if (onSuccess != null) onSuccess.run();
-        });
+        }, onFailure);
     }
 
     public void handleAgentMove(String agentId,
                                 String ownerName,
                                 String direction,
                                 double blocks,
-                                Runnable onSuccess,
+                                Consumer<AgentMotionSystem.MoveResult> onComplete,
                                 Consumer<String> onFailure) {
-        runSync(() -> {
-            var agentKey = agentMapKey(ownerName, agentId);
+        // parsing and validation run on the calling thread; bad requests never reach the tick
+        var moveDirection = AgentDirection.parse(direction);
+        if (moveDirection == null || !moveDirection.horizontal()) {
+            if (onFailure != null) onFailure.accept("invalid direction");
+            return;
+        }
+        double distance = Math.max(0, Math.min(Math.abs(blocks), 64.0));
+        if (distance < 0.01) {
+            if (onFailure != null) onFailure.accept("blocks must be greater than 0");
+            return;
+        }
+        int steps = (int) Math.max(1, Math.round(distance));
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
             var entry = agents.get(agentKey);
             if (entry == null) {
                 if (onFailure != null) onFailure.accept("agent not found");
@@ -213,38 +849,24 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                 if (onFailure != null) onFailure.accept("agent owned by another player");
                 return;
             }
-            var stand = getAgentEntity(entry.entityId());
+            var stand = agentStand(agentKey, entry);
             if (stand == null) {
                 agents.remove(agentKey);
                 if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            var normalizedDirection = normalizeDirection(direction);
-            if (normalizedDirection == null) {
-                if (onFailure != null) onFailure.accept("invalid direction");
-                return;
-            }
-            double distance = Math.max(0, Math.min(Math.abs(blocks), 64.0));
-            if (distance < 0.01) {
-                if (onFailure != null) onFailure.accept("blocks must be greater than 0");
-                return;
-            }
-            var vector = resolveDirectionVector(stand.getLocation(), normalizedDirection);
-            if (vector == null) {
-                if (onFailure != null) onFailure.accept("unable to resolve direction");
-                return;
-            }
-            var origin = stand.getLocation();
-            var offset = vector.multiply(distance);
-            var target = normalizeAgentTarget(origin.clone().add(offset), origin);
-            if (target == null) {
-                if (onFailure != null) onFailure.accept("invalid target");
-                return;
-            }
-            animateAgentMove(stand);
-            stand.teleport(target);
-            if (onSuccess != null) onSuccess.run();
-        });
+            var offset = moveDirection.offset(stand.getLocation().getYaw());
+            motionSystem.enqueue(
+                agentKey,
+                stand,
+                offset[0],
+                0,
+                offset[2],
+                steps,
+                onComplete,
+                onFailure
+            );
+        }, onFailure), onFailure);
     }
 
     public void handleAgentRotate(String agentId,
@@ -252,8 +874,14 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                                   String direction,
                                   Runnable onSuccess,
                                   Consumer<String> onFailure) {
-        runSync(() -> {
-            var agentKey = agentMapKey(ownerName, agentId);
+        var turn = AgentDirection.parse(direction);
+        if (turn != AgentDirection.LEFT && turn != AgentDirection.RIGHT) {
+            if (onFailure != null) onFailure.accept("invalid direction");
+            return;
+        }
+        float delta = turn == AgentDirection.LEFT ? -90f : 90f;
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
             var entry = agents.get(agentKey);
             if (entry == null) {
                 if (onFailure != null) onFailure.accept("agent not found");
@@ -263,30 +891,24 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                 if (onFailure != null) onFailure.accept("agent owned by another player");
                 return;
             }
-            var stand = getAgentEntity(entry.entityId());
+            var stand = agentStand(agentKey, entry);
             if (stand == null) {
                 agents.remove(agentKey);
                 if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            var turnDir = normalizeTurnDirection(direction);
-            if (turnDir == null) {
-                if (onFailure != null) onFailure.accept("invalid direction");
-                return;
-            }
-            float delta = "left".equals(turnDir) ? -90f : 90f;
             var loc = stand.getLocation();
             float newYaw = normalizeYaw(loc.getYaw() + delta);
             stand.teleport(new Location(loc.getWorld(), loc.getX(), loc.getY(), loc.getZ(), newYaw, loc.getPitch()));
             if (onSuccess != null) onSuccess.run();
-        });
+        }, onFailure), onFailure);
     }
 
     public void handleAgentDespawn(String agentId,
                                    String ownerName,
                                    Runnable onSuccess,
                                    Consumer<String> onFailure) {
-        runSync(() -> {
+        schedule(LaneScheduler.Lane.CONTROL, ownerName, () -> {
             var agentKey = agentMapKey(ownerName, agentId);
             var existing = agents.get(agentKey);
             if (existing == null) {
@@ -297,13 +919,18 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                 if (onFailure != null) onFailure.accept("agent owned by another player");
                 return;
             }
+            motionSystem.cancel(agentKey, "agent despawned");
             var entity = getAgentEntity(existing.entityId());
-            if (entity != null) entity.remove();
             agents.remove(agentKey);
+            if (entity != null) {
+                // parked work still holds the stand; endAgentOp pools it once that work has failed
+                if (existing.inFlight > 0) existing.releaseWhenIdle = true;
+                else standPool.release(entity);
+            }
             agentInventories.remove(agentKey);
-            logDebug("Despawned agent " + agentId);
+            events.debug(Category.AGENT, "agent.despawned", e -> e.field("agentId", agentId).field("player", ownerName));
             if (onSuccess != null) onSuccess.run();
-        });
+        }, onFailure);
     }
 
     public void handleAgentSlotAssignBlock(String agentId,
@@ -313,44 +940,45 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                                            int slot,
                                            Runnable onSuccess,
                                            Consumer<String> onFailure) {
-        runSync(() -> {
-            if (slot < 1 || slot > 27) {
-                if (onFailure != null) onFailure.accept("slot must be 1-27");
-                return;
-            }
-            if (amount < 1 || amount > 64) {
-                if (onFailure != null) onFailure.accept("amount must be 1-64");
-                return;
-            }
-            var agentKey = agentMapKey(ownerName, agentId);
+        if (slot < 1 || slot > 27) {
+            if (onFailure != null) onFailure.accept("slot must be 1-27");
+            return;
+        }
+        if (amount < 1 || amount > 64) {
+            if (onFailure != null) onFailure.accept("amount must be 1-64");
+            return;
+        }
+        if (blockId == null || blockId.isBlank()) {
+            if (onFailure != null) onFailure.accept("block required");
+            return;
+        }
+        // the material index is immutable, so the lookup is safe off the main thread
+        var material = materialIndex.lookup(blockId);
+        if (material == null || !material.item()) {
+            if (onFailure != null) onFailure.accept("invalid block");
+            return;
+        }
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
             var entry = agents.get(agentKey);
             if (entry == null) {
                 if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            var stand = getAgentEntity(entry.entityId());
+            var stand = agentStand(agentKey, entry);
             if (stand == null) {
                 agents.remove(agentKey);
                 agentInventories.remove(agentKey);
                 if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            if (blockId == null || blockId.isBlank()) {
-                if (onFailure != null) onFailure.accept("block required");
-                return;
-            }
-            var material = Material.matchMaterial(blockId);
-            if (material == null || !material.isItem()) {
-                if (onFailure != null) onFailure.accept("invalid block");
-                return;
-            }
             var inventory = agentInventories.computeIfAbsent(agentKey, k -> new AgentInventory());
-            inventory.slots[slot - 1] = new ItemStack(material, amount);
-            if (inventory.activeSlot == slot - 1) {
+            inventory.set(slot - 1, material.ordinal(), amount);
+            if (inventory.activeSlot() == slot - 1) {
                 applyActiveSlotToStand(stand, inventory);
             }
             if (onSuccess != null) onSuccess.run();
-        });
+        }, onFailure), onFailure);
     }
 
     public void handleAgentSlotActivate(String agentId,
@@ -358,18 +986,74 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                                         int slot,
                                         Runnable onSuccess,
                                         Consumer<String> onFailure) {
-        runSync(() -> {
-            if (slot < 1 || slot > 27) {
+        if (slot < 1 || slot > 27) {
+            if (onFailure != null) onFailure.accept("slot must be 1-27");
+            return;
+        }
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
+            var entry = agents.get(agentKey);
+            if (entry == null) {
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var stand = agentStand(agentKey, entry);
+            if (stand == null) {
+                agents.remove(agentKey);
+                agentInventories.remove(agentKey);
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var inventory = agentInventories.computeIfAbsent(agentKey, k -> new AgentInventory());
+            inventory.activate(slot - 1);
+            applyActiveSlotToStand(stand, inventory);
+            if (onSuccess != null) onSuccess.run();
+        }, onFailure), onFailure);
+    }
+
+    public void handleAgentSlotsSet(String agentId,
+                                    String ownerName,
+                                    List<AgentInventory.Stack> stacks,
+                                    Runnable onSuccess,
+                                    Consumer<String> onFailure) {
+        if (stacks.isEmpty() || stacks.size() > AgentInventory.SIZE) {
+            if (onFailure != null) onFailure.accept("slots must list 1-27 slots");
+            return;
+        }
+        // resolve everything up front so the main thread only writes the slots
+        var seen = new boolean[AgentInventory.SIZE];
+        var ordinals = new int[stacks.size()];
+        for (int i = 0; i < stacks.size(); i++) {
+            var stack = stacks.get(i);
+            if (stack.slot() < 1 || stack.slot() > AgentInventory.SIZE) {
                 if (onFailure != null) onFailure.accept("slot must be 1-27");
                 return;
             }
-            var agentKey = agentMapKey(ownerName, agentId);
+            if (seen[stack.slot() - 1]) {
+                if (onFailure != null) onFailure.accept("slot " + stack.slot() + " listed twice");
+                return;
+            }
+            seen[stack.slot() - 1] = true;
+            if (stack.amount() < 0 || stack.amount() > 64) {
+                if (onFailure != null) onFailure.accept("amount must be 0-64");
+                return;
+            }
+            if (stack.amount() == 0) continue;
+            var material = materialIndex.lookup(stack.block());
+            if (material == null || !material.item()) {
+                if (onFailure != null) onFailure.accept("invalid block: " + stack.block());
+                return;
+            }
+            ordinals[i] = material.ordinal();
+        }
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
             var entry = agents.get(agentKey);
             if (entry == null) {
                 if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            var stand = getAgentEntity(entry.entityId());
+            var stand = agentStand(agentKey, entry);
             if (stand == null) {
                 agents.remove(agentKey);
                 agentInventories.remove(agentKey);
@@ -377,25 +1061,226 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                 return;
             }
             var inventory = agentInventories.computeIfAbsent(agentKey, k -> new AgentInventory());
-            inventory.activeSlot = slot - 1;
+            for (int i = 0; i < ordinals.length; i++) {
+                var stack = stacks.get(i);
+                inventory.set(stack.slot() - 1, ordinals[i], stack.amount());
+            }
             applyActiveSlotToStand(stand, inventory);
             if (onSuccess != null) onSuccess.run();
+        }, onFailure), onFailure);
+    }
+
+    public void handleAgentInventory(String agentId,
+                                     String ownerName,
+                                     Consumer<AgentInventory.Snapshot> onSuccess,
+                                     Consumer<String> onFailure) {
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, () -> {
+            // hibernating agents keep their inventory, so there is no need to wake them
+            if (!agents.containsKey(agentKey)) {
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var inventory = agentInventories.get(agentKey);
+            var stacks = new ArrayList<AgentInventory.Stack>();
+            if (inventory != null) {
+                for (int slot = 0; slot < AgentInventory.SIZE; slot++) {
+                    var material = inventory.count(slot) == 0 ? null : materialIndex.byOrdinal(inventory.material(slot));
+                    if (material != null) stacks.add(new AgentInventory.Stack(slot + 1, material.id(), inventory.count(slot)));
+                }
+            }
+            int active = inventory == null ? 0 : inventory.activeSlot() + 1;
+            if (onSuccess != null) onSuccess.accept(new AgentInventory.Snapshot(active, stacks));
+        }, onFailure);
+    }
+
+    // take=true fills the agent from the container, false empties the agent into it
+    public void handleAgentChestTransfer(String agentId,
+                                         String ownerName,
+                                         String direction,
+                                         String blockFilter,
+                                         boolean take,
+                                         Consumer<Integer> onSuccess,
+                                         Consumer<String> onFailure) {
+        var chestDirection = AgentDirection.parse(direction);
+        if (chestDirection == null) {
+            if (onFailure != null) onFailure.accept("invalid direction");
+            return;
+        }
+        MaterialIndex.Entry filter = null;
+        if (blockFilter != null && !blockFilter.isBlank()) {
+            filter = materialIndex.lookup(blockFilter);
+            if (filter == null || !filter.item()) {
+                if (onFailure != null) onFailure.accept("invalid block");
+                return;
+            }
+        }
+        var only = filter;
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
+            var entry = agents.get(agentKey);
+            if (entry == null) {
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var stand = agentStand(agentKey, entry);
+            if (stand == null) {
+                agents.remove(agentKey);
+                agentInventories.remove(agentKey);
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var origin = stand.getLocation();
+            var offset = chestDirection.offset(origin.getYaw());
+            var world = origin.getWorld();
+            int tx = origin.getBlockX() + offset[0];
+            int ty = origin.getBlockY() + offset[1];
+            int tz = origin.getBlockZ() + offset[2];
+            if (world == null || ty < world.getMinHeight() || ty >= world.getMaxHeight()) {
+                if (onFailure != null) onFailure.accept("invalid target");
+                return;
+            }
+            if (!withinOwnerRange(ownerName, world, tx + 0.5, tz + 0.5)) {
+                if (onFailure != null) onFailure.accept("out of range");
+                return;
+            }
+            whenAgentChunkLoaded(agentKey, entry, stand, world, tx >> 4, tz >> 4, () -> {
+                // the live state reads the block entity in place instead of copying it into a snapshot
+                if (!(world.getBlockAt(tx, ty, tz).getState(false) instanceof Container container)) {
+                    if (onFailure != null) onFailure.accept("no container there");
+                    return;
+                }
+                var inventory = agentInventories.computeIfAbsent(agentKey, k -> new AgentInventory());
+                int moved = take
+                    ? takeFromContainer(container.getInventory(), inventory, only)
+                    : putIntoContainer(container.getInventory(), inventory, only);
+                applyActiveSlotToStand(stand, inventory);
+                if (onSuccess != null) onSuccess.accept(moved);
+            }, onFailure);
+        }, onFailure), onFailure);
+    }
+
+    private int takeFromContainer(Inventory items, AgentInventory inventory, MaterialIndex.Entry only) {
+        var contents = items.getStorageContents();
+        int moved = 0;
+        for (int i = 0; i < contents.length; i++) {
+            var stack = contents[i];
+            // agents hold material and count only; anything with item data stays in the container
+            if (stack == null || stack.getAmount() <= 0 || stack.hasItemMeta()) continue;
+            var material = materialIndex.byOrdinal(stack.getType().ordinal());
+            if (material == null || !material.item() || (only != null && material != only)) continue;
+            int added = inventory.add(material.ordinal(), stack.getAmount(), material.maxStackSize());
+            if (added == 0) continue;
+            moved += added;
+            int left = stack.getAmount() - added;
+            if (left == 0) {
+                items.setItem(i, null);
+            } else {
+                stack.setAmount(left);
+                items.setItem(i, stack);
+            }
+        }
+        return moved;
+    }
+
+    private int putIntoContainer(Inventory items, AgentInventory inventory, MaterialIndex.Entry only) {
+        int moved = 0;
+        for (int slot = 0; slot < AgentInventory.SIZE; slot++) {
+            int count = inventory.count(slot);
+            if (count == 0) continue;
+            var material = materialIndex.byOrdinal(inventory.material(slot));
+            if (material == null || (only != null && material != only)) continue;
+            var leftover = items.addItem(new ItemStack(material.material(), count));
+            int left = 0;
+            for (var rest : leftover.values()) left += rest.getAmount();
+            inventory.set(slot, material.ordinal(), left);
+            moved += count - left;
+        }
+        return moved;
+    }
+
+    public void handleAgentWatch(Object connection,
+                                 Consumer<String> sink,
+                                 String agentId,
+                                 String ownerName,
+                                 boolean watch,
+                                 Consumer<String> onSuccess,
+                                 Consumer<String> onFailure) {
+        schedule(LaneScheduler.Lane.CONTROL, ownerName, () -> {
+            var hub = watchHub;
+            if (hub == null) {
+                if (onFailure != null) onFailure.accept("watch not available");
+                return;
+            }
+            var agentKey = agentMapKey(ownerName, agentId);
+            if (!watch) {
+                hub.unwatch(connection, agentKey);
+                if (onSuccess != null) onSuccess.accept(null);
+                return;
+            }
+            var state = hub.watch(connection, sink, agentKey, ownerName, agentId);
+            if (state == null) {
+                if (onFailure != null) onFailure.accept("too many watched agents (max " + AgentWatchHub.MAX_WATCHES_PER_CONNECTION + ")");
+                return;
+            }
+            if (onSuccess != null) onSuccess.accept(state);
+        }, onFailure);
+    }
+
+    public void releaseAgentWatches(Object connection) {
+        runSync(() -> {
+            if (watchHub != null) watchHub.unwatchAll(connection);
         });
     }
 
+    private void sampleAgent(String agentKey, AgentWatchHub.State into) {
+        var entry = agents.get(agentKey);
+        Location loc;
+        if (entry != null && entry.parked != null) {
+            // hibernating agents report where they were parked
+            loc = entry.parked;
+        } else {
+            var entity = entry == null ? null : Bukkit.getEntity(entry.entityId());
+            if (!(entity instanceof ArmorStand stand) || stand.isDead()) {
+                into.absent();
+                return;
+            }
+            loc = stand.getLocation();
+        }
+        var inventory = agentInventories.get(agentKey);
+        int slot = 0;
+        String held = "";
+        int count = 0;
+        if (inventory != null && inventory.activeSlot() >= 0) {
+            slot = inventory.activeSlot() + 1;
+            var item = materialIndex.byOrdinal(inventory.activeMaterial());
+            if (item != null) {
+                held = item.id();
+                count = inventory.count(inventory.activeSlot());
+            }
+        }
+        into.set(loc.getWorld() == null ? "" : loc.getWorld().getName(),
+            loc.getX(), loc.getY(), loc.getZ(), loc.getYaw(), slot, held, count);
+    }
+
     public void handleAgentPlace(String agentId,
                                  String ownerName,
                                  String direction,
                                  Runnable onSuccess,
                                  Consumer<String> onFailure) {
-        runSync(() -> {
-            var agentKey = agentMapKey(ownerName, agentId);
+        var placeDirection = AgentDirection.parse(direction);
+        if (placeDirection == null) {
+            if (onFailure != null) onFailure.accept("invalid direction");
+            return;
+        }
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.BULK, ownerName, agentChunkGuard(agentKey, () -> {
             var entry = agents.get(agentKey);
             if (entry == null) {
                 if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            var stand = getAgentEntity(entry.entityId());
+            var stand = agentStand(agentKey, entry);
             if (stand == null) {
                 agents.remove(agentKey);
                 agentInventories.remove(agentKey);
@@ -403,43 +1288,296 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
                 return;
             }
             var inventory = agentInventories.get(agentKey);
-            if (inventory == null || inventory.activeSlot < 0 || inventory.activeSlot >= inventory.slots.length) {
+            if (inventory == null || inventory.activeSlot() < 0 || inventory.activeSlot() >= AgentInventory.SIZE) {
                 if (onFailure != null) onFailure.accept("no active slot");
                 return;
             }
-            var held = inventory.slots[inventory.activeSlot];
-            if (held == null || held.getType() == null || !held.getType().isBlock()) {
+            if (inventory.count(inventory.activeSlot()) == 0 && inventory.advance() >= 0) {
+                applyActiveSlotToStand(stand, inventory);
+            }
+            var held = materialIndex.byOrdinal(inventory.activeMaterial());
+            if (held == null || !held.block()) {
                 if (onFailure != null) onFailure.accept("active slot has no block");
                 return;
             }
-            var targetOffset = resolvePlaceOffset(stand.getLocation(), direction);
-            if (targetOffset == null) {
-                if (onFailure != null) onFailure.accept("invalid direction");
+            int slotAtRequest = inventory.activeSlot();
+            var origin = stand.getLocation();
+            var offset = placeDirection.offset(origin.getYaw());
+            var world = origin.getWorld();
+            int tx = origin.getBlockX() + offset[0];
+            int ty = origin.getBlockY() + offset[1];
+            int tz = origin.getBlockZ() + offset[2];
+            if (world == null || ty < world.getMinHeight() || ty >= world.getMaxHeight()) {
+                if (onFailure != null) onFailure.accept("invalid target");
                 return;
             }
-            var targetLoc = stand.getLocation().clone().add(targetOffset);
-            var targetBlock = targetLoc.getBlock();
-            if (targetBlock == null) {
-                if (onFailure != null) onFailure.accept("invalid target");
+            if (!withinOwnerRange(ownerName, world, tx + 0.5, tz + 0.5)) {
+                if (onFailure != null) onFailure.accept("out of range");
                 return;
             }
-            if (!targetBlock.isEmpty() && !targetBlock.getType().isAir()) {
-                if (onFailure != null) onFailure.accept("target not empty");
+            whenAgentChunkLoaded(agentKey, entry, stand, world, tx >> 4, tz >> 4, () -> {
+                if (inventory.activeSlot() != slotAtRequest || inventory.activeMaterial() != held.ordinal()) {
+                    if (onFailure != null) onFailure.accept("active slot changed");
+                    return;
+                }
+                int slot = inventory.activeSlot();
+                // an emptied slot hands over to the next filled one, so long builds need no slotActivate between stacks
+                int advancedTo = inventory.take(slot) == 0 ? inventory.advance() : -1;
+                applyActiveSlotToStand(stand, inventory);
+                beginAgentOp(entry);
+                placementPipeline.write(world, tx, ty, tz,
+                    held.material().createBlockData(), null, true, ownerName, result -> {
+                        endAgentOp(entry);
+                        if (result == BlockPlacementPipeline.WriteResult.REJECTED) {
+                            // a despawned agent's inventory is gone and its stand may serve another agent by now
+                            if (agentStillOn(agentKey, entry, stand)) {
+                                int refunded = refundBlock(stand, inventory, slot, held);
+                                // the block came back to the slot it emptied: stay on it rather than the one advanced to
+                                if (refunded == slot && advancedTo >= 0 && inventory.activeSlot() == advancedTo) {
+                                    inventory.activate(slot);
+                                    applyActiveSlotToStand(stand, inventory);
+                                }
+                            }
+                            if (onFailure != null) onFailure.accept("target not empty");
+                        } else if (onSuccess != null) {
+                            onSuccess.run();
+                        }
+                    });
+            }, onFailure);
+        }, onFailure), onFailure);
+    }
+
+    public void handleAgentRaycast(String agentId,
+                                   String ownerName,
+                                   int rays,
+                                   double spread,
+                                   double distance,
+                                   double pitch,
+                                   Consumer<List<AgentRaycaster.Hit>> onSuccess,
+                                   Consumer<String> onFailure) {
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, agentChunkGuard(agentKey, () -> {
+            var entry = agents.get(agentKey);
+            if (entry == null) {
+                if (onFailure != null) onFailure.accept("agent not found");
                 return;
             }
-            targetBlock.setType(held.getType(), false);
-            var newAmount = held.getAmount() - 1;
-            inventory.slots[inventory.activeSlot] = newAmount > 0 ? new ItemStack(held.getType(), newAmount) : null;
-            applyActiveSlotToStand(stand, inventory);
-            if (onSuccess != null) onSuccess.run();
-        });
+            var stand = agentStand(agentKey, entry);
+            if (stand == null) {
+                agents.remove(agentKey);
+                agentInventories.remove(agentKey);
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var loc = stand.getLocation();
+            if (loc.getWorld() == null) {
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            // rays start mid-height of the block the agent stands in
+            raycaster.cast(loc.getWorld(), loc.getX(), loc.getY() + 0.5, loc.getZ(), loc.getYaw(), (float) pitch,
+                rays, spread, distance, onSuccess, onFailure);
+        }, onFailure), onFailure);
+    }
+
+    public void handleStructureSave(String agentId,
+                                    String ownerName,
+                                    String name,
+                                    StructureRegion region,
+                                    boolean overwrite,
+                                    Consumer<StructureCapture.Encoded> onSuccess,
+                                    Consumer<String> onFailure) {
+        var store = structureStore;
+        var safeName = store.sanitizeName(name);
+        if (safeName == null) {
+            if (onFailure != null) onFailure.accept("invalid structure name");
+            return;
+        }
+        if (region.volume() > structureMaxVolume) {
+            if (onFailure != null) onFailure.accept("region too large");
+            return;
+        }
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.BULK, ownerName, agentChunkGuard(agentKey, () -> {
+            var entry = agents.get(agentKey);
+            if (entry == null) {
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var stand = agentStand(agentKey, entry);
+            if (stand == null) {
+                agents.remove(agentKey);
+                agentInventories.remove(agentKey);
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var owner = resolvePlayer(ownerName);
+            if (owner == null) {
+                if (onFailure != null) onFailure.accept("player not online");
+                return;
+            }
+            var ownerId = owner.getUniqueId();
+            var origin = stand.getLocation();
+            var world = origin.getWorld();
+            int minX = origin.getBlockX() + region.minX();
+            int minY = origin.getBlockY() + region.minY();
+            int minZ = origin.getBlockZ() + region.minZ();
+            if (world == null || minY < world.getMinHeight() || minY + region.sizeY() > world.getMaxHeight()) {
+                if (onFailure != null) onFailure.accept("region outside world");
+                return;
+            }
+            if (!regionWithinOwnerRange(ownerName, world, minX, minZ, region.sizeX(), region.sizeZ())) {
+                if (onFailure != null) onFailure.accept("out of range");
+                return;
+            }
+            whenRegionLoaded(world, minX >> 4, minZ >> 4, (minX + region.sizeX() - 1) >> 4, (minZ + region.sizeZ() - 1) >> 4, 0, () -> {
+                var capture = StructureCapture.capture(world, minX, minY, minZ,
+                    region.sizeX(), region.sizeY(), region.sizeZ());
+                if (capture == null) {
+                    if (onFailure != null) onFailure.accept("region not loaded");
+                    return;
+                }
+                Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                    try {
+                        if (!overwrite && store.exists(ownerId, safeName)) {
+                            if (onFailure != null) onFailure.accept("structure already exists");
+                            return;
+                        }
+                        var encoded = capture.encode();
+                        store.save(ownerId, safeName, encoded, region.minX(), region.minY(), region.minZ());
+                        events.debug(Category.STRUCTURE, "structure.saved", e -> e.field("name", safeName)
+                            .field("palette", encoded.palette().size()));
+                        if (onSuccess != null) onSuccess.accept(encoded);
+                    } catch (Exception e) {
+                        getLogger().warning("Structure save failed: " + e.getMessage());
+                        if (onFailure != null) onFailure.accept("save failed");
+                    }
+                });
+            }, onFailure);
+        }, onFailure), onFailure);
+    }
+
+    // loads the region's chunks one after another through the chunk gate, never synchronously;
+    // 'from' is the row-major index to resume at, so each chunk is only waited for once
+    private void whenRegionLoaded(World world, int minCX, int minCZ, int maxCX, int maxCZ, int from,
+                                  Runnable work, Consumer<String> onFailure) {
+        int width = maxCZ - minCZ + 1;
+        int total = (maxCX - minCX + 1) * width;
+        for (int i = from; i < total; i++) {
+            int cx = minCX + i / width;
+            int cz = minCZ + i % width;
+            if (world.isChunkLoaded(cx, cz)) continue;
+            int next = i + 1;
+            chunkGate.whenLoaded(world, cx, cz,
+                () -> whenRegionLoaded(world, minCX, minCZ, maxCX, maxCZ, next, work, onFailure), onFailure);
+            return;
+        }
+        work.run();
+    }
+
+    public void handleStructurePaste(String agentId,
+                                     String ownerName,
+                                     String name,
+                                     boolean includeAir,
+                                     Consumer<Integer> onSuccess,
+                                     Consumer<String> onFailure) {
+        var safeName = structureStore.sanitizeName(name);
+        if (safeName == null) {
+            if (onFailure != null) onFailure.accept("invalid structure name");
+            return;
+        }
+        // the owner's uuid names the template directory; resolve it on the main thread, read the file off it
+        schedule(LaneScheduler.Lane.CONTROL, ownerName, () -> {
+            var owner = resolvePlayer(ownerName);
+            if (owner == null) {
+                if (onFailure != null) onFailure.accept("player not online");
+                return;
+            }
+            var ownerId = owner.getUniqueId();
+            Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                StructureTemplate template;
+                try {
+                    template = structureStore.load(ownerId, safeName);
+                } catch (IOException e) {
+                    getLogger().warning("Structure load failed: " + e.getMessage());
+                    if (onFailure != null) onFailure.accept("structure unreadable");
+                    return;
+                }
+                if (template == null) {
+                    if (onFailure != null) onFailure.accept("structure not found");
+                    return;
+                }
+                if (template.volume() > structureMaxVolume) {
+                    if (onFailure != null) onFailure.accept("structure too large");
+                    return;
+                }
+                pasteTemplate(agentId, ownerName, safeName, template, includeAir, onSuccess, onFailure);
+            });
+        }, onFailure);
+    }
+
+    private void pasteTemplate(String agentId,
+                               String ownerName,
+                               String safeName,
+                               StructureTemplate template,
+                               boolean includeAir,
+                               Consumer<Integer> onSuccess,
+                               Consumer<String> onFailure) {
+        var agentKey = agentMapKey(ownerName, agentId);
+        schedule(LaneScheduler.Lane.BULK, ownerName, agentChunkGuard(agentKey, () -> {
+            var entry = agents.get(agentKey);
+            if (entry == null) {
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var stand = agentStand(agentKey, entry);
+            if (stand == null) {
+                agents.remove(agentKey);
+                agentInventories.remove(agentKey);
+                if (onFailure != null) onFailure.accept("agent not found");
+                return;
+            }
+            var origin = stand.getLocation();
+            var world = origin.getWorld();
+            int baseX = origin.getBlockX() + template.offsetX();
+            int baseY = origin.getBlockY() + template.offsetY();
+            int baseZ = origin.getBlockZ() + template.offsetZ();
+            if (world == null || baseY < world.getMinHeight() || baseY + template.sizeY() > world.getMaxHeight()) {
+                if (onFailure != null) onFailure.accept("region outside world");
+                return;
+            }
+            if (!regionWithinOwnerRange(ownerName, world, baseX, baseZ, template.sizeX(), template.sizeZ())) {
+                if (onFailure != null) onFailure.accept("out of range");
+                return;
+            }
+            events.debug(Category.STRUCTURE, "structure.pasting", e -> e.field("name", safeName).field("volume", template.volume()));
+            placementPipeline.submit(new StructurePasteJob(template, world, baseX, baseY, baseZ,
+                includeAir, ownerName, onSuccess, onFailure));
+        }, onFailure), onFailure);
+    }
+
+    public void handleAgentUndo(String ownerName,
+                                int count,
+                                Consumer<Integer> onSuccess,
+                                Consumer<String> onFailure) {
+        if (count < 1) {
+            if (onFailure != null) onFailure.accept("count must be at least 1");
+            return;
+        }
+        schedule(LaneScheduler.Lane.INTERACTIVE, ownerName, () -> {
+            if (changeJournal.size(ownerName) == 0) {
+                if (onFailure != null) onFailure.accept("nothing to undo");
+                return;
+            }
+            placementPipeline.submit(new JournalRevertJob(changeJournal, ownerName, count, 0L, onSuccess, onFailure));
+        }, onFailure);
     }
 
     public String resolveOnlinePlayerName(String name) {
         if (name == null || name.isBlank()) return null;
         var resolved = new AtomicReference<String>(null);
         var latch = new CountDownLatch(1);
-        runSync(() -> {
+        schedule(LaneScheduler.Lane.CONTROL, null, () -> {
             try {
                 var player = resolvePlayer(name);
                 if (player != null) {
@@ -448,37 +1586,32 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
             } finally {
                 latch.countDown();
             }
-        });
+        }, null);
         try {
             latch.await(1, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        var node = cluster;
+        if (resolved.get() == null && node != null) return node.resolvePlayerName(name);
         return resolved.get();
     }
 
     public List<BlockEntry> getAvailableBlocks() {
-        var cached = cachedBlockList;
-        if (cached != null) return cached;
-        synchronized (this) {
-            cached = cachedBlockList;
-            if (cached == null) {
-                cached = computeBlockList();
-                cachedBlockList = cached;
-            }
-        }
-        return cached;
+        return cachedBlockList;
     }
 
     private void cleanupAgents() {
-        if (agents.isEmpty()) return;
+        if (agents.isEmpty() && standPool.idle() == 0) return;
+        var pool = standPool;
         runSync(() -> {
             agents.values().forEach(entry -> {
-                var entity = Bukkit.getEntity(entry.entityId());
+                var entity = entry.entityId() == null ? null : Bukkit.getEntity(entry.entityId());
                 if (entity != null) entity.remove();
             });
             agents.clear();
             agentInventories.clear();
+            pool.clear();
         });
     }
 
@@ -489,10 +1622,57 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
         return getServer().getPlayer(name);
     }
 
+    private ArmorStand acquireStand(String ownerKey, String agentId, Location loc) {
+        var stand = standPool.acquire(normalizeLocation(loc));
+        if (stand == null) return spawnAgent(ownerKey, agentId, loc);
+        stand.setCustomName(ChatColor.GRAY + ownerKey + "." + agentId + ChatColor.RESET);
+        stand.setCustomNameVisible(true);
+        return stand;
+    }
+
+    // resolves the live stand of a registered agent, waking it if it hibernates
+    private ArmorStand agentStand(String agentKey, AgentEntry entry) {
+        entry.lastUsed = System.currentTimeMillis();
+        if (entry.parked == null) return getAgentEntity(entry.entityId());
+        var parked = entry.parked;
+        var stand = acquireStand(entry.owner(), entry.agentId(), parked);
+        if (stand == null) return null;
+        stand.setRotation(parked.getYaw(), parked.getPitch());
+        entry.entityId = stand.getUniqueId();
+        entry.parked = null;
+        var inventory = agentInventories.get(agentKey);
+        if (inventory != null) {
+            inventory.forgetEquipped();
+            applyActiveSlotToStand(stand, inventory);
+        }
+        events.debug(Category.AGENT, "agent.wake", e -> e.field("agent", agentKey));
+        return stand;
+    }
+
+    private void hibernateIdleAgents() {
+        long cutoff = System.currentTimeMillis() - hibernateAfterMillis;
+        int parked = 0;
+        for (var entry : agents.entrySet()) {
+            var agent = entry.getValue();
+            if (agent.parked != null || agent.lastUsed > cutoff) continue;
+            if (motionSystem != null && motionSystem.isMoving(entry.getKey())) continue;
+            if (agent.inFlight > 0) continue;
+            var stand = getAgentEntity(agent.entityId());
+            if (stand == null) continue;
+            agent.parked = stand.getLocation();
+            agent.entityId = null;
+            standPool.release(stand);
+            parked++;
+        }
+        int hibernated = parked;
+        if (hibernated > 0) events.debug(Category.AGENT, "agent.hibernate", e -> e.field("count", hibernated));
+    }
+
     private ArmorStand spawnAgent(String ownerKey, String agentId, Location loc) {
         World world = loc.getWorld();
         if (world == null) return null;
         Location target = normalizeLocation(loc);
+        standPool.spawned();
         return world.spawn(target, ArmorStand.class, spawned -> {
             spawned.setCustomName(ChatColor.GRAY + ownerKey + "." + agentId + ChatColor.RESET);
             spawned.setCustomNameVisible(true);
@@ -506,13 +1686,17 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
             spawned.setInvulnerable(true);
             spawned.setRemoveWhenFarAway(false);
             spawned.setCollidable(false);
+            // agents only move through teleports, so the stand never needs to tick
+            spawned.setCanTick(false);
+            spawned.setPersistent(false);
             var equipment = spawned.getEquipment();
             if (equipment != null) {
                 equipment.clear();
-                equipment.setHelmet(createGolemHead());
-                equipment.setChestplate(new ItemStack(Material.IRON_CHESTPLATE));
-                equipment.setLeggings(new ItemStack(Material.LEATHER_LEGGINGS));
-                equipment.setBoots(new ItemStack(Material.LEATHER_BOOTS));
+                // equipment setters copy the stack, so the cached items are shared safely
+                equipment.setHelmet(golemHead());
+                equipment.setChestplate(agentChestplate);
+                equipment.setLeggings(agentLeggings);
+                equipment.setBoots(agentBoots);
             }
         });
     }
@@ -527,6 +1711,11 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
         return item;
     }
 
+    private ItemStack golemHead() {
+        if (golemHead == null) golemHead = createGolemHead();
+        return golemHead;
+    }
+
     private ItemStack createGolemHead() {
         var item = new ItemStack(Material.PLAYER_HEAD);
         var meta = (SkullMeta) item.getItemMeta();
@@ -544,7 +1733,7 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
         if (entity instanceof ArmorStand stand && !stand.isDead()) {
             return stand;
         }
-        agents.values().removeIf(entry -> entry.entityId().equals(uuid));
+        agents.values().removeIf(entry -> uuid.equals(entry.entityId()));
         return null;
     }
 
@@ -556,6 +1745,90 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
         return new Location(loc.getWorld(), x, y, z);
     }
 
+    private void schedule(LaneScheduler.Lane lane, String session, Runnable work, Consumer<String> onFailure) {
+        var scheduler = laneScheduler;
+        if (scheduler == null) {
+            runSync(work);
+            return;
+        }
+        var key = session == null ? "" : session.toLowerCase(Locale.ROOT);
+        scheduler.submit(lane, key, metrics.timed(key, work), onFailure);
+    }
+
+    // True while agentKey still names this entry on this stand. A despawned or hibernated agent's
+    // stand goes back to the pool without being removed, so isValid() alone cannot tell.
+    private boolean agentStillOn(String agentKey, AgentEntry entry, ArmorStand stand) {
+        return agents.get(agentKey) == entry && stand.getUniqueId().equals(entry.entityId()) && stand.isValid();
+    }
+
+    // parks agent work on a target chunk; it fails instead of running if the agent was despawned,
+    // hibernated or unloaded while it waited
+    private void whenAgentChunkLoaded(String agentKey, AgentEntry entry, ArmorStand stand, World world,
+                                      int chunkX, int chunkZ, Runnable work, Consumer<String> onFailure) {
+        beginAgentOp(entry);
+        chunkGate.whenLoaded(world, chunkX, chunkZ, () -> {
+            try {
+                if (!agentStillOn(agentKey, entry, stand)) {
+                    if (onFailure != null) onFailure.accept("agent not found");
+                    return;
+                }
+                work.run();
+            } finally {
+                endAgentOp(entry);
+            }
+        }, reason -> {
+            endAgentOp(entry);
+            if (onFailure != null) onFailure.accept(reason);
+        });
+    }
+
+    // Work waiting on the chunk gate or on a block write counts against its agent: a busy agent
+    // is not hibernated, and a busy agent that is despawned keeps its stand out of the pool until
+    // the last piece finishes, so no late callback can reach a stand another agent picked up.
+    private void beginAgentOp(AgentEntry entry) {
+        entry.inFlight++;
+    }
+
+    private void endAgentOp(AgentEntry entry) {
+        if (--entry.inFlight > 0 || !entry.releaseWhenIdle) return;
+        entry.releaseWhenIdle = false;
+        var stand = getAgentEntity(entry.entityId());
+        if (stand != null) standPool.release(stand);
+    }
+
+    // a hibernating agent respawns where it was parked; load that chunk without blocking first
+    private Runnable agentChunkGuard(String agentKey, Runnable work, Consumer<String> onFailure) {
+        return () -> {
+            var entry = agents.get(agentKey);
+            var gate = chunkGate;
+            var parked = entry == null ? null : entry.parked;
+            if (parked == null || parked.getWorld() == null || gate == null) {
+                work.run();
+                return;
+            }
+            gate.whenLoaded(parked.getWorld(), parked.getBlockX() >> 4, parked.getBlockZ() >> 4, work, onFailure);
+        };
+    }
+
+    private boolean withinOwnerRange(String ownerName, World world, double x, double z) {
+        if (agentMaxDistance <= 0) return true;
+        var owner = resolvePlayer(ownerName);
+        if (owner == null) return false;
+        var loc = owner.getLocation();
+        if (loc.getWorld() == null || !loc.getWorld().equals(world)) return false;
+        double dx = loc.getX() - x;
+        double dz = loc.getZ() - z;
+        return dx * dx + dz * dz <= agentMaxDistance * agentMaxDistance;
+    }
+
+    // the range is a disc, so a box is inside it exactly when all four of its corners are
+    private boolean regionWithinOwnerRange(String ownerName, World world, int minX, int minZ, int sizeX, int sizeZ) {
+        return withinOwnerRange(ownerName, world, minX + 0.5, minZ + 0.5)
+            && withinOwnerRange(ownerName, world, minX + sizeX - 0.5, minZ + sizeZ - 0.5)
+            && withinOwnerRange(ownerName, world, minX + 0.5, minZ + sizeZ - 0.5)
+            && withinOwnerRange(ownerName, world, minX + sizeX - 0.5, minZ + 0.5);
+    }
+
     private void runSync(Runnable runnable) {
         if (Bukkit.isPrimaryThread()) {
             runnable.run();
@@ -564,147 +1837,90 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
         }
     }
 
-    public boolean isDebugEnabled() {
-        return debug;
+    public EventLog events() {
+        return events;
     }
 
-    public void logDebug(String message) {
-        if (debug) {
-            getLogger().info("[debug] " + message);
+    private EventLog createEventLog() {
+        // the legacy debug flag still turns on debug events and mirrors them to the console
+        boolean legacyDebug = getConfig().getBoolean("debug", false);
+        var level = EventLog.parseLevel(getConfig().getString("logging.level", "info"), EventLog.Level.INFO);
+        if (legacyDebug && level.compareTo(EventLog.Level.DEBUG) < 0) level = EventLog.Level.DEBUG;
+        var overrides = new EnumMap<Category, EventLog.Level>(Category.class);
+        var section = getConfig().getConfigurationSection("logging.categories");
+        if (section != null) {
+            for (var key : section.getKeys(false)) {
+                var category = EventLog.parseCategory(key);
+                if (category == null) {
+                    getLogger().warning("Unknown logging category: " + key);
+                    continue;
+                }
+                overrides.put(category, EventLog.parseLevel(section.getString(key), level));
+            }
         }
+        var file = getConfig().getBoolean("logging.file.enabled", true)
+            ? getDataFolder().toPath().resolve("logs").resolve("events.jsonl")
+            : null;
+        var appender = new EventAppender(
+            getConfig().getInt("logging.bufferSize", 8192),
+            file,
+            getConfig().getLong("logging.file.maxBytes", 10L * 1024 * 1024),
+            getConfig().getInt("logging.file.keep", 5),
+            getConfig().getBoolean("logging.console", legacyDebug) ? getLogger() : null
+        );
+        return new EventLog(level, overrides,
+            getConfig().getInt("logging.sampleAbovePerSecond", 200),
+            getConfig().getInt("logging.sampleOneIn", 10),
+            appender);
     }
 
     private boolean isTrackedEntity(UUID uuid) {
         if (uuid == null) return false;
-        return agents.values().stream().anyMatch(entry -> entry.entityId().equals(uuid));
+        return agents.values().stream().anyMatch(entry -> uuid.equals(entry.entityId()));
     }
 
     @EventHandler
-    public void onPlayerInteract(PlayerInteractAtEntityEvent event) {
-        if (isTrackedEntity(event.getRightClicked().getUniqueId())) {
-            event.setCancelled(true);
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        if (agents.isEmpty()) return;
+        for (var entity : event.getEntities()) {
+            if (!(entity instanceof ArmorStand stand)) continue;
+            var uuid = stand.getUniqueId();
+            for (var entry : agents.entrySet()) {
+                var agent = entry.getValue();
+                if (!uuid.equals(agent.entityId())) continue;
+                // agent stands are not saved with the chunk; park the agent so its next command respawns it
+                if (motionSystem != null) motionSystem.cancel(entry.getKey(), "agent chunk unloaded");
+                agent.parked = stand.getLocation();
+                agent.entityId = null;
+                break;
+            }
         }
     }
 
     @EventHandler
-    public void onEntityDamage(EntityDamageByEntityEvent event) {
-        if (isTrackedEntity(event.getEntity().getUniqueId())) {
-            event.setCancelled(true);
-        }
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        var node = cluster;
+        if (node != null) node.playerJoined(event.getPlayer().getName());
     }
 
-    private void animateAgentMove(ArmorStand stand) {
-        var armForward = new EulerAngle(Math.toRadians(-35), 0, Math.toRadians(5));
-        var armBackward = new EulerAngle(Math.toRadians(35), 0, Math.toRadians(-5));
-        var legForward = new EulerAngle(Math.toRadians(20), 0, 0);
-        var legBackward = new EulerAngle(Math.toRadians(-20), 0, 0);
-        new BukkitRunnable() {
-            private int ticks = 0;
-            private boolean flip = false;
-
-            @Override
-            public void run() {
-                if (!stand.isValid() || stand.isDead()) {
-                    cancel();
-                    return;
-                }
-                flip = !flip;
-                applyPose(flip);
-                ticks++;
-                if (ticks >= 6) {
-                    resetPose();
-                    cancel();
-                }
-            }
-
-            private void applyPose(boolean variant) {
-                if (variant) {
-                    stand.setLeftArmPose(armForward);
-                    stand.setRightArmPose(armBackward);
-                    stand.setLeftLegPose(legBackward);
-                    stand.setRightLegPose(legForward);
-                } else {
-                    stand.setLeftArmPose(armBackward);
-                    stand.setRightArmPose(armForward);
-                    stand.setLeftLegPose(legForward);
-                    stand.setRightLegPose(legBackward);
-                }
-            }
-
-            private void resetPose() {
-                var zero = new EulerAngle(0, 0, 0);
-                stand.setLeftArmPose(zero);
-                stand.setRightArmPose(zero);
-                stand.setLeftLegPose(zero);
-                stand.setRightLegPose(zero);
-            }
-        }.runTaskTimer(this, 0L, 2L);
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        var node = cluster;
+        if (node != null) node.playerQuit(event.getPlayer().getName());
     }
 
-    private Location normalizeAgentTarget(Location raw, Location reference) {
-        if (raw == null || raw.getWorld() == null) return raw;
-        double x = Math.floor(raw.getX()) + 0.5;
-        double z = Math.floor(raw.getZ()) + 0.5;
-        double y = Math.floor(raw.getY());
-        Location normalized = new Location(raw.getWorld(), x, y, z);
-        if (reference != null) {
-            normalized.setYaw(reference.getYaw());
-            normalized.setPitch(reference.getPitch());
+    @EventHandler
+    public void onPlayerInteract(PlayerInteractAtEntityEvent event) {
+        if (isTrackedEntity(event.getRightClicked().getUniqueId())) {
+            event.setCancelled(true);
         }
-        return normalized;
     }
 
-    private Vector resolveDirectionVector(Location origin, String direction) {
-        if (origin == null) return null;
-        var forward = origin.getDirection();
-        if (forward == null || forward.lengthSquared() < 1.0E-4) {
-            forward = new Vector(0, 0, 1);
-        }
-        forward.setY(0);
-        if (forward.lengthSquared() < 1.0E-4) {
-            forward = new Vector(0, 0, 1);
-        } else {
-            forward.normalize();
+    @EventHandler
+    public void onEntityDamage(EntityDamageByEntityEvent event) {
+        if (isTrackedEntity(event.getEntity().getUniqueId())) {
+            event.setCancelled(true);
         }
-        var right = forward.clone().crossProduct(new Vector(0, 1, 0));
-        if (right.lengthSquared() < 1.0E-4) {
-            right = new Vector(1, 0, 0);
-        } else {
-            right.normalize();
-        }
-        return switch (direction) {
-            case "forward" -> forward;
-            case "back" -> forward.clone().multiply(-1);
-            case "right" -> right;
-            case "left" -> right.clone().multiply(-1);
-            default -> null;
-        };
-    }
-
-    private Vector resolvePlaceOffset(Location origin, String direction) {
-        if (direction == null) return null;
-        var dir = direction.trim().toLowerCase(Locale.ROOT);
-        if (dir.equals("up")) return new Vector(0, 1, 0);
-        if (dir.equals("down")) return new Vector(0, -1, 0);
-        var horiz = resolveDirectionVector(origin, dir);
-        if (horiz == null) return null;
-        return horiz.normalize();
-    }
-
-    private String normalizeDirection(String direction) {
-        if (direction == null) return null;
-        return switch (direction.trim().toLowerCase(Locale.ROOT)) {
-            case "forward", "back", "right", "left" -> direction.trim().toLowerCase(Locale.ROOT);
-            default -> null;
-        };
-    }
-
-    private String normalizeTurnDirection(String direction) {
-        if (direction == null) return null;
-        return switch (direction.trim().toLowerCase(Locale.ROOT)) {
-            case "left", "right" -> direction.trim().toLowerCase(Locale.ROOT);
-            default -> null;
-        };
     }
 
     private float normalizeYaw(float yaw) {
@@ -715,23 +1931,45 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
     }
 
     private void applyActiveSlotToStand(ArmorStand stand, AgentInventory inventory) {
-        if (stand == null || inventory == null) return;
+        if (stand == null || inventory == null || !inventory.needsEquip()) return;
         var equipment = stand.getEquipment();
         if (equipment == null) return;
-        ItemStack item = null;
-        if (inventory.activeSlot >= 0 && inventory.activeSlot < inventory.slots.length) {
-            var stored = inventory.slots[inventory.activeSlot];
-            if (stored != null) item = stored.clone();
-        }
-        equipment.setItemInMainHand(item);
+        var held = materialIndex.byOrdinal(inventory.activeMaterial());
+        equipment.setItemInMainHand(held == null ? null : new ItemStack(held.material()));
+        inventory.markEquipped();
     }
 
-    private static String agentMapKey(String ownerName, String agentId) {
+    // refunds by the material that was placed, since the original slot may hold something else by now
+    private int refundBlock(ArmorStand stand, AgentInventory inventory, int slot, MaterialIndex.Entry material) {
+        int refunded = inventory.refund(slot, material.ordinal(), material.maxStackSize());
+        if (refunded >= 0 && inventory.activeSlot() == refunded) applyActiveSlotToStand(stand, inventory);
+        return refunded;
+    }
+
+    public static String agentMapKey(String ownerName, String agentId) {
         var ownerPart = ownerName == null ? "" : ownerName.trim().toLowerCase(Locale.ROOT);
         var agentPart = agentId == null ? "" : agentId.trim();
         return ownerPart + "." + agentPart;
     }
 
+    private static long parseDurationMillis(String raw) {
+        if (raw == null || raw.length() < 2) return -1;
+        var normalized = raw.trim().toLowerCase(Locale.ROOT);
+        long unit = switch (normalized.charAt(normalized.length() - 1)) {
+            case 's' -> 1000L;
+            case 'm' -> 60_000L;
+            case 'h' -> 3_600_000L;
+            case 'd' -> 86_400_000L;
+            default -> -1L;
+        };
+        if (unit < 0) return -1;
+        try {
+            return Long.parseLong(normalized.substring(0, normalized.length() - 1)) * unit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private static String firstNonBlank(String... candidates) {
         for (var c : candidates) {
             if (c != null && !c.isBlank()) return c;
@@ -757,45 +1995,43 @@ public final class TwBridgePlugin extends JavaPlugin implements Listener {
             || normalized.equals("*");
     }
 
-    private static String buildWsDefaultUrl(String host, int port) {
+    private static String buildWsDefaultUrl(String scheme, String host, int port) {
         var effectiveHost = (host == null || host.isBlank()) ? "127.0.0.1" : host;
         var bracketed = effectiveHost.startsWith("[") && effectiveHost.endsWith("]");
         var needsBrackets = effectiveHost.contains(":") && !bracketed;
         var normalizedHost = needsBrackets ? "[" + effectiveHost + "]" : effectiveHost;
-        return "ws://" + normalizedHost + ":" + port;
+        return scheme + "://" + normalizedHost + ":" + port;
     }
 
     private List<BlockEntry> computeBlockList() {
         var list = new ArrayList<BlockEntry>();
-        for (var material : Material.values()) {
-            if (!material.isBlock()) continue;
-            if (!material.isItem()) continue;
-            if (material.isAir()) continue;
-            var key = material.getKey().getKey();
-            list.add(new BlockEntry(key, humanizeMaterialName(key)));
-        }
-        list.sort(java.util.Comparator.comparing(BlockEntry::name));
+        for (var entry : materialIndex.placeable()) {
+            list.add(new BlockEntry(entry.id(), entry.displayName()));
+        }
         return Collections.unmodifiableList(list);
     }
 
-    private static String humanizeMaterialName(String key) {
-        if (key == null || key.isBlank()) return "";
-        var parts = key.split("_");
-        var builder = new StringBuilder();
-        for (int i = 0; i < parts.length; i++) {
-            if (parts[i].isBlank()) continue;
-            if (builder.length() > 0) builder.append(' ');
-            builder.append(Character.toUpperCase(parts[i].charAt(0)));
-            if (parts[i].length() > 1) builder.append(parts[i].substring(1));
-        }
-        return builder.toString();
-    }
+    private static final class AgentEntry {
+        private final String owner;
+        private final String agentId;
+        // written on the main thread; volatile because the dashboard thread reads them for its snapshot
+        private volatile UUID entityId;
+        // set while hibernating: the entity is gone and the agent respawns here on its next command
+        private volatile Location parked;
+        private volatile long lastUsed = System.currentTimeMillis();
+        // main thread only: parked or pending work for this agent, see beginAgentOp
+        private int inFlight;
+        private boolean releaseWhenIdle;
 
-    private record AgentEntry(UUID entityId, String owner) {}
+        AgentEntry(UUID entityId, String owner, String agentId) {
+            this.entityId = entityId;
+            this.owner = owner;
+            this.agentId = agentId;
+        }
 
-    private static class AgentInventory {
-        final ItemStack[] slots = new ItemStack[27];
-        int activeSlot = -1;
+        UUID entityId() { return entityId; }
+        String owner() { return owner; }
+        String agentId() { return agentId; }
     }
 
     public record BlockEntry(String id, String name) {}
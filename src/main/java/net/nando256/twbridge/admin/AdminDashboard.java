@@ -0,0 +1,186 @@
+package net.nando256.twbridge.admin;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// Admin page plus a server-sent-events feed. One publisher thread builds a
+// snapshot per interval and writes it to every open stream, so the cost does
+// not grow with the number of viewers and nothing runs on the main thread.
+public final class AdminDashboard {
+    public interface Actions {
+        boolean kick(String connectionId);
+        boolean freeze(String player, boolean frozen);
+    }
+
+    private final Logger logger;
+    private final String path;
+    private final byte[] token;
+    private final int maxStreams;
+    private final long intervalMillis;
+    private final Supplier<String> snapshot;
+    private final Actions actions;
+    private final byte[] page;
+    private final List<HttpExchange> streams = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService publisher;
+
+    public AdminDashboard(Logger logger, String path, String token, int maxStreams, long intervalMillis,
+                          Supplier<String> snapshot, Actions actions, byte[] page) {
+        this.logger = logger;
+        var base = path == null || path.isBlank() ? "/admin" : path.trim();
+        if (!base.startsWith("/")) base = "/" + base;
+        this.path = base.endsWith("/") && base.length() > 1 ? base.substring(0, base.length() - 1) : base;
+        this.token = Objects.requireNonNull(token).getBytes(StandardCharsets.UTF_8);
+        this.maxStreams = Math.max(1, maxStreams);
+        this.intervalMillis = Math.max(250L, intervalMillis);
+        this.snapshot = snapshot;
+        this.actions = actions;
+        this.page = page;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public int streamCount() {
+        return streams.size();
+    }
+
+    public void start() {
+        if (publisher != null) return;
+        publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "twbridge-dashboard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleAtFixedRate(this::publish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (publisher != null) { publisher.shutdownNow(); publisher = null; }
+        for (var stream : streams) stream.close();
+        streams.clear();
+    }
+
+    public void handle(HttpExchange x) throws IOException {
+        var requested = x.getRequestURI().getPath();
+        var sub = requested.length() > path.length() ? requested.substring(path.length()) : "";
+        switch (sub) {
+            case "", "/" -> {
+                // the page is static; the token is entered client-side and never embedded
+                x.getResponseHeaders().add("Cache-Control", "no-store");
+                send(x, 200, "text/html; charset=utf-8", page);
+            }
+            case "/events" -> openStream(x);
+            case "/kick" -> act(x, () -> {
+                var id = query(x.getRequestURI(), "id");
+                return id != null && actions.kick(id);
+            }, "session not found");
+            case "/freeze", "/unfreeze" -> act(x, () -> {
+                var player = query(x.getRequestURI(), "player");
+                return player != null && actions.freeze(player, sub.equals("/freeze"));
+            }, "player required");
+            default -> send(x, 404, "text/plain; charset=utf-8", "not found".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void openStream(HttpExchange x) throws IOException {
+        // EventSource cannot set headers, so the stream also accepts the token as a query parameter
+        if (!authorized(x, true)) { json(x, 401, false, "unauthorized"); return; }
+        var executor = publisher;
+        if (executor == null || streams.size() >= maxStreams) { json(x, 503, false, "too many dashboard streams"); return; }
+        x.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+        x.getResponseHeaders().add("Cache-Control", "no-store");
+        x.sendResponseHeaders(200, 0);
+        streams.add(x);
+        // the first frame goes out right away; after that the stream is only written by the publisher
+        executor.execute(() -> {
+            var frame = frame();
+            if (frame != null) push(x, frame);
+        });
+    }
+
+    private void act(HttpExchange x, Supplier<Boolean> action, String failure) throws IOException {
+        // actions need the header so a link or a cross-site form cannot trigger them
+        if (!"POST".equals(x.getRequestMethod())) { json(x, 405, false, "POST required"); return; }
+        if (!authorized(x, false)) { json(x, 401, false, "unauthorized"); return; }
+        if (action.get()) json(x, 200, true, null);
+        else json(x, 404, false, failure);
+    }
+
+    private void publish() {
+        if (streams.isEmpty()) return;
+        var frame = frame();
+        if (frame == null) return;
+        for (var stream : streams) push(stream, frame);
+    }
+
+    private byte[] frame() {
+        try {
+            return ("data: " + snapshot.get() + "\n\n").getBytes(StandardCharsets.UTF_8);
+        } catch (RuntimeException e) {
+            // an exception would cancel the fixed-rate task; skip this frame instead
+            logger.warning("[twbridge] Dashboard snapshot failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void push(HttpExchange stream, byte[] frame) {
+        try {
+            var body = stream.getResponseBody();
+            body.write(frame);
+            body.flush();
+        } catch (IOException e) {
+            streams.remove(stream);
+            stream.close();
+        }
+    }
+
+    private boolean authorized(HttpExchange x, boolean allowQuery) {
+        var header = x.getRequestHeaders().getFirst("Authorization");
+        String presented = null;
+        if (header != null && header.startsWith("Bearer ")) presented = header.substring(7).trim();
+        else if (allowQuery) presented = query(x.getRequestURI(), "token");
+        return presented != null && MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String query(URI uri, String name) {
+        var query = uri.getRawQuery();
+        if (query == null) return null;
+        for (var part : query.split("&")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0 || !part.substring(0, eq).equals(name)) continue;
+            try {
+                var value = URLDecoder.decode(part.substring(eq + 1), StandardCharsets.UTF_8).trim();
+                return value.isEmpty() ? null : value;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static void json(HttpExchange x, int status, boolean ok, String error) throws IOException {
+        var body = ok ? "{\"ok\":true}" : "{\"ok\":false,\"error\":\"" + error + "\"}";
+        send(x, status, "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange x, int status, String type, byte[] body) throws IOException {
+        x.getResponseHeaders().add("Content-Type", type);
+        x.getResponseHeaders().add("X-Content-Type-Options", "nosniff");
+        x.sendResponseHeaders(status, body.length);
+        try (var os = x.getResponseBody()) { os.write(body); }
+    }
+}
@@ -0,0 +1,46 @@
+package net.nando256.twbridge.admin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Main-thread time charged to each owner. Only cumulative counters are kept;
+// the dashboard derives rates from consecutive snapshots, so recording is a
+// map lookup and two adds with no locking.
+public final class BridgeMetrics {
+    private final Map<String, Usage> owners = new ConcurrentHashMap<>();
+
+    public Runnable timed(String owner, Runnable work) {
+        var usage = usage(owner);
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                work.run();
+            } finally {
+                usage.nanos.add(System.nanoTime() - start);
+                usage.tasks.increment();
+            }
+        };
+    }
+
+    public Map<String, long[]> snapshot() {
+        var out = new LinkedHashMap<String, long[]>();
+        owners.forEach((owner, usage) -> out.put(owner, new long[] { usage.nanos.sum(), usage.tasks.sum() }));
+        return out;
+    }
+
+    private Usage usage(String owner) {
+        var key = owner == null ? "" : owner;
+        var usage = owners.get(key);
+        if (usage != null) return usage;
+        var created = new Usage();
+        var existing = owners.putIfAbsent(key, created);
+        return existing == null ? created : existing;
+    }
+
+    private static final class Usage {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder tasks = new LongAdder();
+    }
+}
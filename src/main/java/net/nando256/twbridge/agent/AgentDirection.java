@@ -0,0 +1,52 @@
+package net.nando256.twbridge.agent;
+
+import java.util.Locale;
+
+// Relative directions, parsed before a request is queued. Agents only ever face
+// a cardinal yaw (they spawn at yaw 0 and turn in 90 degree steps), so each
+// direction has a fixed block offset per quadrant and the main thread only
+// reads the yaw and indexes the table.
+public enum AgentDirection {
+    FORWARD, BACK, RIGHT, LEFT, UP, DOWN;
+
+    // [direction][quadrant] -> {dx, dy, dz}; quadrant 0 is yaw 0 (facing +Z), then 90, 180, 270
+    private static final int[][][] OFFSETS = new int[values().length][4][];
+
+    static {
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            double yaw = Math.toRadians(quadrant * 90.0);
+            int fx = (int) Math.round(-Math.sin(yaw));
+            int fz = (int) Math.round(Math.cos(yaw));
+            // right-hand side is forward x up
+            int rx = -fz;
+            int rz = fx;
+            OFFSETS[FORWARD.ordinal()][quadrant] = new int[] { fx, 0, fz };
+            OFFSETS[BACK.ordinal()][quadrant] = new int[] { -fx, 0, -fz };
+            OFFSETS[RIGHT.ordinal()][quadrant] = new int[] { rx, 0, rz };
+            OFFSETS[LEFT.ordinal()][quadrant] = new int[] { -rx, 0, -rz };
+            OFFSETS[UP.ordinal()][quadrant] = new int[] { 0, 1, 0 };
+            OFFSETS[DOWN.ordinal()][quadrant] = new int[] { 0, -1, 0 };
+        }
+    }
+
+    public static AgentDirection parse(String raw) {
+        if (raw == null) return null;
+        return switch (raw.trim().toLowerCase(Locale.ROOT)) {
+            case "forward" -> FORWARD;
+            case "back" -> BACK;
+            case "right" -> RIGHT;
+            case "left" -> LEFT;
+            case "up" -> UP;
+            case "down" -> DOWN;
+            default -> null;
+        };
+    }
+
+    public boolean horizontal() {
+        return this != UP && this != DOWN;
+    }
+
+    public int[] offset(float yaw) {
+        return OFFSETS[ordinal()][Math.floorMod(Math.round(yaw / 90f), 4)];
+    }
+}
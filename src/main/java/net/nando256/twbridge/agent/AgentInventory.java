@@ -0,0 +1,123 @@
+package net.nando256.twbridge.agent;
+
+import java.util.Arrays;
+import java.util.List;
+
+public final class AgentInventory {
+    public static final int SIZE = 27;
+
+    // one slot as the bridge sees it: 1-based slot, block id, amount (0 = empty)
+    public record Stack(int slot, String block, int amount) {}
+
+    public record Snapshot(int activeSlot, List<Stack> stacks) {}
+
+    private static final short EMPTY = -1;
+
+    private final short[] materials = new short[SIZE];
+    private final byte[] counts = new byte[SIZE];
+    private int activeSlot = -1;
+    private int equippedMaterial = EMPTY;
+
+    public AgentInventory() {
+        Arrays.fill(materials, EMPTY);
+    }
+
+    public int activeSlot() {
+        return activeSlot;
+    }
+
+    public void activate(int slot) {
+        activeSlot = slot;
+    }
+
+    public int material(int slot) {
+        return materials[slot];
+    }
+
+    public int count(int slot) {
+        return materials[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    public void set(int slot, int materialOrdinal, int count) {
+        if (count <= 0) {
+            materials[slot] = EMPTY;
+            counts[slot] = 0;
+            return;
+        }
+        materials[slot] = (short) materialOrdinal;
+        counts[slot] = (byte) Math.min(count, Byte.MAX_VALUE);
+    }
+
+    // after the active slot runs out: move on to the next filled slot, wrapping; returns it or -1
+    public int advance() {
+        for (int i = 1; i <= SIZE; i++) {
+            int slot = Math.floorMod(activeSlot + i, SIZE);
+            if (materials[slot] == EMPTY) continue;
+            activeSlot = slot;
+            return slot;
+        }
+        return -1;
+    }
+
+    // tops up matching stacks first, then fills empty slots; returns how many fit
+    public int add(int materialOrdinal, int amount, int maxStackSize) {
+        int added = 0;
+        for (int pass = 0; pass < 2 && added < amount; pass++) {
+            for (int slot = 0; slot < SIZE && added < amount; slot++) {
+                boolean empty = materials[slot] == EMPTY;
+                if (pass == 0 ? empty || materials[slot] != materialOrdinal : !empty) continue;
+                int moved = Math.min(maxStackSize - count(slot), amount - added);
+                if (moved <= 0) continue;
+                set(slot, materialOrdinal, count(slot) + moved);
+                added += moved;
+            }
+        }
+        return added;
+    }
+
+    public int take(int slot) {
+        if (materials[slot] == EMPTY) return 0;
+        int remaining = counts[slot] - 1;
+        set(slot, materials[slot], remaining);
+        return remaining;
+    }
+
+    // gives one block back by material: to the slot it came from if that still fits it, else to a
+    // matching stack, else to the first empty slot; returns the slot used or -1 when nothing fits
+    public int refund(int preferredSlot, int materialOrdinal, int maxStackSize) {
+        if (fits(preferredSlot, materialOrdinal, maxStackSize, true)) return refundInto(preferredSlot, materialOrdinal);
+        for (int slot = 0; slot < SIZE; slot++) {
+            if (fits(slot, materialOrdinal, maxStackSize, false)) return refundInto(slot, materialOrdinal);
+        }
+        for (int slot = 0; slot < SIZE; slot++) {
+            if (materials[slot] == EMPTY) return refundInto(slot, materialOrdinal);
+        }
+        return -1;
+    }
+
+    private boolean fits(int slot, int materialOrdinal, int maxStackSize, boolean orEmpty) {
+        if (materials[slot] == EMPTY) return orEmpty;
+        return materials[slot] == materialOrdinal && counts[slot] < maxStackSize;
+    }
+
+    private int refundInto(int slot, int materialOrdinal) {
+        set(slot, materialOrdinal, count(slot) + 1);
+        return slot;
+    }
+
+    public int activeMaterial() {
+        return activeSlot >= 0 && activeSlot < SIZE ? materials[activeSlot] : EMPTY;
+    }
+
+    public boolean needsEquip() {
+        return activeMaterial() != equippedMaterial;
+    }
+
+    public void markEquipped() {
+        equippedMaterial = activeMaterial();
+    }
+
+    public void forgetEquipped() {
+        equippedMaterial = Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,253 @@
+package net.nando256.twbridge.agent;
+
+import net.nando256.twbridge.world.ChunkGate;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.EulerAngle;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public final class AgentMotionSystem {
+    private static final EulerAngle ARM_FORWARD = new EulerAngle(Math.toRadians(-35), 0, Math.toRadians(5));
+    private static final EulerAngle ARM_BACKWARD = new EulerAngle(Math.toRadians(35), 0, Math.toRadians(-5));
+    private static final EulerAngle LEG_FORWARD = new EulerAngle(Math.toRadians(20), 0, 0);
+    private static final EulerAngle LEG_BACKWARD = new EulerAngle(Math.toRadians(-20), 0, 0);
+    private static final EulerAngle ZERO = new EulerAngle(0, 0, 0);
+    private static final int POSE_INTERVAL_TICKS = 2;
+
+    public interface StepGuard {
+        boolean inRange(String agentKey, World world, int x, int z);
+    }
+
+    private final Plugin plugin;
+    private final double blocksPerTick;
+    private final ChunkGate chunkGate;
+    private final StepGuard guard;
+    private final Map<String, Motion> motions = new HashMap<>();
+    private BukkitTask task;
+    private volatile long busyNanos;
+
+    public AgentMotionSystem(Plugin plugin, double blocksPerTick, ChunkGate chunkGate, StepGuard guard) {
+        this.plugin = plugin;
+        this.blocksPerTick = Math.max(0.05, Math.min(blocksPerTick, 1.0));
+        this.chunkGate = chunkGate;
+        this.guard = guard;
+    }
+
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (task != null) { task.cancel(); task = null; }
+        for (var motion : motions.values()) {
+            motion.failAll("agent stopped");
+            motion.resetPose();
+        }
+        motions.clear();
+    }
+
+    public void enqueue(String agentKey, ArmorStand stand,
+                        int dx, int dy, int dz, int steps,
+                        Consumer<MoveResult> onComplete,
+                        Consumer<String> onFailure) {
+        var motion = motions.get(agentKey);
+        if (motion == null || motion.stand != stand) {
+            if (motion != null) motion.failAll("agent replaced");
+            motion = new Motion(agentKey, stand);
+            motions.put(agentKey, motion);
+        }
+        motion.queue.add(new MoveRequest(dx, dy, dz, steps, onComplete, onFailure));
+    }
+
+    public void cancel(String agentKey, String reason) {
+        var motion = motions.remove(agentKey);
+        if (motion == null) return;
+        motion.failAll(reason);
+        motion.resetPose();
+    }
+
+    public boolean isMoving(String agentKey) {
+        return motions.containsKey(agentKey);
+    }
+
+    public int activeCount() {
+        return motions.size();
+    }
+
+    public long busyNanos() {
+        return busyNanos;
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        step();
+        busyNanos += System.nanoTime() - start;
+    }
+
+    private void step() {
+        Iterator<Motion> it = motions.values().iterator();
+        while (it.hasNext()) {
+            var motion = it.next();
+            if (!motion.stand.isValid() || motion.stand.isDead()) {
+                motion.failAll("agent not found");
+                it.remove();
+                continue;
+            }
+            // parked until the chunk ahead finishes loading
+            if (motion.waitingForChunk) continue;
+            if (!advance(motion)) {
+                motion.resetPose();
+                it.remove();
+                continue;
+            }
+            motion.animate();
+        }
+    }
+
+    private boolean advance(Motion motion) {
+        while (true) {
+            var request = motion.queue.peek();
+            if (request == null) return false;
+            if (motion.progress == 0.0) {
+                if (request.done >= request.steps) {
+                    motion.queue.poll();
+                    request.complete(false, false);
+                    continue;
+                }
+                var origin = motion.stand.getLocation();
+                var world = origin.getWorld();
+                if (world == null) {
+                    motion.queue.poll();
+                    request.fail("agent not found");
+                    continue;
+                }
+                int nx = origin.getBlockX() + request.dx;
+                int ny = origin.getBlockY() + request.dy;
+                int nz = origin.getBlockZ() + request.dz;
+                if (!guard.inRange(motion.agentKey, world, nx, nz)) {
+                    motion.queue.poll();
+                    request.complete(true, true);
+                    continue;
+                }
+                if (!world.isChunkLoaded(nx >> 4, nz >> 4)) {
+                    motion.waitingForChunk = true;
+                    chunkGate.whenLoaded(world, nx >> 4, nz >> 4,
+                        () -> motion.waitingForChunk = false,
+                        reason -> {
+                            motion.waitingForChunk = false;
+                            var parked = motion.queue.poll();
+                            if (parked != null) parked.fail(reason);
+                        });
+                    return true;
+                }
+                if (world.getBlockAt(nx, ny, nz).getType().isSolid()) {
+                    motion.queue.poll();
+                    request.complete(true, false);
+                    continue;
+                }
+                motion.from = centerOf(origin);
+                motion.to = new Location(world, nx + 0.5, ny, nz + 0.5);
+            }
+            motion.progress = Math.min(1.0, motion.progress + blocksPerTick);
+            var current = motion.stand.getLocation();
+            var next = motion.progress >= 1.0
+                ? motion.to.clone()
+                : lerp(motion.from, motion.to, motion.progress);
+            next.setYaw(current.getYaw());
+            next.setPitch(current.getPitch());
+            motion.stand.teleport(next);
+            if (motion.progress >= 1.0) {
+                motion.progress = 0.0;
+                request.done++;
+            }
+            return true;
+        }
+    }
+
+    private static Location centerOf(Location loc) {
+        return new Location(loc.getWorld(), loc.getBlockX() + 0.5, loc.getBlockY(), loc.getBlockZ() + 0.5);
+    }
+
+    private static Location lerp(Location from, Location to, double t) {
+        return new Location(
+            from.getWorld(),
+            from.getX() + (to.getX() - from.getX()) * t,
+            from.getY() + (to.getY() - from.getY()) * t,
+            from.getZ() + (to.getZ() - from.getZ()) * t
+        );
+    }
+
+    public record MoveResult(int travelled, boolean blocked, boolean outOfRange) {}
+
+    private static final class MoveRequest {
+        final int dx, dy, dz, steps;
+        final Consumer<MoveResult> onComplete;
+        final Consumer<String> onFailure;
+        int done;
+
+        MoveRequest(int dx, int dy, int dz, int steps,
+                    Consumer<MoveResult> onComplete, Consumer<String> onFailure) {
+            this.dx = dx; this.dy = dy; this.dz = dz;
+            this.steps = steps;
+            this.onComplete = onComplete;
+            this.onFailure = onFailure;
+        }
+
+        void complete(boolean blocked, boolean outOfRange) {
+            if (onComplete != null) onComplete.accept(new MoveResult(done, blocked, outOfRange));
+        }
+
+        void fail(String reason) {
+            if (onFailure != null) onFailure.accept(reason);
+        }
+    }
+
+    private static final class Motion {
+        final String agentKey;
+        final ArmorStand stand;
+        final ArrayDeque<MoveRequest> queue = new ArrayDeque<>();
+        boolean waitingForChunk;
+        Location from;
+        Location to;
+        double progress;
+        int animTicks;
+        boolean flip;
+
+        Motion(String agentKey, ArmorStand stand) {
+            this.agentKey = agentKey;
+            this.stand = stand;
+        }
+
+        void animate() {
+            if (animTicks++ % POSE_INTERVAL_TICKS != 0) return;
+            flip = !flip;
+            stand.setLeftArmPose(flip ? ARM_FORWARD : ARM_BACKWARD);
+            stand.setRightArmPose(flip ? ARM_BACKWARD : ARM_FORWARD);
+            stand.setLeftLegPose(flip ? LEG_BACKWARD : LEG_FORWARD);
+            stand.setRightLegPose(flip ? LEG_FORWARD : LEG_BACKWARD);
+        }
+
+        void resetPose() {
+            if (!stand.isValid()) return;
+            stand.setLeftArmPose(ZERO);
+            stand.setRightArmPose(ZERO);
+            stand.setLeftLegPose(ZERO);
+            stand.setRightLegPose(ZERO);
+        }
+
+        void failAll(String reason) {
+            MoveRequest request;
+            while ((request = queue.poll()) != null) request.fail(reason);
+        }
+    }
+}
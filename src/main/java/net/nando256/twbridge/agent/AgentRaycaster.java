@@ -0,0 +1,198 @@
+package net.nando256.twbridge.agent;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// agent.raycast: the main thread only snapshots the chunks the fan crosses;
+// the block walk runs on an async worker. Snapshots and whole results are
+// reused for the rest of the tick, so identical probes in one tick cost nothing.
+public final class AgentRaycaster {
+    public static final int MAX_RAYS = 16;
+    public static final double MAX_DISTANCE = 32.0;
+
+    private final Plugin plugin;
+    private final MaterialIndex materials;
+    private final Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+    private final Map<Query, CompletableFuture<List<Hit>>> results = new HashMap<>();
+    private UUID snapshotWorld;
+    private int cacheTick = Integer.MIN_VALUE;
+    private long cast;
+    private long cached;
+
+    public AgentRaycaster(Plugin plugin, MaterialIndex materials) {
+        this.plugin = plugin;
+        this.materials = materials;
+    }
+
+    public record Hit(double angle, String block, double distance, boolean unloaded) {}
+
+    private record Query(UUID world, double x, double y, double z, float yaw, float pitch,
+                         int rays, double spread, double distance) {}
+
+    public void cast(World world, double x, double y, double z, float yaw, float pitch,
+                     int rays, double spread, double distance,
+                     Consumer<List<Hit>> onResult, Consumer<String> onFailure) {
+        int tick = Bukkit.getCurrentTick();
+        if (tick != cacheTick) {
+            cacheTick = tick;
+            snapshots.clear();
+            results.clear();
+        }
+        if (!world.getUID().equals(snapshotWorld)) {
+            snapshots.clear();
+            snapshotWorld = world.getUID();
+        }
+        var query = new Query(world.getUID(), x, y, z, yaw, pitch, rays, spread, distance);
+        var result = results.get(query);
+        if (result != null) {
+            cached++;
+        } else {
+            cast++;
+            var angles = angles(rays, spread);
+            var directions = new double[angles.length][];
+            var needed = new HashMap<Long, ChunkSnapshot>();
+            for (int i = 0; i < angles.length; i++) {
+                directions[i] = direction(yaw + angles[i], pitch);
+                chunksAlong(x, z, directions[i][0], directions[i][2], distance, key -> {
+                    if (needed.containsKey(key)) return;
+                    var snapshot = snapshots.get(key);
+                    if (snapshot == null) {
+                        int cx = (int) (key >> 32);
+                        int cz = (int) key;
+                        // unloaded chunks are reported, never loaded
+                        if (!world.isChunkLoaded(cx, cz)) return;
+                        snapshot = world.getChunkAt(cx, cz).getChunkSnapshot(false, false, false);
+                        snapshots.put(key, snapshot);
+                    }
+                    needed.put(key, snapshot);
+                });
+            }
+            int minY = world.getMinHeight();
+            int maxY = world.getMaxHeight();
+            var future = new CompletableFuture<List<Hit>>();
+            result = future;
+            results.put(query, future);
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                try {
+                    var hits = new ArrayList<Hit>(angles.length);
+                    for (int i = 0; i < angles.length; i++) {
+                        hits.add(trace(needed, minY, maxY, x, y, z, directions[i], distance, angles[i]));
+                    }
+                    future.complete(List.copyOf(hits));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        result.whenComplete((hits, error) -> {
+            if (error != null) {
+                plugin.getLogger().warning("[twbridge] agent.raycast failed: " + error.getMessage());
+                if (onFailure != null) onFailure.accept("raycast failed");
+            } else if (onResult != null) {
+                onResult.accept(hits);
+            }
+        });
+    }
+
+    public long castCount() {
+        return cast;
+    }
+
+    public long cachedCount() {
+        return cached;
+    }
+
+    private static double[] angles(int rays, double spread) {
+        var out = new double[rays];
+        if (rays == 1) return out;
+        double step = spread / (rays - 1);
+        for (int i = 0; i < rays; i++) out[i] = -spread / 2 + step * i;
+        return out;
+    }
+
+    private static double[] direction(double yawDegrees, double pitchDegrees) {
+        double yaw = Math.toRadians(yawDegrees);
+        double pitch = Math.toRadians(pitchDegrees);
+        double horizontal = Math.cos(pitch);
+        return new double[] { -Math.sin(yaw) * horizontal, -Math.sin(pitch), Math.cos(yaw) * horizontal };
+    }
+
+    // 2D grid walk over 16x16 columns; t is the distance along the 3D ray
+    private static void chunksAlong(double x, double z, double dx, double dz, double max, LongConsumer out) {
+        int cx = Math.floorDiv((int) Math.floor(x), 16);
+        int cz = Math.floorDiv((int) Math.floor(z), 16);
+        int stepX = dx > 0 ? 1 : -1;
+        int stepZ = dz > 0 ? 1 : -1;
+        double tMaxX = dx == 0 ? Double.POSITIVE_INFINITY : ((dx > 0 ? (cx + 1) * 16 - x : x - cx * 16) / Math.abs(dx));
+        double tMaxZ = dz == 0 ? Double.POSITIVE_INFINITY : ((dz > 0 ? (cz + 1) * 16 - z : z - cz * 16) / Math.abs(dz));
+        double tDeltaX = dx == 0 ? Double.POSITIVE_INFINITY : 16 / Math.abs(dx);
+        double tDeltaZ = dz == 0 ? Double.POSITIVE_INFINITY : 16 / Math.abs(dz);
+        out.accept(chunkKey(cx, cz));
+        while (true) {
+            if (tMaxX < tMaxZ) {
+                if (tMaxX > max) return;
+                cx += stepX;
+                tMaxX += tDeltaX;
+            } else {
+                if (tMaxZ > max) return;
+                cz += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+            out.accept(chunkKey(cx, cz));
+        }
+    }
+
+    // Amanatides-Woo voxel traversal; reports the first non-air block and the distance at which the ray enters it
+    private Hit trace(Map<Long, ChunkSnapshot> chunks, int minY, int maxY,
+                      double x, double y, double z, double[] dir, double max, double angle) {
+        int bx = (int) Math.floor(x), by = (int) Math.floor(y), bz = (int) Math.floor(z);
+        int stepX = dir[0] > 0 ? 1 : -1, stepY = dir[1] > 0 ? 1 : -1, stepZ = dir[2] > 0 ? 1 : -1;
+        double tMaxX = boundary(x, bx, dir[0]), tMaxY = boundary(y, by, dir[1]), tMaxZ = boundary(z, bz, dir[2]);
+        double tDeltaX = dir[0] == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(dir[0]);
+        double tDeltaY = dir[1] == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(dir[1]);
+        double tDeltaZ = dir[2] == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(dir[2]);
+        double t = 0.0;
+        while (t <= max) {
+            if (by < minY || by >= maxY) return new Hit(angle, null, round(t), false);
+            var snapshot = chunks.get(chunkKey(bx >> 4, bz >> 4));
+            if (snapshot == null) return new Hit(angle, null, round(t), true);
+            var type = snapshot.getBlockType(bx & 15, by, bz & 15);
+            if (!type.isAir()) {
+                var entry = materials.byOrdinal(type.ordinal());
+                return new Hit(angle, entry == null ? type.getKey().getKey() : entry.id(), round(t), false);
+            }
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                t = tMaxX; bx += stepX; tMaxX += tDeltaX;
+            } else if (tMaxY < tMaxZ) {
+                t = tMaxY; by += stepY; tMaxY += tDeltaY;
+            } else {
+                t = tMaxZ; bz += stepZ; tMaxZ += tDeltaZ;
+            }
+        }
+        return new Hit(angle, null, max, false);
+    }
+
+    private static double boundary(double pos, int cell, double dir) {
+        if (dir == 0) return Double.POSITIVE_INFINITY;
+        return (dir > 0 ? cell + 1 - pos : pos - cell) / Math.abs(dir);
+    }
+
+    private static double round(double distance) {
+        return Math.round(distance * 100.0) / 100.0;
+    }
+
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,75 @@
+package net.nando256.twbridge.agent;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.ArmorStand;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+// Despawned and hibernated agents hand their stand back here instead of removing
+// it. A pooled stand keeps its armor and head, is hidden from every client and
+// is non-persistent, so an unloaded chunk simply drops it.
+public final class AgentStandPool {
+    private final int maxSize;
+    private final ArrayDeque<UUID> idle = new ArrayDeque<>();
+    private long reused;
+    private long created;
+
+    public AgentStandPool(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    public ArmorStand acquire(Location target) {
+        UUID id;
+        while ((id = idle.pollFirst()) != null) {
+            if (!(Bukkit.getEntity(id) instanceof ArmorStand stand) || !stand.isValid()) continue;
+            if (!stand.teleport(target)) {
+                stand.remove();
+                continue;
+            }
+            stand.setVisibleByDefault(true);
+            reused++;
+            return stand;
+        }
+        return null;
+    }
+
+    public void spawned() {
+        created++;
+    }
+
+    public void release(ArmorStand stand) {
+        if (stand == null || !stand.isValid()) return;
+        if (idle.size() >= maxSize) {
+            stand.remove();
+            return;
+        }
+        stand.setVisibleByDefault(false);
+        stand.setCustomNameVisible(false);
+        stand.setCustomName(null);
+        var equipment = stand.getEquipment();
+        if (equipment != null) equipment.setItemInMainHand(null);
+        idle.addLast(stand.getUniqueId());
+    }
+
+    public void clear() {
+        for (var id : idle) {
+            var entity = Bukkit.getEntity(id);
+            if (entity != null) entity.remove();
+        }
+        idle.clear();
+    }
+
+    public int idle() {
+        return idle.size();
+    }
+
+    public long reused() {
+        return reused;
+    }
+
+    public long created() {
+        return created;
+    }
+}
@@ -0,0 +1,255 @@
+package net.nando256.twbridge.agent;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+public final class AgentWatchHub {
+    public static final int MAX_WATCHES_PER_CONNECTION = 16;
+    private static final int POSITION_STEPS_PER_BLOCK = 20;
+
+    private static final int F_PRESENT = 1;
+    private static final int F_X = 1 << 1;
+    private static final int F_Y = 1 << 2;
+    private static final int F_Z = 1 << 3;
+    private static final int F_YAW = 1 << 4;
+    private static final int F_WORLD = 1 << 5;
+    private static final int F_SLOT = 1 << 6;
+    private static final int F_HELD = 1 << 7;
+    private static final int F_COUNT = 1 << 8;
+    private static final int F_ALL = (1 << 9) - 1;
+
+    public interface Sampler {
+        void sample(String agentKey, State into);
+    }
+
+    public static final class State {
+        boolean present;
+        int x;
+        int y;
+        int z;
+        int yaw;
+        String world = "";
+        int slot;
+        String held = "";
+        int count;
+
+        public void absent() {
+            present = false;
+        }
+
+        public void set(String world, double x, double y, double z, float yaw, int slot, String held, int count) {
+            this.present = true;
+            this.world = world == null ? "" : world;
+            this.x = (int) Math.round(x * POSITION_STEPS_PER_BLOCK);
+            this.y = (int) Math.round(y * POSITION_STEPS_PER_BLOCK);
+            this.z = (int) Math.round(z * POSITION_STEPS_PER_BLOCK);
+            this.yaw = Math.floorMod(Math.round(yaw), 360);
+            this.slot = slot;
+            this.held = held == null ? "" : held;
+            this.count = count;
+        }
+
+        private int diff(State other) {
+            int mask = 0;
+            if (present != other.present) mask |= F_PRESENT;
+            if (!present) return mask;
+            if (x != other.x) mask |= F_X;
+            if (y != other.y) mask |= F_Y;
+            if (z != other.z) mask |= F_Z;
+            if (yaw != other.yaw) mask |= F_YAW;
+            if (!world.equals(other.world)) mask |= F_WORLD;
+            if (slot != other.slot) mask |= F_SLOT;
+            if (!held.equals(other.held)) mask |= F_HELD;
+            if (count != other.count) mask |= F_COUNT;
+            return mask;
+        }
+
+        private void copyFrom(State other) {
+            present = other.present;
+            x = other.x;
+            y = other.y;
+            z = other.z;
+            yaw = other.yaw;
+            world = other.world;
+            slot = other.slot;
+            held = other.held;
+            count = other.count;
+        }
+    }
+
+    private final Plugin plugin;
+    private final Sampler sampler;
+    private final int flushIntervalTicks;
+    private final Map<String, Watched> watched = new HashMap<>();
+    private final Map<Object, Subscriber> subscribers = new HashMap<>();
+    private final State scratch = new State();
+    private final StringBuilder frame = new StringBuilder(256);
+    private BukkitTask task;
+    private long ticks;
+    private volatile long busyNanos;
+
+    public AgentWatchHub(Plugin plugin, Sampler sampler, double updatesPerSecond) {
+        this.plugin = plugin;
+        this.sampler = sampler;
+        double rate = Math.max(0.5, Math.min(updatesPerSecond, 20.0));
+        this.flushIntervalTicks = Math.max(1, (int) Math.round(20.0 / rate));
+    }
+
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (task != null) { task.cancel(); task = null; }
+        watched.clear();
+        subscribers.clear();
+    }
+
+    public String watch(Object connection, Consumer<String> sink, String agentKey, String owner, String agentId) {
+        var subscriber = subscribers.get(connection);
+        if (subscriber == null) {
+            subscriber = new Subscriber(sink);
+            subscribers.put(connection, subscriber);
+        }
+        var target = watched.get(agentKey);
+        boolean subscribed = target != null && target.subscribers.contains(subscriber);
+        if (!subscribed && subscriber.watching >= MAX_WATCHES_PER_CONNECTION) return null;
+        if (target == null) {
+            target = new Watched(agentKey, owner, agentId);
+            sampler.sample(agentKey, target.last);
+            watched.put(agentKey, target);
+        }
+        if (!subscribed) {
+            target.subscribers.add(subscriber);
+            subscriber.watching++;
+        }
+        frame.setLength(0);
+        appendState(frame, target, F_ALL);
+        return frame.toString();
+    }
+
+    public void unwatch(Object connection, String agentKey) {
+        var subscriber = subscribers.get(connection);
+        var target = watched.get(agentKey);
+        if (subscriber == null || target == null) return;
+        if (target.subscribers.remove(subscriber)) subscriber.watching--;
+        subscriber.pending.remove(target);
+        if (target.subscribers.isEmpty()) watched.remove(agentKey);
+        if (subscriber.watching == 0) subscribers.remove(connection);
+    }
+
+    public void unwatchAll(Object connection) {
+        var subscriber = subscribers.remove(connection);
+        if (subscriber == null) return;
+        watched.values().removeIf(target -> target.subscribers.remove(subscriber) && target.subscribers.isEmpty());
+    }
+
+    public int watchedCount() {
+        return watched.size();
+    }
+
+    public long busyNanos() {
+        return busyNanos;
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        step();
+        busyNanos += System.nanoTime() - start;
+    }
+
+    private void step() {
+        ticks++;
+        for (var target : watched.values()) {
+            sampler.sample(target.agentKey, scratch);
+            int mask = scratch.diff(target.last);
+            if (mask == 0) continue;
+            target.last.copyFrom(scratch);
+            if ((mask & F_PRESENT) != 0) mask = target.last.present ? F_ALL : F_PRESENT;
+            for (var subscriber : target.subscribers) {
+                subscriber.pending.merge(target, mask, (a, b) -> a | b);
+            }
+        }
+        if (ticks % flushIntervalTicks != 0) return;
+        for (var subscriber : subscribers.values()) {
+            if (subscriber.pending.isEmpty()) continue;
+            frame.setLength(0);
+            frame.append("{\"event\":\"agent.state\",\"agents\":[");
+            boolean first = true;
+            for (var entry : subscriber.pending.entrySet()) {
+                if (!first) frame.append(',');
+                first = false;
+                appendState(frame, entry.getKey(), entry.getValue());
+            }
+            frame.append("]}");
+            subscriber.pending.clear();
+            try {
+                subscriber.sink.accept(frame.toString());
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("[twbridge] agent.watch send failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void appendState(StringBuilder sb, Watched target, int mask) {
+        var state = target.last;
+        // agent ids are only unique per owner, and a workspace member watches agents of two owners
+        sb.append("{\"owner\":").append(JSONObject.quote(target.owner));
+        sb.append(",\"agentId\":").append(JSONObject.quote(target.agentId));
+        if (!state.present) mask &= F_PRESENT;
+        if ((mask & F_PRESENT) != 0) sb.append(",\"present\":").append(state.present);
+        if ((mask & F_WORLD) != 0) sb.append(",\"world\":").append(JSONObject.quote(state.world));
+        if ((mask & F_X) != 0) appendPosition(sb, "x", state.x);
+        if ((mask & F_Y) != 0) appendPosition(sb, "y", state.y);
+        if ((mask & F_Z) != 0) appendPosition(sb, "z", state.z);
+        if ((mask & F_YAW) != 0) sb.append(",\"yaw\":").append(state.yaw);
+        if ((mask & F_SLOT) != 0) sb.append(",\"slot\":").append(state.slot);
+        if ((mask & F_HELD) != 0) sb.append(",\"held\":").append(JSONObject.quote(state.held));
+        if ((mask & F_COUNT) != 0) sb.append(",\"count\":").append(state.count);
+        sb.append('}');
+    }
+
+    private static void appendPosition(StringBuilder sb, String key, int quantized) {
+        sb.append(",\"").append(key).append("\":");
+        if (quantized % POSITION_STEPS_PER_BLOCK == 0) {
+            sb.append(quantized / POSITION_STEPS_PER_BLOCK);
+        } else {
+            sb.append(quantized / (double) POSITION_STEPS_PER_BLOCK);
+        }
+    }
+
+    private static final class Watched {
+        final String agentKey;
+        final String owner;
+        final String agentId;
+        final State last = new State();
+        final List<Subscriber> subscribers = new ArrayList<>(1);
+
+        Watched(String agentKey, String owner, String agentId) {
+            this.agentKey = agentKey;
+            this.owner = Objects.requireNonNull(owner);
+            this.agentId = Objects.requireNonNull(agentId);
+        }
+    }
+
+    private static final class Subscriber {
+        final Consumer<String> sink;
+        final Map<Watched, Integer> pending = new LinkedHashMap<>();
+        int watching;
+
+        Subscriber(Consumer<String> sink) {
+            this.sink = sink;
+        }
+    }
+}
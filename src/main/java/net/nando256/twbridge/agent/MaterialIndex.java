@@ -0,0 +1,101 @@
+package net.nando256.twbridge.agent;
+
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public final class MaterialIndex {
+    public record Entry(Material material,
+                        int ordinal,
+                        String id,
+                        String displayName,
+                        String translationKey,
+                        boolean block,
+                        boolean item,
+                        int maxStackSize) {
+        public boolean placeable() {
+            return block && item && !material.isAir();
+        }
+    }
+
+    private final Map<String, Entry> byId;
+    private final Entry[] byOrdinal;
+    private final List<Entry> placeable;
+
+    private MaterialIndex(Map<String, Entry> byId, Entry[] byOrdinal, List<Entry> placeable) {
+        this.byId = byId;
+        this.byOrdinal = byOrdinal;
+        this.placeable = placeable;
+    }
+
+    public static MaterialIndex build() {
+        var materials = Material.values();
+        var byId = new HashMap<String, Entry>(materials.length * 3);
+        var byOrdinal = new Entry[materials.length];
+        var placeable = new ArrayList<Entry>();
+        for (var material : materials) {
+            if (material.isLegacy()) continue;
+            var id = material.getKey().getKey();
+            var entry = new Entry(
+                material,
+                material.ordinal(),
+                id,
+                humanize(id),
+                translationKey(material),
+                material.isBlock(),
+                material.isItem(),
+                material.getMaxStackSize()
+            );
+            byOrdinal[material.ordinal()] = entry;
+            byId.put(id, entry);
+            byId.put("minecraft:" + id, entry);
+            byId.put(material.name(), entry);
+            if (entry.placeable()) placeable.add(entry);
+        }
+        placeable.sort(Comparator.comparing(Entry::displayName));
+        return new MaterialIndex(Map.copyOf(byId), byOrdinal, List.copyOf(placeable));
+    }
+
+    public Entry lookup(String id) {
+        if (id == null) return null;
+        var entry = byId.get(id);
+        if (entry != null) return entry;
+        var normalized = id.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", "_");
+        if (normalized.startsWith("minecraft:")) normalized = normalized.substring("minecraft:".length());
+        return byId.get(normalized);
+    }
+
+    public Entry byOrdinal(int ordinal) {
+        return ordinal >= 0 && ordinal < byOrdinal.length ? byOrdinal[ordinal] : null;
+    }
+
+    public List<Entry> placeable() {
+        return placeable;
+    }
+
+    private static String translationKey(Material material) {
+        try {
+            return material.getTranslationKey();
+        } catch (RuntimeException e) {
+            return "";
+        }
+    }
+
+    private static String humanize(String key) {
+        if (key == null || key.isBlank()) return "";
+        var parts = key.split("_");
+        var builder = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].isBlank()) continue;
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(Character.toUpperCase(parts[i].charAt(0)));
+            if (parts[i].length() > 1) builder.append(parts[i].substring(1));
+        }
+        return builder.toString();
+    }
+}
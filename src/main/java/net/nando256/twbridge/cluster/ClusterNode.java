@@ -0,0 +1,349 @@
+package net.nando256.twbridge.cluster;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+public final class ClusterNode {
+    private static final int MAX_FRAME_CHARS = 1 << 20;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long RETRY_MILLIS = 2000L;
+
+    public interface ForwardHandler {
+        void handle(String player, String frame, Consumer<String> reply);
+    }
+
+    private final Logger logger;
+    private final String nodeId;
+    private final String secret;
+    private final InetSocketAddress bindAddress;
+    private final Map<String, InetSocketAddress> peers;
+    private final long requestTimeoutMillis;
+    private final PlayerDirectory directory;
+    private final ForwardHandler handler;
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final ExecutorService broadcaster = Executors.newSingleThreadExecutor(r -> daemon(r, "twbridge-cluster-out"));
+    private final Timer timer = new Timer("twbridge-cluster-timeouts", true);
+    private volatile boolean running;
+    private ServerSocket server;
+
+    public ClusterNode(Logger logger,
+                       String nodeId,
+                       String secret,
+                       InetSocketAddress bindAddress,
+                       Map<String, InetSocketAddress> peers,
+                       long requestTimeoutMillis,
+                       ForwardHandler handler) {
+        this.logger = logger;
+        this.nodeId = nodeId;
+        this.secret = secret == null ? "" : secret;
+        this.bindAddress = bindAddress;
+        this.peers = Map.copyOf(peers);
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.handler = handler;
+        this.directory = new PlayerDirectory(nodeId);
+    }
+
+    public void start(Iterable<String> onlinePlayers) throws IOException {
+        onlinePlayers.forEach(directory::joinLocal);
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(bindAddress);
+        running = true;
+        daemon(this::acceptLoop, "twbridge-cluster-accept").start();
+        peers.forEach((id, address) -> {
+            if (id.equals(nodeId)) return;
+            var link = new PeerLink(id, address);
+            links.put(id, link);
+            daemon(link::run, "twbridge-cluster-link-" + id).start();
+        });
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override public void run() {
+                expirePending();
+            }
+        }, 1000, 1000);
+        logger.info("[twbridge] Cluster node " + nodeId + " listening on " + bindAddress + " with " + links.size() + " peer(s)");
+    }
+
+    public void stop() {
+        running = false;
+        timer.cancel();
+        broadcaster.shutdownNow();
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        links.values().forEach(PeerLink::close);
+        inbound.values().forEach(ClusterNode::closeQuietly);
+        inbound.clear();
+        failAll("cluster stopped");
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public String route(String player) {
+        return directory.route(player);
+    }
+
+    public String resolvePlayerName(String player) {
+        return directory.resolveName(player);
+    }
+
+    public void playerJoined(String player) {
+        directory.joinLocal(player);
+        broadcast(new JSONObject().put("type", "join").put("player", player));
+    }
+
+    public void playerQuit(String player) {
+        directory.quitLocal(player);
+        broadcast(new JSONObject().put("type", "quit").put("player", player));
+    }
+
+    public int connectedPeers() {
+        int count = 0;
+        for (var link : links.values()) if (link.isConnected()) count++;
+        return count;
+    }
+
+    public void forward(String node, String player, String frame, Consumer<String> onReply, Consumer<String> onFailure) {
+        var link = links.get(node);
+        if (link == null || !link.isConnected()) {
+            if (onFailure != null) onFailure.accept("node unavailable: " + node);
+            return;
+        }
+        long rid = nextRequestId.incrementAndGet();
+        pending.put(rid, new Pending(node, onReply, onFailure, System.currentTimeMillis() + requestTimeoutMillis));
+        var message = new JSONObject()
+            .put("type", "forward")
+            .put("rid", rid)
+            .put("player", player)
+            .put("frame", frame);
+        if (!link.send(message)) {
+            var removed = pending.remove(rid);
+            if (removed != null && onFailure != null) onFailure.accept("node unavailable: " + node);
+        }
+    }
+
+    private void broadcast(JSONObject message) {
+        if (!running) return;
+        try {
+            broadcaster.execute(() -> links.values().forEach(link -> link.send(message)));
+        } catch (RuntimeException ignored) {}
+    }
+
+    private void expirePending() {
+        long now = System.currentTimeMillis();
+        pending.forEach((rid, entry) -> {
+            if (entry.deadline() <= now && pending.remove(rid, entry) && entry.onFailure() != null) {
+                entry.onFailure().accept("node timeout: " + entry.node());
+            }
+        });
+    }
+
+    private void failNode(String node, String reason) {
+        pending.forEach((rid, entry) -> {
+            if (entry.node().equals(node) && pending.remove(rid, entry) && entry.onFailure() != null) {
+                entry.onFailure().accept(reason);
+            }
+        });
+    }
+
+    private void failAll(String reason) {
+        pending.forEach((rid, entry) -> {
+            if (pending.remove(rid, entry) && entry.onFailure() != null) entry.onFailure().accept(reason);
+        });
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                var socket = server.accept();
+                daemon(() -> serveInbound(socket), "twbridge-cluster-in").start();
+            } catch (IOException e) {
+                if (running) logger.warning("[twbridge] Cluster accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serveInbound(Socket socket) {
+        String node = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            var reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+            var writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            var hello = readFrame(reader);
+            if (hello == null || !"hello".equals(hello.optString("type"))
+                || !MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                    hello.optString("secret", "").getBytes(StandardCharsets.UTF_8))) {
+                logger.warning("[twbridge] Cluster peer rejected: " + socket.getRemoteSocketAddress());
+                return;
+            }
+            node = hello.optString("node", "");
+            if (node.isEmpty() || node.equals(nodeId)) return;
+            var previous = inbound.put(node, socket);
+            if (previous != null) closeQuietly(previous);
+            socket.setSoTimeout(0);
+            info("peer " + node + " connected from " + socket.getRemoteSocketAddress());
+            JSONObject frame;
+            while (running && (frame = readFrame(reader)) != null) {
+                handleInbound(node, frame, writer);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running && node != null) info("peer " + node + " disconnected: " + e.getMessage());
+        } finally {
+            if (node != null && inbound.remove(node, socket)) directory.dropNode(node);
+        }
+    }
+
+    private void handleInbound(String node, JSONObject frame, Writer writer) {
+        switch (frame.optString("type")) {
+            case "presence" -> {
+                var players = new ArrayList<String>();
+                var array = frame.optJSONArray("players");
+                if (array != null) for (int i = 0; i < array.length(); i++) players.add(array.optString(i));
+                directory.replace(node, players);
+            }
+            case "join" -> directory.join(node, frame.optString("player"));
+            case "quit" -> directory.quit(node, frame.optString("player"));
+            case "forward" -> {
+                long rid = frame.optLong("rid");
+                handler.handle(frame.optString("player"), frame.optString("frame"), text ->
+                    write(writer, new JSONObject().put("type", "reply").put("rid", rid).put("text", text)));
+            }
+            default -> { }
+        }
+    }
+
+    private void info(String message) {
+        logger.info("[twbridge] Cluster " + message);
+    }
+
+    private static boolean write(Writer writer, JSONObject message) {
+        synchronized (writer) {
+            try {
+                writer.write(message.toString());
+                writer.write('\n');
+                writer.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static JSONObject readFrame(Reader reader) throws IOException {
+        var sb = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '\n') return new JSONObject(sb.toString());
+            if (sb.length() >= MAX_FRAME_CHARS) throw new IOException("frame too large");
+            sb.append((char) c);
+        }
+        return null;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        var thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private record Pending(String node, Consumer<String> onReply, Consumer<String> onFailure, long deadline) {}
+
+    private final class PeerLink {
+        private final String node;
+        private final InetSocketAddress address;
+        private volatile Socket socket;
+        private volatile Writer writer;
+
+        PeerLink(String node, InetSocketAddress address) {
+            this.node = node;
+            this.address = address;
+        }
+
+        boolean isConnected() {
+            return writer != null;
+        }
+
+        boolean send(JSONObject message) {
+            var current = writer;
+            if (current == null) return false;
+            if (write(current, message)) return true;
+            close();
+            return false;
+        }
+
+        void run() {
+            while (running) {
+                try (var s = new Socket()) {
+                    s.setTcpNoDelay(true);
+                    s.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+                    socket = s;
+                    var out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                    write(out, new JSONObject().put("type", "hello").put("node", nodeId).put("secret", secret));
+                    writer = out;
+                    send(new JSONObject().put("type", "presence")
+                        .put("players", new JSONArray(directory.localPlayers())));
+                    info("linked to " + node + " at " + address);
+                    var reader = new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8);
+                    JSONObject frame;
+                    while (running && (frame = readFrame(reader)) != null) {
+                        if (!"reply".equals(frame.optString("type"))) continue;
+                        var entry = pending.remove(frame.optLong("rid"));
+                        if (entry != null && entry.onReply() != null) entry.onReply().accept(frame.optString("text"));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (running && writer != null) info("link to " + node + " lost: " + e.getMessage());
+                } finally {
+                    writer = null;
+                    socket = null;
+                    failNode(node, "node disconnected: " + node);
+                }
+                if (!running) return;
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            writer = null;
+            var current = socket;
+            if (current != null) closeQuietly(current);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.nando256.twbridge.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class PlayerDirectory {
+    private final String localNode;
+    private final Map<String, String> localPlayers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> remotePlayers = new ConcurrentHashMap<>();
+
+    public PlayerDirectory(String localNode) {
+        this.localNode = localNode;
+    }
+
+    public void joinLocal(String player) {
+        localPlayers.put(normalize(player), player);
+    }
+
+    public void quitLocal(String player) {
+        localPlayers.remove(normalize(player));
+    }
+
+    public Collection<String> localPlayers() {
+        return localPlayers.values();
+    }
+
+    public void replace(String node, Collection<String> players) {
+        var map = new ConcurrentHashMap<String, String>();
+        for (var player : players) map.put(normalize(player), player);
+        remotePlayers.put(node, map);
+    }
+
+    public void join(String node, String player) {
+        remotePlayers.computeIfAbsent(node, k -> new ConcurrentHashMap<>()).put(normalize(player), player);
+    }
+
+    public void quit(String node, String player) {
+        var map = remotePlayers.get(node);
+        if (map != null) map.remove(normalize(player));
+    }
+
+    public void dropNode(String node) {
+        remotePlayers.remove(node);
+    }
+
+    public String resolveName(String player) {
+        var key = normalize(player);
+        var node = route(player);
+        if (node == null) return localPlayers.get(key);
+        return remotePlayers.getOrDefault(node, Map.of()).get(key);
+    }
+
+    public String route(String player) {
+        var key = normalize(player);
+        // a player can briefly appear on two backends while switching servers; the
+        // rendezvous hash makes every node pick the same one
+        String best = localPlayers.containsKey(key) ? localNode : null;
+        long bestScore = best == null ? Long.MIN_VALUE : score(key, localNode);
+        for (var entry : remotePlayers.entrySet()) {
+            if (entry.getKey().equals(localNode) || !entry.getValue().containsKey(key)) continue;
+            long score = score(key, entry.getKey());
+            if (best == null || score > bestScore) {
+                best = entry.getKey();
+                bestScore = score;
+            }
+        }
+        return localNode.equals(best) ? null : best;
+    }
+
+    public Set<String> nodes() {
+        return remotePlayers.keySet();
+    }
+
+    public String localNode() {
+        return localNode;
+    }
+
+    private static long score(String player, String node) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : (player + '\0' + node).getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String normalize(String player) {
+        return player.toLowerCase(Locale.ROOT);
+    }
+}
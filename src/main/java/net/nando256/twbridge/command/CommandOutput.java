@@ -0,0 +1,47 @@
+package net.nando256.twbridge.command;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class CommandOutput {
+    private final int maxChars;
+    private final int maxLines;
+    private final List<String> lines = new ArrayList<>();
+    private int chars;
+    private boolean truncated;
+
+    public CommandOutput(int maxChars, int maxLines) {
+        this.maxChars = Math.max(0, maxChars);
+        this.maxLines = Math.max(0, maxLines);
+    }
+
+    public synchronized void accept(Component message) {
+        if (truncated) return;
+        var text = PlainTextComponentSerializer.plainText().serialize(message);
+        if (lines.size() >= maxLines) {
+            truncated = true;
+            return;
+        }
+        int room = maxChars - chars;
+        if (text.length() > room) {
+            text = text.substring(0, Math.max(0, room));
+            truncated = true;
+        }
+        if (!text.isEmpty() || !truncated) {
+            lines.add(text);
+            chars += text.length();
+        }
+    }
+
+    public synchronized List<String> lines() {
+        return Collections.unmodifiableList(new ArrayList<>(lines));
+    }
+
+    public synchronized boolean truncated() {
+        return truncated;
+    }
+}
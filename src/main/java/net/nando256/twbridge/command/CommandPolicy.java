@@ -0,0 +1,161 @@
+package net.nando256.twbridge.command;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class CommandPolicy {
+    private static final int CACHE_LIMIT = 1024;
+    private static final int MAX_EXECUTE_DEPTH = 8;
+
+    private final RunAs runAs;
+    private final PrefixTrie allow = new PrefixTrie();
+    private final PrefixTrie deny = new PrefixTrie();
+    private final Map<String, Integer> costs = new HashMap<>();
+    private final int heavyCost;
+    private final int fillBlocksPerCost;
+    private final Map<String, Decision> cache = new ConcurrentHashMap<>();
+
+    public CommandPolicy(RunAs runAs, List<String> allow, List<String> deny,
+                         Map<String, Integer> costs, int heavyCost, int fillBlocksPerCost) {
+        this.runAs = runAs;
+        allow.forEach(entry -> addEntry(this.allow, entry));
+        deny.forEach(entry -> addEntry(this.deny, entry));
+        costs.forEach((label, cost) -> this.costs.put(label.toLowerCase(Locale.ROOT), Math.max(1, cost)));
+        this.heavyCost = Math.max(1, heavyCost);
+        this.fillBlocksPerCost = Math.max(1, fillBlocksPerCost);
+    }
+
+    public static CommandPolicy fromConfig(ConfigurationSection section) {
+        if (section == null) {
+            return new CommandPolicy(RunAs.CONSOLE, List.of(), List.of(), Map.of(), 8, 4096);
+        }
+        var costs = new HashMap<String, Integer>();
+        var costSection = section.getConfigurationSection("costs");
+        if (costSection != null) {
+            for (var key : costSection.getKeys(false)) costs.put(key, costSection.getInt(key, 1));
+        }
+        return new CommandPolicy(
+            RunAs.parse(section.getString("runAs", "console")),
+            section.getStringList("allow"),
+            section.getStringList("deny"),
+            costs,
+            section.getInt("heavyCost", 8),
+            section.getInt("fillBlocksPerCost", 4096)
+        );
+    }
+
+    public RunAs runAs() {
+        return runAs;
+    }
+
+    public Decision evaluate(String command) {
+        var normalized = normalize(command);
+        var cached = cache.get(normalized);
+        if (cached != null) return cached;
+        var decision = decide(normalized);
+        if (cache.size() >= CACHE_LIMIT) cache.clear();
+        cache.put(normalized, decision);
+        return decision;
+    }
+
+    private Decision decide(String normalized) {
+        int start = 0;
+        int cost = 1;
+        String firstLabel = null;
+        for (int depth = 0; depth < MAX_EXECUTE_DEPTH; depth++) {
+            start = skipNamespace(normalized, start);
+            int labelEnd = normalized.indexOf(' ', start);
+            var label = normalized.substring(start, labelEnd < 0 ? normalized.length() : labelEnd);
+            if (firstLabel == null) firstLabel = label;
+            if (label.isEmpty() || deny.match(normalized, start) >= 0
+                || (!allow.isEmpty() && allow.match(normalized, start) < 0)) {
+                return new Decision(false, label, 1, false);
+            }
+            cost = Math.max(cost, costOf(label, normalized, start));
+            if (!label.equals("execute")) {
+                return new Decision(true, firstLabel, cost, cost >= heavyCost);
+            }
+            int run = normalized.indexOf(" run ", start);
+            if (run < 0) return new Decision(true, firstLabel, cost, cost >= heavyCost);
+            start = run + 5;
+        }
+        return new Decision(false, firstLabel, 1, false);
+    }
+
+    private int costOf(String label, String normalized, int start) {
+        int base = costs.getOrDefault(label, 1);
+        if (!label.equals("fill") && !label.equals("clone")) return base;
+        long volume = regionVolume(normalized, start + label.length());
+        if (volume < 0) return Math.max(base, heavyCost);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(base, 1 + volume / fillBlocksPerCost));
+    }
+
+    // Volume of the first two coordinate triples after the label; -1 when they can't be compared.
+    private static long regionVolume(String normalized, int from) {
+        var parts = normalized.substring(Math.min(from, normalized.length())).trim().split(" +", 7);
+        if (parts.length < 6) return -1;
+        long volume = 1;
+        for (int axis = 0; axis < 3; axis++) {
+            var a = parts[axis];
+            var b = parts[axis + 3];
+            char kindA = a.isEmpty() ? ' ' : a.charAt(0);
+            char kindB = b.isEmpty() ? ' ' : b.charAt(0);
+            boolean relA = kindA == '~' || kindA == '^';
+            boolean relB = kindB == '~' || kindB == '^';
+            if (relA != relB || kindA == '^' || kindB == '^') return -1;
+            try {
+                double va = parseCoord(relA ? a.substring(1) : a);
+                double vb = parseCoord(relB ? b.substring(1) : b);
+                volume *= (long) Math.abs(Math.floor(vb) - Math.floor(va)) + 1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return volume;
+    }
+
+    private static double parseCoord(String raw) {
+        return raw.isEmpty() ? 0.0 : Double.parseDouble(raw);
+    }
+
+    private static int skipNamespace(String normalized, int start) {
+        int space = normalized.indexOf(' ', start);
+        int colon = normalized.indexOf(':', start);
+        if (colon >= 0 && (space < 0 || colon < space)) return colon + 1;
+        return start;
+    }
+
+    private static void addEntry(PrefixTrie trie, String entry) {
+        if (entry == null) return;
+        var normalized = normalize(entry);
+        if (!normalized.isEmpty()) trie.add(normalized);
+    }
+
+    private static String normalize(String command) {
+        var trimmed = command == null ? "" : command.trim();
+        if (trimmed.startsWith("/")) trimmed = trimmed.substring(1);
+        return trimmed.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    // There is no "scoped" mode: a sender from createCommandSender has console permissions,
+    // so wrapping its command in "execute as <player>" only moved the context, never the
+    // permissions. The allow/deny lists are what limit console-run commands.
+    public enum RunAs {
+        CONSOLE, PLAYER;
+
+        static RunAs parse(String raw) {
+            if (raw == null) return CONSOLE;
+            return switch (raw.trim().toLowerCase(Locale.ROOT)) {
+                case "player" -> PLAYER;
+                default -> CONSOLE;
+            };
+        }
+    }
+
+    public record Decision(boolean allowed, String label, int cost, boolean heavy) {}
+}
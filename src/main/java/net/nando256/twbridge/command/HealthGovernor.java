@@ -0,0 +1,98 @@
+package net.nando256.twbridge.command;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+// Samples MSPT/TPS and derives a throttle scale for bridge work: cut
+// multiplicatively while the server is overloaded, restored in small steps
+// once ticks are comfortably inside budget again, so one spike does not
+// cause oscillation.
+public final class HealthGovernor {
+    public enum Health { NORMAL, OVERLOADED, RECOVERING }
+
+    private final Plugin plugin;
+    private final long sampleTicks;
+    private final double healthyMspt;
+    private final double overloadedMspt;
+    private final double minTps;
+    private final double minScale;
+    private final double decreaseFactor;
+    private final double recoverStep;
+    private final Consumer<HealthGovernor> onChange;
+    private BukkitTask task;
+
+    private volatile double scale = 1.0;
+    private volatile Health health = Health.NORMAL;
+    private volatile double mspt;
+    private volatile double tps = 20.0;
+
+    public HealthGovernor(Plugin plugin, long sampleTicks, double healthyMspt, double overloadedMspt,
+                          double minTps, double minScale, double decreaseFactor, double recoverStep,
+                          Consumer<HealthGovernor> onChange) {
+        this.plugin = plugin;
+        this.sampleTicks = Math.max(1L, sampleTicks);
+        this.healthyMspt = healthyMspt;
+        this.overloadedMspt = Math.max(healthyMspt, overloadedMspt);
+        this.minTps = minTps;
+        this.minScale = Math.max(0.05, Math.min(minScale, 1.0));
+        this.decreaseFactor = Math.max(0.1, Math.min(decreaseFactor, 0.95));
+        this.recoverStep = Math.max(0.01, recoverStep);
+        this.onChange = onChange;
+    }
+
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::sample, sampleTicks, sampleTicks);
+    }
+
+    public void stop() {
+        if (task != null) { task.cancel(); task = null; }
+    }
+
+    public double scale() {
+        return scale;
+    }
+
+    public Health health() {
+        return health;
+    }
+
+    public String healthName() {
+        return health.name().toLowerCase(Locale.ROOT);
+    }
+
+    public double mspt() {
+        return mspt;
+    }
+
+    public double tps() {
+        return tps;
+    }
+
+    private void sample() {
+        double currentMspt = Bukkit.getAverageTickTime();
+        double currentTps = Bukkit.getTPS()[0];
+        mspt = currentMspt;
+        tps = currentTps;
+        double next = scale;
+        Health nextHealth;
+        // the TPS average lags by a minute, so it only counts while ticks are not clearly fast again
+        if (currentMspt > overloadedMspt || (currentTps < minTps && currentMspt > healthyMspt)) {
+            next = Math.max(minScale, scale * decreaseFactor);
+            nextHealth = Health.OVERLOADED;
+        } else if (currentMspt <= healthyMspt && scale < 1.0) {
+            next = Math.min(1.0, scale + recoverStep);
+            nextHealth = next >= 1.0 ? Health.NORMAL : Health.RECOVERING;
+        } else {
+            nextHealth = scale >= 1.0 ? Health.NORMAL : health;
+        }
+        if (next == scale && nextHealth == health) return;
+        scale = next;
+        health = nextHealth;
+        if (onChange != null) onChange.accept(this);
+    }
+}
@@ -0,0 +1,134 @@
+package net.nando256.twbridge.command;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs steps one at a time per key, in submission order, while different keys
+// proceed independently. Each key is a small mailbox: a lock-free queue plus a
+// pending counter; whoever moves the counter off zero (or finishes a step with
+// more pending) runs the next step, so no thread ever blocks on another key.
+// A key's mailbox only exists while it has steps pending: the counter changes
+// inside the map's per-key compute, so the last step out removes the key
+// without racing a submit that would otherwise start a second mailbox.
+public final class KeyedSequencer {
+    public interface Step {
+        // done must be run exactly once when the step's effects are complete; it may run inline
+        void start(long seq, Runnable done);
+    }
+
+    private final Map<String, Sequence> sequences = new ConcurrentHashMap<>();
+    // shared by all keys so numbers keep rising even after a key's mailbox is dropped
+    private final AtomicLong last = new AtomicLong();
+    private final long stallNanos;
+
+    public KeyedSequencer(long stallMillis) {
+        this.stallNanos = Math.max(1L, stallMillis) * 1_000_000L;
+    }
+
+    public void submit(String key, Step step) {
+        var task = new Task(step);
+        var starter = new Sequence[1];
+        sequences.compute(key, (k, sequence) -> {
+            if (sequence == null) sequence = new Sequence(k);
+            sequence.queue.add(task);
+            if (sequence.pending++ == 0) starter[0] = sequence;
+            return sequence;
+        });
+        if (starter[0] != null) starter[0].run();
+    }
+
+    // a step whose completion never arrives would hold its key forever; skip past it
+    public int releaseStalled() {
+        long now = System.nanoTime();
+        int released = 0;
+        for (var sequence : sequences.values()) {
+            var running = sequence.running;
+            if (running != null && now - running.startedAt > stallNanos && running.finish()) released++;
+        }
+        return released;
+    }
+
+    public int activeKeys() {
+        return sequences.size();
+    }
+
+    private final class Sequence {
+        final String key;
+        final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        // only changed inside sequences.compute for this key
+        int pending;
+        volatile Task running;
+
+        Sequence(String key) {
+            this.key = key;
+        }
+
+        void run() {
+            while (true) {
+                var task = queue.poll();
+                // producers enqueue before bumping pending, so an empty poll is only a momentary race
+                while (task == null) {
+                    Thread.onSpinWait();
+                    task = queue.poll();
+                }
+                task.owner = this;
+                task.startedAt = System.nanoTime();
+                running = task;
+                // numbered when started, so sequence numbers follow execution order exactly
+                long seq = last.incrementAndGet();
+                try {
+                    task.step.start(seq, task::finish);
+                } catch (RuntimeException e) {
+                    task.finish();
+                }
+                // still running asynchronously: its completion continues the loop on that thread
+                if (task.state.compareAndSet(Task.STARTING, Task.RUNNING)) return;
+                if (!finishOne()) return;
+            }
+        }
+
+        void advance() {
+            if (finishOne()) run();
+        }
+
+        // true while more steps are pending; the last one out removes the key
+        private boolean finishOne() {
+            var more = new boolean[1];
+            sequences.computeIfPresent(key, (k, sequence) -> {
+                if (--sequence.pending > 0) {
+                    more[0] = true;
+                    return sequence;
+                }
+                return null;
+            });
+            return more[0];
+        }
+    }
+
+    private static final class Task {
+        static final int STARTING = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+
+        final Step step;
+        final AtomicInteger state = new AtomicInteger(STARTING);
+        volatile Sequence owner;
+        volatile long startedAt;
+
+        Task(Step step) {
+            this.step = step;
+        }
+
+        boolean finish() {
+            int previous = state.getAndSet(DONE);
+            if (previous == DONE) return false;
+            // finished inline: the loop in run() sees DONE and moves on by itself
+            if (previous == RUNNING) owner.advance();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package net.nando256.twbridge.command;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public final class LaneScheduler {
+    public enum Lane { CONTROL, INTERACTIVE, BULK }
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final Plugin plugin;
+    private final long budgetNanos;
+    private volatile long scaledBudgetNanos;
+    private final int maxQueuedPerSession;
+    private final int[] weights = new int[LANES.length];
+    private final LaneQueue[] queues = new LaneQueue[LANES.length];
+    private BukkitTask task;
+
+    public LaneScheduler(Plugin plugin, long budgetMillis, int maxQueuedPerSession, Map<Lane, Integer> weights) {
+        this.plugin = plugin;
+        this.budgetNanos = Math.max(1L, budgetMillis) * 1_000_000L;
+        this.scaledBudgetNanos = budgetNanos;
+        this.maxQueuedPerSession = Math.max(1, maxQueuedPerSession);
+        for (var lane : LANES) {
+            this.weights[lane.ordinal()] = Math.max(1, weights.getOrDefault(lane, 1));
+            this.queues[lane.ordinal()] = new LaneQueue();
+        }
+    }
+
+    public static Map<Lane, Integer> defaultWeights() {
+        var weights = new EnumMap<Lane, Integer>(Lane.class);
+        weights.put(Lane.CONTROL, 8);
+        weights.put(Lane.INTERACTIVE, 4);
+        weights.put(Lane.BULK, 1);
+        return weights;
+    }
+
+    public static Lane parseLane(String name) {
+        try {
+            return Lane.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (task != null) { task.cancel(); task = null; }
+        for (var queue : queues) {
+            List<Task> dropped;
+            synchronized (queue) {
+                dropped = queue.drain();
+            }
+            for (var pending : dropped) {
+                if (pending.onDropped() != null) pending.onDropped().accept("server stopping");
+            }
+        }
+    }
+
+    // shrinks the per-tick budget while the server is overloaded; control work is never budgeted
+    public void setBudgetScale(double scale) {
+        scaledBudgetNanos = Math.max(1_000_000L, (long) (budgetNanos * Math.max(0.0, Math.min(scale, 1.0))));
+    }
+
+    public void submit(Lane lane, String session, Runnable work, Consumer<String> onDropped) {
+        var queue = queues[lane.ordinal()];
+        boolean accepted;
+        synchronized (queue) {
+            accepted = queue.offer(session == null ? "" : session, new Task(work, onDropped, System.nanoTime()), maxQueuedPerSession);
+        }
+        if (!accepted && onDropped != null) onDropped.accept("server busy");
+    }
+
+    public List<LaneStats> stats() {
+        var out = new ArrayList<LaneStats>(LANES.length);
+        for (var lane : LANES) {
+            var queue = queues[lane.ordinal()];
+            synchronized (queue) {
+                out.add(new LaneStats(lane, queue.size, queue.sessions.size(), queue.executed, queue.dropped,
+                    queue.lastTickExecuted, queue.maxWaitNanos / 1_000_000L,
+                    queue.executed == 0 ? 0.0 : queue.totalWaitNanos / 1_000_000.0 / queue.executed));
+            }
+        }
+        return out;
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        long budget = scaledBudgetNanos;
+        for (var queue : queues) {
+            synchronized (queue) {
+                queue.lastTickExecuted = 0;
+            }
+        }
+        // control work is cheap and must never starve, so it bypasses the budget
+        while (runNext(queues[Lane.CONTROL.ordinal()])) { }
+        boolean progressed = true;
+        while (progressed && System.nanoTime() - start < budget) {
+            progressed = false;
+            for (int lane = 1; lane < LANES.length; lane++) {
+                for (int i = 0; i < weights[lane]; i++) {
+                    if (!runNext(queues[lane])) break;
+                    progressed = true;
+                    if (System.nanoTime() - start >= budget) return;
+                }
+            }
+        }
+    }
+
+    private boolean runNext(LaneQueue queue) {
+        Task next;
+        synchronized (queue) {
+            next = queue.poll();
+            if (next == null) return false;
+            long waited = System.nanoTime() - next.enqueuedAt();
+            queue.executed++;
+            queue.lastTickExecuted++;
+            queue.totalWaitNanos += waited;
+            if (waited > queue.maxWaitNanos) queue.maxWaitNanos = waited;
+        }
+        try {
+            next.work().run();
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("[twbridge] Scheduled task failed: " + e.getMessage());
+        }
+        return true;
+    }
+
+    public record LaneStats(Lane lane, int queued, int sessions, long executed, long dropped,
+                            int lastTickExecuted, long maxWaitMillis, double averageWaitMillis) {}
+
+    private record Task(Runnable work, Consumer<String> onDropped, long enqueuedAt) {}
+
+    private static final class LaneQueue {
+        final Map<String, ArrayDeque<Task>> sessions = new HashMap<>();
+        final ArrayDeque<String> rotation = new ArrayDeque<>();
+        int size;
+        long executed;
+        long dropped;
+        int lastTickExecuted;
+        long totalWaitNanos;
+        long maxWaitNanos;
+
+        boolean offer(String session, Task task, int maxPerSession) {
+            var pending = sessions.get(session);
+            if (pending == null) {
+                pending = new ArrayDeque<>();
+                sessions.put(session, pending);
+                rotation.addLast(session);
+            } else if (pending.size() >= maxPerSession) {
+                dropped++;
+                return false;
+            }
+            pending.addLast(task);
+            size++;
+            return true;
+        }
+
+        Task poll() {
+            var session = rotation.pollFirst();
+            if (session == null) return null;
+            var pending = sessions.get(session);
+            var task = pending.pollFirst();
+            if (pending.isEmpty()) {
+                sessions.remove(session);
+            } else {
+                rotation.addLast(session);
+            }
+            size--;
+            return task;
+        }
+
+        List<Task> drain() {
+            var out = new ArrayList<Task>(size);
+            sessions.values().forEach(out::addAll);
+            sessions.clear();
+            rotation.clear();
+            size = 0;
+            return out;
+        }
+    }
+}
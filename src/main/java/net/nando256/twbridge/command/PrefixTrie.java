@@ -0,0 +1,39 @@
+package net.nando256.twbridge.command;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class PrefixTrie {
+    private final Node root = new Node();
+    private int size;
+
+    void add(String entry) {
+        var node = root;
+        for (int i = 0; i < entry.length(); i++) {
+            node = node.children.computeIfAbsent(entry.charAt(i), c -> new Node());
+        }
+        if (!node.terminal) size++;
+        node.terminal = true;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Longest entry that is a whole-token prefix of text[from..], or -1.
+    int match(String text, int from) {
+        var node = root;
+        int best = -1;
+        for (int i = from; i < text.length(); i++) {
+            node = node.children.get(text.charAt(i));
+            if (node == null) return best;
+            if (node.terminal && (i + 1 == text.length() || text.charAt(i + 1) == ' ')) best = i + 1 - from;
+        }
+        return best;
+    }
+
+    private static final class Node {
+        final Map<Character, Node> children = new HashMap<>(4);
+        boolean terminal;
+    }
+}
@@ -0,0 +1,63 @@
+package net.nando256.twbridge.command;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public final class ThrottledLane {
+    private final Plugin plugin;
+    private final int perTick;
+    private final int capacity;
+    private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private BukkitTask task;
+
+    public ThrottledLane(Plugin plugin, int perTick, int capacity) {
+        this.plugin = plugin;
+        this.perTick = Math.max(1, perTick);
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (task != null) { task.cancel(); task = null; }
+        Task pending;
+        while ((pending = queue.poll()) != null) {
+            size.decrementAndGet();
+            if (pending.onDropped() != null) pending.onDropped().accept("server stopping");
+        }
+    }
+
+    public boolean offer(Runnable work, Consumer<String> onDropped) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        queue.add(new Task(work, onDropped));
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void tick() {
+        for (int i = 0; i < perTick; i++) {
+            var next = queue.poll();
+            if (next == null) return;
+            size.decrementAndGet();
+            next.work().run();
+        }
+    }
+
+    private record Task(Runnable work, Consumer<String> onDropped) {}
+}
@@ -0,0 +1,37 @@
+package net.nando256.twbridge.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class HttpReply {
+    private int status = 200;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private byte[] body;
+
+    HttpReply status(int status) {
+        this.status = status;
+        return this;
+    }
+
+    HttpReply header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    HttpReply body(byte[] body) {
+        this.body = body;
+        return this;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    public byte[] body() {
+        return body;
+    }
+}
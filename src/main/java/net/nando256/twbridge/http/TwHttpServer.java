@@ -2,7 +2,9 @@ package net.nando256.twbridge.http;
 
 import com.sun.net.httpserver.*;
 import net.nando256.twbridge.TwBridgePlugin;
+import net.nando256.twbridge.admin.AdminDashboard;
 
+import javax.net.ssl.SSLContext;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -10,10 +12,13 @@ import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public final class TwHttpServer {
@@ -22,9 +27,16 @@ public final class TwHttpServer {
     private final String path;    private final List<String> corsAllowOrigins;
     private final int cacheSeconds;
     private final String wsDefault;
+    private final boolean redirectToHashed;
+    private final String hashedPrefix;
+    private final SSLContext sslContext;
+    private final AdminDashboard dashboard;
     private HttpServer server;
-    private String jsTemplate;
-    private final ConcurrentHashMap<String, JsVariant> variantCache = new ConcurrentHashMap<>();
+    private String blockListJson;
+    private Map<String, String> sources = Map.of();
+    private final VariantCache variantCache;
+    private static final String VARIANT_DIR = "turbowarp/variants/";
+    private static final Pattern LOCALE_KEY_PATTERN = Pattern.compile("(?m)^    '?([a-z]{2,8}(?:[-_][a-z0-9]{1,8})*)'?: \\{");
     private static final Pattern WS_DEFAULT_PATTERN = Pattern.compile("const WS_DEFAULT = \"[^\"]+\";");
     private static final Pattern LANG_CONST_PATTERN = Pattern.compile("const TWB_DEFAULT_LANG = \"[^\"]*\";");
     private static final String BLOCK_LIST_PLACEHOLDER = "__TWB_BLOCK_CHOICES__";
@@ -32,25 +44,38 @@ public final class TwHttpServer {
 
     public TwHttpServer(TwBridgePlugin plugin, String address, int port, String path,
                         List<String> corsAllowOrigins, int cacheSeconds,
-                        String wsDefault) {
+                        String wsDefault, boolean redirectToHashed, int variantCacheSize,
+                        SSLContext sslContext, AdminDashboard dashboard) {
         this.plugin = plugin;
         this.address = address; this.port = port;
         this.path = (path==null||path.isBlank())?"/tw/twbridge.js":path;
         this.corsAllowOrigins = corsAllowOrigins;
         this.cacheSeconds = Math.max(0, cacheSeconds);
         this.wsDefault = wsDefault;
+        this.redirectToHashed = redirectToHashed;
+        this.hashedPrefix = this.path.endsWith(".js") ? this.path.substring(0, this.path.length() - 3) + "." : this.path + ".";
+        this.variantCache = new VariantCache(Math.max(1, variantCacheSize));
+        this.sslContext = sslContext;
+        this.dashboard = dashboard;
+    }
+
+    public void load() throws IOException {
+        blockListJson = buildBlockListJson();
+        sources = loadSources();
+        variantCache.clear();
     }
 
     public void start() throws IOException {
-        var blockListJson = buildBlockListJson();
-        try (InputStream is = plugin.getResource("turbowarp/twbridge.js")) {
-            if (is == null) throw new IOException("resource turbowarp/twbridge.js not found");
-            jsTemplate = loadTemplate(is, blockListJson);
+        load();
+        if (sslContext != null) {
+            var https = HttpsServer.create(new InetSocketAddress(address, port), 0);
+            https.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            server = https;
+        } else {
+            server = HttpServer.create(new InetSocketAddress(address, port), 0);
         }
-        variantCache.clear();
-        server = HttpServer.create(new InetSocketAddress(address, port), 0);
-        server.createContext("/", this::root);
-        server.createContext(path, this::serveJs);
+        server.createContext("/", this::exchange);
+        if (dashboard != null) server.createContext(dashboard.path(), dashboard::handle);
 
         server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
         server.start();
@@ -58,72 +83,151 @@ public final class TwHttpServer {
 
     public void stop(){ if (server!=null){ server.stop(0); server=null; } }
 
-    private void root(HttpExchange x) throws IOException {
-        var body = ("twbridge HTTP up.\nGET " + path + "\n").getBytes(StandardCharsets.UTF_8);
-        setCommon(x.getResponseHeaders());
-        x.sendResponseHeaders(200, body.length);
+    public HttpReply respond(String method, URI uri, String ifNoneMatch) {
+        var reply = new HttpReply();
+        setCommon(reply);
+        var requested = uri == null || uri.getPath() == null ? "/" : uri.getPath();
+        if (requested.equals(path)) serveJs(reply, method, uri, ifNoneMatch);
+        else if (requested.startsWith(hashedPrefix)) serveHashed(reply, method, requested, ifNoneMatch);
+        else root(reply);
+        return reply;
+    }
+
+    private void exchange(HttpExchange x) throws IOException {
+        var reply = respond(x.getRequestMethod(), x.getRequestURI(), x.getRequestHeaders().getFirst("If-None-Match"));
+        reply.headers().forEach((k, v) -> x.getResponseHeaders().add(k, v));
+        var body = reply.body();
+        boolean head = Objects.equals(x.getRequestMethod(),"HEAD");
+        if (body == null || head) {
+            x.sendResponseHeaders(reply.status(), -1); x.close(); return;
+        }
+        x.sendResponseHeaders(reply.status(), body.length);
         try (var os = x.getResponseBody()) { os.write(body); }
     }
 
-    private void serveJs(HttpExchange x) throws IOException {
-        setCommon(x.getResponseHeaders());
-        x.getResponseHeaders().add("Content-Type","text/javascript; charset=utf-8");
-        x.getResponseHeaders().add("Cache-Control","public, max-age="+cacheSeconds);
-        var langParam = extractLang(x.getRequestURI());
-        var variant = variantCache.computeIfAbsent(langParam, this::buildVariant);
-        x.getResponseHeaders().add("ETag", variant.etag());
+    private void root(HttpReply r) {
+        r.status(200).body(("twbridge HTTP up.\nGET " + path + "\n").getBytes(StandardCharsets.UTF_8));
+    }
 
-        if (Objects.equals(x.getRequestMethod(),"OPTIONS")) {
-            x.getResponseHeaders().add("Access-Control-Allow-Methods","GET, HEAD, OPTIONS");
-            x.getResponseHeaders().add("Access-Control-Allow-Headers","Content-Type");
-            x.sendResponseHeaders(204, -1); x.close(); return;
+    private void serveJs(HttpReply r, String method, URI uri, String ifNoneMatch) {
+        var variant = variant(resolveLang(extractLang(uri)));
+        if (Objects.equals(method,"OPTIONS")) { preflight(r); return; }
+        r.header("Cache-Control","public, max-age="+cacheSeconds);
+        if (redirectToHashed) {
+            r.header("Location", hashedPath(variant)).status(302);
+            return;
         }
-        var inm = x.getRequestHeaders().getFirst("If-None-Match");
-        if (inm!=null && inm.equals(variant.etag()) && Objects.equals(x.getRequestMethod(),"GET")) { x.sendResponseHeaders(304, -1); x.close(); return; }
+        sendVariant(r, method, variant, ifNoneMatch);
+    }
 
-        boolean head = Objects.equals(x.getRequestMethod(),"HEAD");
-        long len = variant.bytes().length;
-        x.sendResponseHeaders(200, head ? -1 : len);
-        if (!head) {
-            try (var os = x.getResponseBody()) { os.write(variant.bytes()); }
-        } else {
-            x.close();
+    private void serveHashed(HttpReply r, String method, String requested, String ifNoneMatch) {
+        var name = requested.endsWith(".js")
+            ? requested.substring(hashedPrefix.length(), requested.length() - 3) : "";
+        int dot = name.lastIndexOf('.');
+        var lang = dot > 0 ? name.substring(0, dot) : "";
+        if (!sources.containsKey(lang)) { r.status(404); return; }
+        if (Objects.equals(method,"OPTIONS")) { preflight(r); return; }
+        var variant = variant(lang);
+        if (!name.substring(dot + 1).equals(variant.hash())) {
+            // stale hash from before a reload: point at the current build instead of failing
+            r.header("Cache-Control","no-cache").header("Location", hashedPath(variant)).status(302);
+            return;
+        }
+        r.header("Cache-Control","public, max-age=31536000, immutable");
+        sendVariant(r, method, variant, ifNoneMatch);
+    }
+
+    private void sendVariant(HttpReply r, String method, JsVariant variant, String ifNoneMatch) {
+        r.header("Content-Type","text/javascript; charset=utf-8");
+        r.header("ETag", variant.etag());
+        if (ifNoneMatch!=null && ifNoneMatch.equals(variant.etag()) && Objects.equals(method,"GET")) { r.status(304); return; }
+        r.status(200).body(variant.bytes());
+    }
+
+    private void preflight(HttpReply r) {
+        r.header("Access-Control-Allow-Methods","GET, HEAD, OPTIONS");
+        r.header("Access-Control-Allow-Headers","Content-Type");
+        r.status(204);
+    }
+
+    private String hashedPath(JsVariant variant) {
+        return hashedPrefix + variant.lang() + "." + variant.hash() + ".js";
+    }
+
+    private void setCommon(HttpReply r) {
+        if (corsAllowOrigins!=null && !corsAllowOrigins.isEmpty()) r.header("Access-Control-Allow-Origin", corsAllowOrigins.get(0));
+        r.header("X-Content-Type-Options","nosniff");
+    }
+    private static byte[] sha256(byte[] d){
+        try{ return MessageDigest.getInstance("SHA-256").digest(d); }
+        catch(Exception e){ throw new IllegalStateException("SHA-256 unavailable", e); }
+    }
+
+    private Map<String, String> loadSources() throws IOException {
+        var out = new LinkedHashMap<String, String>();
+        var index = readResource(VARIANT_DIR + "index.txt");
+        if (index != null) {
+            for (var lang : index.split("\\R")) {
+                lang = lang.trim();
+                if (lang.isEmpty()) continue;
+                var source = readResource(VARIANT_DIR + lang + ".js");
+                if (source != null) out.put(lang, source);
+            }
         }
+        if (out.isEmpty()) {
+            // running from an unprocessed resource tree: render variants from the template instead
+            var template = readResource("turbowarp/twbridge.js");
+            if (template == null) throw new IOException("resource turbowarp/twbridge.js not found");
+            int from = template.indexOf("const TWB_LOCALES = {");
+            var locales = from < 0 ? "" : template.substring(from);
+            int to = locales.indexOf("\n  };");
+            var keys = LOCALE_KEY_PATTERN.matcher(to < 0 ? locales : locales.substring(0, to));
+            while (keys.find()) {
+                var lang = keys.group(1);
+                out.put(lang, LANG_CONST_PATTERN.matcher(template)
+                    .replaceFirst(Matcher.quoteReplacement("const TWB_DEFAULT_LANG = \"" + escapeForJs(lang) + "\";")));
+            }
+            if (out.isEmpty()) out.put("en", template);
+        }
+        return Map.copyOf(out);
     }
 
-    private void setCommon(Headers h) {
-        if (corsAllowOrigins!=null && !corsAllowOrigins.isEmpty()) h.add("Access-Control-Allow-Origin", corsAllowOrigins.get(0));
-        h.add("X-Content-Type-Options","nosniff");
+    private String readResource(String name) throws IOException {
+        try (InputStream is = plugin.getResource(name)) {
+            return is == null ? null : new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
     }
-    private static String calcEtag(byte[] d){
-        try{ var md=MessageDigest.getInstance("SHA-256"); return "\"sha256-"+ Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest(d))+"\""; }
-        catch(Exception e){ return "\""+d.length+"\""; }
+
+    private JsVariant variant(String lang) {
+        return variantCache.computeIfAbsent(lang, this::buildVariant);
     }
 
-    private String loadTemplate(InputStream is, String blockListJson) throws IOException {
-        var raw = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+    private JsVariant buildVariant(String lang) {
+        var raw = sources.get(lang);
         if (wsDefault != null && !wsDefault.isBlank()) {
             var matcher = WS_DEFAULT_PATTERN.matcher(raw);
             if (matcher.find()) {
                 var safe = escapeForJs(wsDefault);
-                raw = matcher.replaceFirst("const WS_DEFAULT = \"" + safe + "\";");
+                raw = matcher.replaceFirst(Matcher.quoteReplacement("const WS_DEFAULT = \"" + safe + "\";"));
             }
         }
         if (blockListJson != null) {
             raw = raw.replace(BLOCK_LIST_PLACEHOLDER, blockListJson);
         }
-        return raw;
+        var bytes = raw.getBytes(StandardCharsets.UTF_8);
+        var digest = sha256(bytes);
+        var hash = HexFormat.of().formatHex(digest, 0, 6);
+        var etag = "\"sha256-" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+        return new JsVariant(lang, bytes, hash, etag);
     }
 
-    private JsVariant buildVariant(String requestedLang) {
-        var lang = sanitizeLang(requestedLang);
-        var matcher = LANG_CONST_PATTERN.matcher(jsTemplate);
-        var safe = escapeForJs(lang);
-        var replaced = matcher.find()
-            ? matcher.replaceFirst("const TWB_DEFAULT_LANG = \"" + safe + "\";")
-            : jsTemplate;
-        var bytes = replaced.getBytes(StandardCharsets.UTF_8);
-        return new JsVariant(bytes, calcEtag(bytes));
+    private String resolveLang(String requested) {
+        if (sources.containsKey(requested)) return requested;
+        if (sources.containsKey(requested.replace('-', '_'))) return requested.replace('-', '_');
+        var base = requested.split("-")[0];
+        if (sources.containsKey(base)) return base;
+        if (sources.containsKey("en")) return "en";
+        return sources.keySet().iterator().next();
     }
 
     private String sanitizeLang(String rawLang) {
@@ -162,7 +266,27 @@ public final class TwHttpServer {
         return input.replace("\\", "\\\\").replace("\"", "\\\"");
     }
 
-    private record JsVariant(byte[] bytes, String etag) {}
+    private record JsVariant(String lang, byte[] bytes, String hash, String etag) {}
+
+    private static final class VariantCache {
+        private final Map<String, JsVariant> entries;
+
+        VariantCache(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<String, JsVariant> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized JsVariant computeIfAbsent(String lang, java.util.function.Function<String, JsVariant> builder) {
+            return entries.computeIfAbsent(lang, builder);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
 
     private String buildBlockListJson() {
         var builder = new StringBuilder();
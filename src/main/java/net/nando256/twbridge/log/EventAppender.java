@@ -0,0 +1,170 @@
+package net.nando256.twbridge.log;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+// Multi-producer, single-consumer ring: producers claim a slot with one CAS
+// and never block (a full ring drops the event); the writer thread renders
+// JSON lines into a size-rotated file and optionally mirrors to the console.
+public final class EventAppender {
+    private final AtomicReferenceArray<EventLog.Event> ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Path file;
+    private final long maxBytes;
+    private final int keep;
+    private final Logger console;
+    private final StringBuilder line = new StringBuilder(256);
+    private final Thread writer;
+    private volatile boolean running = true;
+    private Writer out;
+    private long written;
+
+    public EventAppender(int capacity, Path file, long maxBytes, int keep, Logger console) {
+        int size = Integer.highestOneBit(Math.max(1024, capacity) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.file = file;
+        this.maxBytes = Math.max(64 * 1024, maxBytes);
+        this.keep = Math.max(1, keep);
+        this.console = console;
+        this.writer = new Thread(this::drain, "twbridge-events");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void append(EventLog.Event event) {
+        long claimed;
+        do {
+            claimed = head.get();
+            if (claimed - tail.get() >= ring.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(claimed, claimed + 1));
+        ring.set((int) (claimed & mask), event);
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        long next = 0;
+        try {
+            while (true) {
+                var event = ring.get((int) (next & mask));
+                if (event == null) {
+                    // a claimed slot may still be in flight; only stop once the ring is really empty
+                    if (!running && head.get() == next) break;
+                    flush();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                    continue;
+                }
+                ring.set((int) (next & mask), null);
+                tail.lazySet(++next);
+                write(event);
+            }
+        } finally {
+            flush();
+            closeFile();
+        }
+    }
+
+    private void write(EventLog.Event event) {
+        line.setLength(0);
+        line.append("{\"ts\":\"").append(Instant.ofEpochMilli(event.timeMillis)).append('"')
+            .append(",\"level\":\"").append(event.level.name().toLowerCase(Locale.ROOT)).append('"')
+            .append(",\"cat\":\"").append(event.category.name().toLowerCase(Locale.ROOT)).append('"')
+            .append(",\"event\":").append(JSONObject.quote(event.name));
+        for (int i = 0; i + 1 < event.size; i += 2) {
+            line.append(',').append(JSONObject.quote(String.valueOf(event.fields[i]))).append(':');
+            appendValue(event.fields[i + 1]);
+        }
+        line.append('}');
+        if (console != null) console.info("[event] " + line);
+        if (file == null) return;
+        line.append('\n');
+        try {
+            if (out == null) open();
+            out.write(line.toString());
+            written += line.length();
+            if (written >= maxBytes) rotate();
+        } catch (IOException e) {
+            closeFile();
+        }
+    }
+
+    private void appendValue(Object value) {
+        if (value == null) {
+            line.append("null");
+        } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+            line.append(value);
+        } else if (value instanceof Number number && Double.isFinite(number.doubleValue())) {
+            line.append(number);
+        } else {
+            line.append(JSONObject.quote(String.valueOf(value)));
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(file.getParent());
+        written = Files.exists(file) ? Files.size(file) : 0L;
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        var name = file.getFileName().toString();
+        Files.deleteIfExists(file.resolveSibling(name + "." + keep));
+        for (int i = keep - 1; i >= 1; i--) {
+            var from = file.resolveSibling(name + "." + i);
+            if (Files.exists(from)) Files.move(from, file.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, file.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void flush() {
+        if (out == null) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+}
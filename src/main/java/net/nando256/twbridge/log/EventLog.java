@@ -0,0 +1,151 @@
+package net.nando256.twbridge.log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Structured diagnostics. Call sites pass the event fields as a lambda, so
+// nothing is formatted unless the category is enabled at that level; enabled
+// events are handed to a ring buffer and serialized on the appender thread.
+public final class EventLog {
+    public enum Level { OFF, ERROR, WARN, INFO, DEBUG, TRACE }
+
+    public enum Category { SYSTEM, WS, COMMAND, AGENT, WORLD, STRUCTURE, CLUSTER }
+
+    public interface Fields {
+        void fill(Event event);
+    }
+
+    public static final class Event {
+        final long timeMillis;
+        final Level level;
+        final Category category;
+        final String name;
+        Object[] fields = new Object[8];
+        int size;
+
+        Event(long timeMillis, Level level, Category category, String name) {
+            this.timeMillis = timeMillis;
+            this.level = level;
+            this.category = category;
+            this.name = name;
+        }
+
+        public Event field(String key, Object value) {
+            if (size + 2 > fields.length) fields = Arrays.copyOf(fields, fields.length * 2);
+            fields[size++] = key;
+            fields[size++] = value;
+            return this;
+        }
+    }
+
+    private final Level[] levels = new Level[Category.values().length];
+    private final Sampler[] samplers = new Sampler[Category.values().length];
+    private final int sampleAbovePerSecond;
+    private final int sampleOneIn;
+    private final EventAppender appender;
+    private final AtomicLong sampledOut = new AtomicLong();
+
+    public EventLog(Level defaultLevel, Map<Category, Level> overrides,
+                    int sampleAbovePerSecond, int sampleOneIn, EventAppender appender) {
+        for (var category : Category.values()) {
+            levels[category.ordinal()] = overrides.getOrDefault(category, defaultLevel);
+            samplers[category.ordinal()] = new Sampler();
+        }
+        this.sampleAbovePerSecond = Math.max(0, sampleAbovePerSecond);
+        this.sampleOneIn = Math.max(1, sampleOneIn);
+        this.appender = appender;
+    }
+
+    public static EventLog disabled() {
+        return new EventLog(Level.OFF, Map.of(), 0, 1, null);
+    }
+
+    public static Level parseLevel(String name, Level fallback) {
+        if (name == null) return fallback;
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    public static Category parseCategory(String name) {
+        try {
+            return Category.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean enabled(Category category, Level level) {
+        var threshold = levels[category.ordinal()];
+        return threshold != Level.OFF && level.compareTo(threshold) <= 0;
+    }
+
+    public void debug(Category category, String name, Fields fields) {
+        log(Level.DEBUG, category, name, fields);
+    }
+
+    public void debug(Category category, String name) {
+        log(Level.DEBUG, category, name, null);
+    }
+
+    public void info(Category category, String name, Fields fields) {
+        log(Level.INFO, category, name, fields);
+    }
+
+    public void info(Category category, String name) {
+        log(Level.INFO, category, name, null);
+    }
+
+    public void warn(Category category, String name, Fields fields) {
+        log(Level.WARN, category, name, fields);
+    }
+
+    public void log(Level level, Category category, String name, Fields fields) {
+        if (!enabled(category, level)) return;
+        int sampled = 1;
+        // only chatty levels are sampled; warnings and errors always get through
+        if (level.compareTo(Level.INFO) > 0 && sampleAbovePerSecond > 0) {
+            int count = samplers[category.ordinal()].hit();
+            if (count > sampleAbovePerSecond) {
+                if (count % sampleOneIn != 0) {
+                    sampledOut.incrementAndGet();
+                    return;
+                }
+                sampled = sampleOneIn;
+            }
+        }
+        var event = new Event(System.currentTimeMillis(), level, category, name);
+        if (fields != null) fields.fill(event);
+        if (sampled > 1) event.field("sampled", sampled);
+        appender.append(event);
+    }
+
+    public long sampledOut() {
+        return sampledOut.get();
+    }
+
+    public long dropped() {
+        return appender == null ? 0L : appender.dropped();
+    }
+
+    public void close() {
+        if (appender != null) appender.close();
+    }
+
+    private static final class Sampler {
+        private final AtomicLong second = new AtomicLong();
+        private final AtomicInteger count = new AtomicInteger();
+
+        int hit() {
+            long now = System.currentTimeMillis() / 1000L;
+            long current = second.get();
+            if (current != now && second.compareAndSet(current, now)) count.set(0);
+            return count.incrementAndGet();
+        }
+    }
+}
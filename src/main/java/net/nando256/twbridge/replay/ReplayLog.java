@@ -0,0 +1,85 @@
+package net.nando256.twbridge.replay;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Log layout: "TWBR", version byte, start epoch millis, then records of
+// type byte, varint session, varlong micros since start, and a payload
+// (varint length + UTF-8) for OPEN/IN/OUT. Written through a sync-flushed
+// gzip stream, so a log cut short by a crash still reads up to its last flush.
+public final class ReplayLog {
+    static final int MAGIC = 0x54574252;
+    static final int VERSION = 1;
+
+    public static final byte OPEN = 1;
+    public static final byte IN = 2;
+    public static final byte OUT = 3;
+    public static final byte CLOSE = 4;
+
+    private ReplayLog() {}
+
+    public record Entry(byte type, int session, long micros, String text) {}
+
+    public static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private final long startedAt;
+
+        public Reader(InputStream source) throws IOException {
+            this.in = new DataInputStream(source);
+            if (in.readInt() != MAGIC) throw new IOException("not a twbridge recording");
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("unsupported recording version " + version);
+            this.startedAt = in.readLong();
+        }
+
+        public long startedAt() {
+            return startedAt;
+        }
+
+        // returns null at the end of the log, including a truncated tail
+        public Entry next() throws IOException {
+            try {
+                int type = in.read();
+                if (type < 0) return null;
+                int session = (int) readVarLong(in);
+                long micros = readVarLong(in);
+                String text = null;
+                if (type == OPEN || type == IN || type == OUT) {
+                    var bytes = new byte[(int) readVarLong(in)];
+                    in.readFully(bytes);
+                    text = new String(bytes, StandardCharsets.UTF_8);
+                }
+                return new Entry((byte) type, session, micros, text);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,166 @@
+package net.nando256.twbridge.replay;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+public final class ReplayRun {
+    private static final long REPLY_GRACE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    public interface Dispatcher {
+        void dispatch(String owner, String frame, Consumer<String> out);
+    }
+
+    private final Path file;
+    private final double speed;
+    private final String ownerOverride;
+    private final Dispatcher dispatcher;
+    private final Consumer<String> report;
+    private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> actual = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> expected = new HashMap<>();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private volatile boolean cancelled;
+    private Thread thread;
+
+    // speed 1 keeps the recorded pacing, 10 runs ten times faster, 0 sends as fast as possible
+    public ReplayRun(Path file, double speed, String ownerOverride, Dispatcher dispatcher, Consumer<String> report) {
+        this.file = file;
+        this.speed = Math.max(0.0, speed);
+        this.ownerOverride = ownerOverride;
+        this.dispatcher = dispatcher;
+        this.report = report;
+    }
+
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this::run, "twbridge-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void cancel() {
+        cancelled = true;
+        var running = thread;
+        if (running != null) running.interrupt();
+    }
+
+    public boolean isRunning() {
+        var running = thread;
+        return running != null && running.isAlive();
+    }
+
+    private void run() {
+        var owners = new HashMap<Integer, String>();
+        int sessions = 0;
+        long sent = 0;
+        long started = System.nanoTime();
+        try (var reader = new ReplayLog.Reader(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            ReplayLog.Entry entry;
+            while (!cancelled && (entry = reader.next()) != null) {
+                switch (entry.type()) {
+                    case ReplayLog.OPEN -> sessions++;
+                    case ReplayLog.OUT -> {
+                        var id = replyId(entry.text());
+                        if (id != null) expected.put(entry.session() + "/" + id, isOk(entry.text()));
+                    }
+                    case ReplayLog.IN -> {
+                        var frame = parse(entry.text());
+                        if (frame == null) continue;
+                        if ("pair.start".equals(frame.optString("cmd"))) {
+                            // the replay binds its own owner; pairing is not replayed
+                            owners.put(entry.session(), frame.optString("player", "").trim());
+                            continue;
+                        }
+                        var owner = ownerOverride != null ? ownerOverride : owners.get(entry.session());
+                        if (owner == null || owner.isEmpty()) continue;
+                        if (speed > 0) waitUntil(started + (long) (entry.micros() * 1000L / speed));
+                        var key = entry.session() + "/" + frame.optString("id", "").toLowerCase(Locale.ROOT);
+                        sentAt.put(key, System.nanoTime());
+                        dispatcher.dispatch(owner, entry.text(), reply -> received(key, reply));
+                        sent++;
+                    }
+                    default -> { }
+                }
+            }
+            long deadline = System.nanoTime() + REPLY_GRACE_NANOS;
+            while (!cancelled && !sentAt.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+        } catch (IOException e) {
+            report.accept("Replay failed: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            cancelled = true;
+        }
+        report.accept(summary(sessions, sent, System.nanoTime() - started));
+    }
+
+    private void received(String key, String reply) {
+        var sent = sentAt.remove(key);
+        // pushed frames (no matching request) are not replies
+        if (sent == null) return;
+        long latency = System.nanoTime() - sent;
+        replies.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        actual.put(key, isOk(reply));
+    }
+
+    private String summary(int sessions, long sent, long elapsedNanos) {
+        int mismatched = 0;
+        int compared = 0;
+        for (var entry : actual.entrySet()) {
+            var recorded = expected.get(entry.getKey());
+            if (recorded == null) continue;
+            compared++;
+            if (!recorded.equals(entry.getValue())) mismatched++;
+        }
+        long replied = replies.get();
+        return String.format(Locale.ROOT,
+            "Replay %s%s: %d requests from %d sessions in %.1fs | replies %d, missing %d | ok/error differs from recording %d of %d | latency avg %.1fms max %.1fms",
+            file.getFileName(), cancelled ? " (cancelled)" : "", sent, sessions, elapsedNanos / 1e9,
+            replied, sentAt.size(), mismatched, compared,
+            replied == 0 ? 0.0 : totalLatencyNanos.get() / 1e6 / replied, maxLatencyNanos.get() / 1e6);
+    }
+
+    private static void waitUntil(long nanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+        }
+    }
+
+    private static JSONObject parse(String text) {
+        try {
+            return new JSONObject(text);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static String replyId(String text) {
+        var reply = parse(text);
+        if (reply == null || !reply.has("id")) return null;
+        return reply.optString("id", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isOk(String text) {
+        var reply = parse(text);
+        return reply != null && reply.optBoolean("ok", false);
+    }
+}
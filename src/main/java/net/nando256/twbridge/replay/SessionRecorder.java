@@ -0,0 +1,150 @@
+package net.nando256.twbridge.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+public final class SessionRecorder {
+    private static final DateTimeFormatter FILE_NAME = DateTimeFormatter.ofPattern("'session-'yyyyMMdd-HHmmss'.twbr'");
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Logger logger;
+    private final Path file;
+    private final DataOutputStream out;
+    private final ArrayBlockingQueue<Event> queue;
+    private final Map<Object, Integer> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private SessionRecorder(Logger logger, Path file, int queueSize) throws IOException {
+        this.logger = logger;
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1024, queueSize));
+        this.out = new DataOutputStream(new BufferedOutputStream(
+            new GZIPOutputStream(Files.newOutputStream(file), 8192, true), 65536));
+        out.writeInt(ReplayLog.MAGIC);
+        out.writeByte(ReplayLog.VERSION);
+        out.writeLong(System.currentTimeMillis());
+        this.writer = new Thread(this::drain, "twbridge-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static SessionRecorder open(Logger logger, Path directory, int queueSize) throws IOException {
+        Files.createDirectories(directory);
+        return new SessionRecorder(logger, directory.resolve(LocalDateTime.now().format(FILE_NAME)), queueSize);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public long recorded() {
+        return recorded.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public void opened(Object connection, String remote) {
+        offer(ReplayLog.OPEN, session(connection), remote == null ? "" : remote);
+    }
+
+    public void inbound(Object connection, String text) {
+        offer(ReplayLog.IN, session(connection), text);
+    }
+
+    public void outbound(Object connection, String text) {
+        offer(ReplayLog.OUT, session(connection), text);
+    }
+
+    public void closed(Object connection) {
+        var session = sessions.remove(connection);
+        if (session != null) offer(ReplayLog.CLOSE, session, null);
+    }
+
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessions.clear();
+    }
+
+    private int session(Object connection) {
+        return sessions.computeIfAbsent(connection, k -> nextSession.incrementAndGet());
+    }
+
+    // the only work on the caller's thread: a timestamp and a bounded, non-blocking enqueue
+    private void offer(byte type, int session, String text) {
+        if (!running || !queue.offer(new Event(type, session, System.nanoTime(), text))) dropped.incrementAndGet();
+    }
+
+    private void drain() {
+        var batch = new ArrayList<Event>(256);
+        long lastFlush = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (running || !queue.isEmpty()) {
+                var first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (var event : batch) write(event);
+                    recorded.addAndGet(batch.size());
+                    batch.clear();
+                    dirty = true;
+                }
+                long now = System.nanoTime();
+                if (dirty && (first == null || now - lastFlush >= FLUSH_INTERVAL_NANOS)) {
+                    out.flush();
+                    lastFlush = now;
+                    dirty = false;
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("[twbridge] Session recording stopped: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            try {
+                out.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void write(Event event) throws IOException {
+        out.writeByte(event.type());
+        ReplayLog.writeVarLong(out, event.session());
+        ReplayLog.writeVarLong(out, Math.max(0L, (event.nanos() - startNanos) / 1000L));
+        if (event.text() != null) {
+            var bytes = event.text().getBytes(StandardCharsets.UTF_8);
+            ReplayLog.writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private record Event(byte type, int session, long nanos, String text) {}
+}
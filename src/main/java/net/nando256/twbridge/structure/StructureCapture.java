@@ -0,0 +1,69 @@
+package net.nando256.twbridge.structure;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class StructureCapture {
+    private final int minX, minY, minZ;
+    private final int sizeX, sizeY, sizeZ;
+    private final Map<Long, ChunkSnapshot> snapshots;
+
+    private StructureCapture(int minX, int minY, int minZ,
+                             int sizeX, int sizeY, int sizeZ,
+                             Map<Long, ChunkSnapshot> snapshots) {
+        this.minX = minX; this.minY = minY; this.minZ = minZ;
+        this.sizeX = sizeX; this.sizeY = sizeY; this.sizeZ = sizeZ;
+        this.snapshots = snapshots;
+    }
+
+    // null when a chunk of the region is not loaded; load them first instead of letting getChunkAt block
+    public static StructureCapture capture(World world, int minX, int minY, int minZ,
+                                           int sizeX, int sizeY, int sizeZ) {
+        var snapshots = new HashMap<Long, ChunkSnapshot>();
+        for (int cx = minX >> 4; cx <= (minX + sizeX - 1) >> 4; cx++) {
+            for (int cz = minZ >> 4; cz <= (minZ + sizeZ - 1) >> 4; cz++) {
+                if (!world.isChunkLoaded(cx, cz)) return null;
+                snapshots.put(chunkKey(cx, cz), world.getChunkAt(cx, cz).getChunkSnapshot());
+            }
+        }
+        return new StructureCapture(minX, minY, minZ, sizeX, sizeY, sizeZ, snapshots);
+    }
+
+    public Encoded encode() {
+        var palette = new ArrayList<String>();
+        var lookup = new HashMap<String, Integer>();
+        var indices = new int[sizeX * sizeY * sizeZ];
+        int solid = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++) {
+                    int wx = minX + x, wy = minY + y, wz = minZ + z;
+                    var snapshot = snapshots.get(chunkKey(wx >> 4, wz >> 4));
+                    var data = snapshot.getBlockData(wx & 15, wy, wz & 15);
+                    if (!data.getMaterial().isAir()) solid++;
+                    var key = data.getAsString();
+                    var index = lookup.get(key);
+                    if (index == null) {
+                        index = palette.size();
+                        palette.add(key);
+                        lookup.put(key, index);
+                    }
+                    indices[StructureTemplate.indexOf(x, y, z, sizeX, sizeZ)] = index;
+                }
+            }
+        }
+        return new Encoded(sizeX, sizeY, sizeZ, palette, indices, solid);
+    }
+
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    public record Encoded(int sizeX, int sizeY, int sizeZ,
+                          List<String> palette, int[] indices, int solidBlocks) {}
+}
@@ -0,0 +1,76 @@
+package net.nando256.twbridge.structure;
+
+import net.nando256.twbridge.world.BlockPlacementPipeline;
+import net.nando256.twbridge.world.PlacementJob;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+import java.util.function.Consumer;
+
+public final class StructurePasteJob implements PlacementJob, BlockPlacementPipeline.WriteListener {
+    private final StructureTemplate template;
+    private final World world;
+    private final int baseX, baseY, baseZ;
+    private final BlockData[] palette;
+    private final String owner;
+    private final int volume;
+    private final Consumer<Integer> onSuccess;
+    private final Consumer<String> onFailure;
+    private int cursor;
+    private int placed;
+
+    public StructurePasteJob(StructureTemplate template, World world,
+                             int baseX, int baseY, int baseZ, boolean includeAir,
+                             String owner,
+                             Consumer<Integer> onSuccess, Consumer<String> onFailure) {
+        this.template = template;
+        this.owner = owner;
+        this.world = world;
+        this.baseX = baseX; this.baseY = baseY; this.baseZ = baseZ;
+        this.volume = template.volume();
+        this.onSuccess = onSuccess;
+        this.onFailure = onFailure;
+        var entries = template.palette();
+        this.palette = new BlockData[entries.size()];
+        for (int i = 0; i < palette.length; i++) {
+            try {
+                var data = Bukkit.createBlockData(entries.get(i));
+                palette[i] = (!includeAir && data.getMaterial().isAir()) ? null : data;
+            } catch (IllegalArgumentException e) {
+                palette[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean placeNext(BlockPlacementPipeline pipeline) {
+        int sizeX = template.sizeX(), sizeZ = template.sizeZ();
+        while (cursor < volume) {
+            int index = cursor++;
+            var data = palette[template.paletteIndex(index)];
+            if (data == null) continue;
+            int x = index % sizeX;
+            int z = (index / sizeX) % sizeZ;
+            int y = index / (sizeX * sizeZ);
+            pipeline.write(world, baseX + x, baseY + y, baseZ + z, data, null, false, owner, this);
+            return cursor < volume;
+        }
+        return false;
+    }
+
+    @Override
+    public void onWrite(BlockPlacementPipeline.WriteResult result) {
+        if (result != BlockPlacementPipeline.WriteResult.REJECTED) placed++;
+    }
+
+    @Override
+    public void complete() {
+        if (onSuccess != null) onSuccess.accept(placed);
+    }
+
+    @Override
+    public void abort(String reason) {
+        if (onFailure != null) onFailure.accept(reason);
+    }
+}
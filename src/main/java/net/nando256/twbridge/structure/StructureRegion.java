@@ -0,0 +1,14 @@
+package net.nando256.twbridge.structure;
+
+public record StructureRegion(int x1, int y1, int z1, int x2, int y2, int z2) {
+    public int minX() { return Math.min(x1, x2); }
+    public int minY() { return Math.min(y1, y2); }
+    public int minZ() { return Math.min(z1, z2); }
+    public int sizeX() { return Math.abs(x2 - x1) + 1; }
+    public int sizeY() { return Math.abs(y2 - y1) + 1; }
+    public int sizeZ() { return Math.abs(z2 - z1) + 1; }
+
+    public long volume() {
+        return (long) sizeX() * sizeY() * sizeZ();
+    }
+}
@@ -0,0 +1,49 @@
+package net.nando256.twbridge.structure;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+// Templates live in one directory per owner (root/<player uuid>/<name>.twbs),
+// so players cannot read or overwrite each other's structures by name.
+public final class StructureStore {
+    private static final Pattern NAME_PATTERN = Pattern.compile("^[a-z0-9_-]{1,32}$");
+    private static final String EXTENSION = ".twbs";
+
+    private final Path root;
+
+    public StructureStore(Path root) {
+        this.root = root;
+    }
+
+    public String sanitizeName(String raw) {
+        if (raw == null) return null;
+        var normalized = raw.trim().toLowerCase(Locale.ROOT);
+        return NAME_PATTERN.matcher(normalized).matches() ? normalized : null;
+    }
+
+    public boolean exists(UUID owner, String name) {
+        return Files.exists(pathFor(owner, name));
+    }
+
+    public void save(UUID owner, String name, StructureCapture.Encoded encoded,
+                     int offsetX, int offsetY, int offsetZ) throws IOException {
+        StructureTemplate.write(pathFor(owner, name),
+            encoded.sizeX(), encoded.sizeY(), encoded.sizeZ(),
+            offsetX, offsetY, offsetZ,
+            encoded.palette(), encoded.indices());
+    }
+
+    public StructureTemplate load(UUID owner, String name) throws IOException {
+        var path = pathFor(owner, name);
+        if (!Files.exists(path)) return null;
+        return StructureTemplate.open(path);
+    }
+
+    private Path pathFor(UUID owner, String name) {
+        return root.resolve(owner.toString()).resolve(name + EXTENSION);
+    }
+}
@@ -0,0 +1,125 @@
+package net.nando256.twbridge.structure;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class StructureTemplate {
+    private static final int MAGIC = 0x54574253; // "TWBS"
+    private static final byte VERSION = 1;
+
+    private final int sizeX, sizeY, sizeZ;
+    private final int offsetX, offsetY, offsetZ;
+    private final List<String> palette;
+    private final int bits;
+    private final int perLong;
+    private final long mask;
+    private final LongBuffer data;
+
+    private StructureTemplate(int sizeX, int sizeY, int sizeZ,
+                              int offsetX, int offsetY, int offsetZ,
+                              List<String> palette, int bits, LongBuffer data) {
+        this.sizeX = sizeX; this.sizeY = sizeY; this.sizeZ = sizeZ;
+        this.offsetX = offsetX; this.offsetY = offsetY; this.offsetZ = offsetZ;
+        this.palette = palette;
+        this.bits = bits;
+        this.perLong = 64 / bits;
+        this.mask = (1L << bits) - 1;
+        this.data = data;
+    }
+
+    public int sizeX() { return sizeX; }
+    public int sizeY() { return sizeY; }
+    public int sizeZ() { return sizeZ; }
+    public int offsetX() { return offsetX; }
+    public int offsetY() { return offsetY; }
+    public int offsetZ() { return offsetZ; }
+    public List<String> palette() { return palette; }
+
+    public int volume() {
+        return sizeX * sizeY * sizeZ;
+    }
+
+    public int paletteIndex(int index) {
+        long word = data.get(index / perLong);
+        return (int) ((word >>> ((index % perLong) * bits)) & mask);
+    }
+
+    public static int indexOf(int x, int y, int z, int sizeX, int sizeZ) {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    public static void write(Path file,
+                             int sizeX, int sizeY, int sizeZ,
+                             int offsetX, int offsetY, int offsetZ,
+                             List<String> palette, int[] indices) throws IOException {
+        int bits = bitsFor(palette.size());
+        int perLong = 64 / bits;
+        var packed = new long[(indices.length + perLong - 1) / perLong];
+        for (int i = 0; i < indices.length; i++) {
+            packed[i / perLong] |= ((long) indices[i]) << ((i % perLong) * bits);
+        }
+        Files.createDirectories(file.getParent());
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(sizeX); out.writeInt(sizeY); out.writeInt(sizeZ);
+            out.writeInt(offsetX); out.writeInt(offsetY); out.writeInt(offsetZ);
+            out.writeInt(palette.size());
+            for (var entry : palette) {
+                var bytes = entry.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeByte(bits);
+            out.writeInt(packed.length);
+            for (long word : packed) out.writeLong(word);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static StructureTemplate open(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 5 || buf.getInt() != MAGIC) throw new IOException("not a structure file");
+            if (buf.get() != VERSION) throw new IOException("unsupported structure version");
+            int sizeX = buf.getInt(), sizeY = buf.getInt(), sizeZ = buf.getInt();
+            int offsetX = buf.getInt(), offsetY = buf.getInt(), offsetZ = buf.getInt();
+            if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0) throw new IOException("invalid structure size");
+            int paletteSize = buf.getInt();
+            if (paletteSize <= 0 || paletteSize > 65536) throw new IOException("invalid palette size");
+            var palette = new ArrayList<String>(paletteSize);
+            for (int i = 0; i < paletteSize; i++) {
+                var bytes = new byte[buf.getShort() & 0xFFFF];
+                buf.get(bytes);
+                palette.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            int bits = buf.get();
+            int longCount = buf.getInt();
+            long volume = (long) sizeX * sizeY * sizeZ;
+            if (bits != bitsFor(paletteSize) || longCount != (volume + (64 / bits) - 1) / (64 / bits)) {
+                throw new IOException("corrupt structure data");
+            }
+            var data = buf.slice().asLongBuffer();
+            if (data.remaining() < longCount) throw new IOException("truncated structure data");
+            return new StructureTemplate(sizeX, sizeY, sizeZ, offsetX, offsetY, offsetZ,
+                Collections.unmodifiableList(palette), bits, data);
+        }
+    }
+
+    private static int bitsFor(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, paletteSize - 1)));
+    }
+}
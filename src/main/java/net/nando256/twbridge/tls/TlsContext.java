@@ -0,0 +1,97 @@
+package net.nando256.twbridge.tls;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+public final class TlsContext {
+    private final Path keystore;
+    private final String type;
+    private final char[] storePassword;
+    private final char[] keyPassword;
+    private final SwappableKeyManager keyManager = new SwappableKeyManager();
+    private final SSLContext context;
+    private volatile long loadedModified;
+
+    private TlsContext(Path keystore, String type, char[] storePassword, char[] keyPassword,
+                       int sessionCacheSize, int sessionTimeoutSeconds) throws GeneralSecurityException, IOException {
+        this.keystore = keystore;
+        this.type = type;
+        this.storePassword = storePassword;
+        this.keyPassword = keyPassword;
+        reload();
+        context = SSLContext.getInstance("TLS");
+        context.init(new KeyManager[] { keyManager }, null, null);
+        // resumption lives in the context's session cache; the context outlives
+        // certificate reloads, so resumed sessions survive a renewal
+        var sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(Math.max(0, sessionCacheSize));
+        sessions.setSessionTimeout(Math.max(0, sessionTimeoutSeconds));
+    }
+
+    public static TlsContext load(Path keystore, String type, String storePassword, String keyPassword,
+                                  int sessionCacheSize, int sessionTimeoutSeconds) throws GeneralSecurityException, IOException {
+        var store = storePassword == null ? new char[0] : storePassword.toCharArray();
+        var key = keyPassword == null || keyPassword.isEmpty() ? store : keyPassword.toCharArray();
+        return new TlsContext(keystore, type == null || type.isBlank() ? "PKCS12" : type, store, key,
+            sessionCacheSize, sessionTimeoutSeconds);
+    }
+
+    public SSLContext context() {
+        return context;
+    }
+
+    public Path keystore() {
+        return keystore;
+    }
+
+    public synchronized void reload() throws GeneralSecurityException, IOException {
+        long modified = Files.getLastModifiedTime(keystore).toMillis();
+        var store = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(keystore)) {
+            store.load(in, storePassword);
+        }
+        var factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(store, keyPassword);
+        for (var manager : factory.getKeyManagers()) {
+            if (manager instanceof X509ExtendedKeyManager x509) {
+                keyManager.delegate = x509;
+                loadedModified = modified;
+                return;
+            }
+        }
+        throw new GeneralSecurityException("keystore has no X.509 key manager: " + keystore);
+    }
+
+    public boolean reloadIfChanged() throws GeneralSecurityException, IOException {
+        if (Files.getLastModifiedTime(keystore).toMillis() == loadedModified) return false;
+        reload();
+        return true;
+    }
+
+    private static final class SwappableKeyManager extends X509ExtendedKeyManager {
+        volatile X509ExtendedKeyManager delegate;
+
+        @Override public String[] getClientAliases(String keyType, Principal[] issuers) { return delegate.getClientAliases(keyType, issuers); }
+        @Override public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) { return delegate.chooseClientAlias(keyType, issuers, socket); }
+        @Override public String[] getServerAliases(String keyType, Principal[] issuers) { return delegate.getServerAliases(keyType, issuers); }
+        @Override public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) { return delegate.chooseServerAlias(keyType, issuers, socket); }
+        @Override public X509Certificate[] getCertificateChain(String alias) { return delegate.getCertificateChain(alias); }
+        @Override public PrivateKey getPrivateKey(String alias) { return delegate.getPrivateKey(alias); }
+        @Override public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) { return delegate.chooseEngineClientAlias(keyType, issuers, engine); }
+        @Override public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) { return delegate.chooseEngineServerAlias(keyType, issuers, engine); }
+    }
+}
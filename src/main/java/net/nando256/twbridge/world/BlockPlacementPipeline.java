@@ -0,0 +1,274 @@
+package net.nando256.twbridge.world;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class BlockPlacementPipeline {
+    private static final int SLICE = 256;
+
+    private final Plugin plugin;
+    private final ChangeJournal journal;
+    private final ChunkGate chunkGate;
+    private final long budgetNanos;
+    private final int maxBlocksPerTick;
+    private final ArrayDeque<PlacementJob> jobs = new ArrayDeque<>();
+    private LinkedHashMap<ChunkRef, ArrayList<BlockWrite>> pending = new LinkedHashMap<>();
+    private LinkedHashMap<ChunkRef, ArrayList<BlockWrite>> applying = new LinkedHashMap<>();
+    // writes for chunks that were not loaded, waiting on the chunk gate; later writes to
+    // the same chunk queue behind them so a chunk's writes keep their order
+    private final Map<ChunkRef, ArrayList<BlockWrite>> parked = new HashMap<>();
+    private final Map<WriteListener, Integer> parkedPerListener = new IdentityHashMap<>();
+    // jobs that staged their last write but still have writes parked
+    private final ArrayList<PlacementJob> finishing = new ArrayList<>();
+    private BukkitTask task;
+
+    private int tickApplied;
+    private int tickUnchanged;
+    private int tickRejected;
+    private int tickChunks;
+    private volatile Stats stats = new Stats(0, 0, 0, 0, 0, 0, 0, 0);
+    private volatile long busyNanos;
+    private volatile double budgetScale = 1.0;
+
+    public BlockPlacementPipeline(Plugin plugin, ChangeJournal journal, ChunkGate chunkGate,
+                                  int budgetMillis, int maxBlocksPerTick) {
+        this.plugin = plugin;
+        this.journal = journal;
+        this.chunkGate = chunkGate;
+        this.budgetNanos = Math.max(1, budgetMillis) * 1_000_000L;
+        this.maxBlocksPerTick = Math.max(SLICE, maxBlocksPerTick);
+    }
+
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (task != null) { task.cancel(); task = null; }
+        flush();
+        for (var key : new ArrayList<>(parked.keySet())) rejectParked(key);
+        completeFinished();
+        PlacementJob job;
+        while ((job = jobs.poll()) != null) job.abort("server stopping");
+    }
+
+    public void submit(PlacementJob job) {
+        jobs.add(job);
+    }
+
+    public void write(World world, int x, int y, int z, BlockData data,
+                      BlockData expected, boolean requireEmpty,
+                      String owner, WriteListener listener) {
+        var write = new BlockWrite(world, x, y, z, data, expected, requireEmpty, owner, listener);
+        var key = new ChunkRef(world, x >> 4, z >> 4);
+        var waiting = parked.get(key);
+        if (waiting != null) {
+            waiting.add(write);
+            if (listener != null) parkedPerListener.merge(listener, 1, Integer::sum);
+            return;
+        }
+        pending.computeIfAbsent(key, k -> new ArrayList<>()).add(write);
+    }
+
+    public int pendingJobs() {
+        return jobs.size();
+    }
+
+    public Stats stats() {
+        return stats;
+    }
+
+    public long busyNanos() {
+        return busyNanos;
+    }
+
+    public void setBudgetScale(double scale) {
+        budgetScale = Math.max(0.0, Math.min(scale, 1.0));
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        double scale = budgetScale;
+        long deadline = start + Math.max(1_000_000L, (long) (budgetNanos * scale));
+        int blockLimit = Math.max(SLICE, (int) (maxBlocksPerTick * scale));
+        int staged = 0;
+        List<PlacementJob> waiting = null;
+        while (!jobs.isEmpty() && staged < blockLimit && System.nanoTime() < deadline) {
+            var job = jobs.poll();
+            boolean more = true;
+            try {
+                for (int i = 0; i < SLICE && more && !job.waiting(); i++) {
+                    more = job.placeNext(this);
+                    staged++;
+                }
+            } catch (Exception e) {
+                plugin.getLogger().warning("Placement job failed: " + e.getMessage());
+                job.abort(e.getMessage() == null ? "placement failed" : e.getMessage());
+                continue;
+            }
+            if (more && job.waiting()) {
+                // queued again after this tick's loop so it is not polled in a spin
+                if (waiting == null) waiting = new ArrayList<>();
+                waiting.add(job);
+            } else if (more) {
+                jobs.add(job);
+            } else {
+                finishing.add(job);
+            }
+        }
+        if (waiting != null) jobs.addAll(waiting);
+        // one pass per tick, after every job has staged its slice, so each chunk is visited once
+        flush();
+        completeFinished();
+        recordTick();
+        // only the main thread writes this; readers just need a recent value
+        busyNanos += System.nanoTime() - start;
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) return;
+        var batch = pending;
+        pending = applying;
+        applying = batch;
+        tickChunks += batch.size();
+        for (var group : batch.entrySet()) {
+            var key = group.getKey();
+            if (key.world().isChunkLoaded(key.x(), key.z())) {
+                applyChunk(key, group.getValue());
+            } else {
+                park(key, group.getValue());
+            }
+        }
+        batch.clear();
+    }
+
+    private void park(ChunkRef key, ArrayList<BlockWrite> writes) {
+        parked.put(key, writes);
+        for (var write : writes) {
+            if (write.listener() != null) parkedPerListener.merge(write.listener(), 1, Integer::sum);
+        }
+        chunkGate.whenLoaded(key.world(), key.x(), key.z(), () -> {
+            var waiting = unpark(key);
+            if (waiting == null) return;
+            tickChunks++;
+            applyChunk(key, waiting);
+            completeFinished();
+        }, reason -> {
+            rejectParked(key);
+            completeFinished();
+        });
+    }
+
+    private ArrayList<BlockWrite> unpark(ChunkRef key) {
+        var waiting = parked.remove(key);
+        if (waiting == null) return null;
+        for (var write : waiting) {
+            if (write.listener() != null) parkedPerListener.computeIfPresent(write.listener(), (l, n) -> n > 1 ? n - 1 : null);
+        }
+        return waiting;
+    }
+
+    private void rejectParked(ChunkRef key) {
+        var waiting = unpark(key);
+        if (waiting == null) return;
+        for (var write : waiting) {
+            tickRejected++;
+            if (write.listener() != null) write.listener().onWrite(WriteResult.REJECTED);
+        }
+    }
+
+    private void completeFinished() {
+        if (finishing.isEmpty()) return;
+        var it = finishing.iterator();
+        while (it.hasNext()) {
+            var job = it.next();
+            if (job instanceof WriteListener listener && parkedPerListener.containsKey(listener)) continue;
+            it.remove();
+            job.complete();
+        }
+    }
+
+    // the chunk is loaded, so its blocks are fetched from it directly without another lookup per write
+    private void applyChunk(ChunkRef key, ArrayList<BlockWrite> writes) {
+        var chunk = key.world().getChunkAt(key.x(), key.z());
+        for (var write : writes) {
+            try {
+                apply(chunk.getBlock(write.x() & 15, write.y(), write.z() & 15), write);
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Block write failed: " + e.getMessage());
+                tickRejected++;
+                if (write.listener() != null) write.listener().onWrite(WriteResult.REJECTED);
+            }
+        }
+    }
+
+    private void apply(Block block, BlockWrite write) {
+        var current = block.getBlockData();
+        WriteResult result;
+        if ((write.requireEmpty() && !current.getMaterial().isAir())
+            || (write.expected() != null && !current.matches(write.expected()))) {
+            result = WriteResult.REJECTED;
+            tickRejected++;
+        } else if (current.matches(write.data())) {
+            result = WriteResult.UNCHANGED;
+            tickUnchanged++;
+        } else {
+            block.setBlockData(write.data(), false);
+            if (write.owner() != null) journal.record(write.owner(), block, current, write.data());
+            result = WriteResult.APPLIED;
+            tickApplied++;
+        }
+        if (write.listener() != null) write.listener().onWrite(result);
+    }
+
+    private void recordTick() {
+        if (tickApplied == 0 && tickUnchanged == 0 && tickRejected == 0) return;
+        var previous = stats;
+        stats = new Stats(
+            previous.totalApplied() + tickApplied,
+            previous.totalUnchanged() + tickUnchanged,
+            previous.totalRejected() + tickRejected,
+            previous.activeTicks() + 1,
+            tickApplied,
+            tickChunks,
+            Math.max(previous.peakAppliedPerTick(), tickApplied),
+            jobs.size()
+        );
+        tickApplied = 0;
+        tickUnchanged = 0;
+        tickRejected = 0;
+        tickChunks = 0;
+    }
+
+    public enum WriteResult { APPLIED, UNCHANGED, REJECTED }
+
+    public interface WriteListener {
+        void onWrite(WriteResult result);
+    }
+
+    public record Stats(long totalApplied, long totalUnchanged, long totalRejected, long activeTicks,
+                        int lastTickApplied, int lastTickChunks, int peakAppliedPerTick, int queuedJobs) {
+        public double averageAppliedPerTick() {
+            return activeTicks == 0 ? 0.0 : (double) totalApplied / activeTicks;
+        }
+    }
+
+    private record ChunkRef(World world, int x, int z) {}
+
+    private record BlockWrite(World world, int x, int y, int z, BlockData data,
+                              BlockData expected, boolean requireEmpty,
+                              String owner, WriteListener listener) {}
+}
@@ -0,0 +1,368 @@
+package net.nando256.twbridge.world;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Per-owner undo history. Recent changes live in memory; older ones spill to a
+// per-owner file that is used as a stack (appended at the end, read back from
+// the end). All file I/O runs on one background thread in submission order, so
+// recording and undoing never touch the disk on the main thread: spills hand a
+// copied buffer to that thread, and an undo reads the next batch back before it
+// runs out of in-memory entries.
+public final class ChangeJournal {
+    private static final int RECORD_BYTES = 32;
+    private static final int INITIAL_ENTRIES = 256;
+    private static final String SPILL_EXTENSION = ".journal";
+
+    private final Plugin plugin;
+    private final Path spillDir;
+    private final Logger logger;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "twbridge-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<UUID> worlds = new ArrayList<>();
+    private final Map<UUID, Integer> worldIds = new HashMap<>();
+    private final List<BlockData> states = new ArrayList<>();
+    private final Map<BlockData, Integer> stateIds = new HashMap<>();
+    private final Map<String, OwnerLog> logs = new HashMap<>();
+    private int memoryEntriesPerOwner = 65536;
+    private long memoryEntriesTotal = 524288;
+    // entries allocated across all owners, and a write counter that orders owners by recency
+    private long allocatedEntries;
+    private long writeClock;
+    // bumped by clear(), so reads still in flight from before it are ignored
+    private long generation;
+
+    public ChangeJournal(Plugin plugin, Path spillDir) {
+        this.plugin = plugin;
+        this.spillDir = spillDir;
+        this.logger = plugin.getLogger();
+    }
+
+    public void configure(int memoryEntriesPerOwner, int memoryEntriesTotal) {
+        this.memoryEntriesPerOwner = Math.max(64, memoryEntriesPerOwner);
+        this.memoryEntriesTotal = Math.max(this.memoryEntriesPerOwner, memoryEntriesTotal);
+    }
+
+    public long allocatedEntries() {
+        return allocatedEntries;
+    }
+
+    public void clear() {
+        generation++;
+        logs.clear();
+        allocatedEntries = 0;
+        // queued behind any pending spills, so nothing recreates a file after it is deleted
+        io.execute(() -> {
+            try {
+                if (!Files.isDirectory(spillDir)) return;
+                try (var files = Files.list(spillDir)) {
+                    for (var file : (Iterable<Path>) files::iterator) {
+                        if (file.getFileName().toString().endsWith(SPILL_EXTENSION)) Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Journal cleanup failed: " + e.getMessage());
+            }
+        });
+    }
+
+    public void close() {
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(5, TimeUnit.SECONDS)) logger.warning("Journal writer did not finish in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void record(String owner, Block block, BlockData previous, BlockData next) {
+        var log = logs.computeIfAbsent(normalize(owner), key -> new OwnerLog(key, memoryEntriesPerOwner));
+        log.push(worldId(block.getWorld()), block.getX(), block.getY(), block.getZ(),
+            stateId(previous), stateId(next), System.currentTimeMillis());
+    }
+
+    public long size(String owner) {
+        var log = logs.get(normalize(owner));
+        return log == null ? 0 : log.count + log.diskCount;
+    }
+
+    public PopResult pop(String owner, long sinceMillis, Entry into) {
+        var log = logs.get(normalize(owner));
+        return log == null ? PopResult.END : log.pop(sinceMillis, into);
+    }
+
+    World world(int id) {
+        return Bukkit.getWorld(worlds.get(id));
+    }
+
+    BlockData state(int id) {
+        return states.get(id);
+    }
+
+    private int worldId(World world) {
+        return worldIds.computeIfAbsent(world.getUID(), uid -> {
+            worlds.add(uid);
+            return worlds.size() - 1;
+        });
+    }
+
+    private int stateId(BlockData data) {
+        return stateIds.computeIfAbsent(data, key -> {
+            states.add(key);
+            return states.size() - 1;
+        });
+    }
+
+    // makes room in the global budget by spilling whole owners, least recently written first
+    private boolean reserve(OwnerLog requester, int entries) {
+        while (allocatedEntries + entries > memoryEntriesTotal) {
+            OwnerLog oldest = null;
+            for (var log : logs.values()) {
+                if (log == requester || log.length() == 0) continue;
+                if (oldest == null || log.lastWrite < oldest.lastWrite) oldest = log;
+            }
+            if (oldest == null) return false;
+            oldest.evict();
+        }
+        return true;
+    }
+
+    private static String normalize(String owner) {
+        return owner == null ? "" : owner.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // PENDING: the next entries are still being read back from disk; ask again on a later tick
+    public enum PopResult { ENTRY, END, PENDING }
+
+    private static void append(Path dir, Path file, ByteBuffer records) {
+        try {
+            Files.createDirectories(dir);
+            try (var channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (records.hasRemaining()) channel.write(records);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    // reads up to 'wanted' records from the end of the file without changing it; the file's own
+    // size decides where the end is, so entries lost to a failed spill only shorten the history
+    private static Tail readTail(Path file, int wanted) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long stored = channel.size() / RECORD_BYTES;
+            int n = (int) Math.min(wanted, stored);
+            long offset = (stored - n) * RECORD_BYTES;
+            var buf = ByteBuffer.allocate(n * RECORD_BYTES);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) break;
+            }
+            buf.flip();
+            // whole records only: a short read yields fewer entries, never a buffer underflow
+            int read = buf.remaining() / RECORD_BYTES;
+            return new Tail(buf, read, stored - n, offset);
+        } catch (NoSuchFileException e) {
+            return new Tail(ByteBuffer.allocate(0), 0, 0, 0);
+        }
+    }
+
+    private record Tail(ByteBuffer records, int count, long remaining, long offset) {}
+
+    public static final class Entry {
+        int world, x, y, z, previous, next;
+        long time;
+    }
+
+    // Ring buffer of one owner's changes. The arrays start empty and double up to
+    // the per-owner capacity as the owner builds, so a player who placed a few
+    // blocks holds a few kilobytes, not the full capacity.
+    private final class OwnerLog {
+        final String key;
+        final Path spillFile;
+        final int capacity;
+        int[] world = new int[0], x = new int[0], y = new int[0], z = new int[0], previous = new int[0], next = new int[0];
+        long[] time = new long[0];
+        int head;
+        int count;
+        long diskCount;
+        long lastWrite;
+        // a read-back is in flight; 'spills' is bumped by every spill so a read that raced one is dropped
+        boolean fetching;
+        long spills;
+
+        OwnerLog(String owner, int capacity) {
+            this.key = owner;
+            this.spillFile = spillDir.resolve(owner.replaceAll("[^a-z0-9_-]", "_") + SPILL_EXTENSION);
+            this.capacity = capacity;
+        }
+
+        int length() {
+            return time.length;
+        }
+
+        void push(int w, int bx, int by, int bz, int prev, int nxt, long now) {
+            if (count == length()) makeRoom();
+            int slot = (head + count) % length();
+            world[slot] = w; x[slot] = bx; y[slot] = by; z[slot] = bz;
+            previous[slot] = prev; next[slot] = nxt; time[slot] = now;
+            count++;
+            lastWrite = ++writeClock;
+        }
+
+        private void makeRoom() {
+            int length = length();
+            if (length < capacity) {
+                int grown = Math.min(capacity, Math.max(INITIAL_ENTRIES, length * 2));
+                // the first chunk is always granted, so a new owner can record even with the budget spent
+                if (reserve(this, grown - length) || length == 0) {
+                    resize(grown);
+                    return;
+                }
+            }
+            spill(Math.max(1, length / 2));
+        }
+
+        // writes every in-memory entry to disk and gives the arrays back to the budget
+        void evict() {
+            if (count > 0) spill(count);
+            resize(0);
+        }
+
+        private void resize(int length) {
+            var nw = new int[length]; var nx = new int[length]; var ny = new int[length]; var nz = new int[length];
+            var np = new int[length]; var nn = new int[length]; var nt = new long[length];
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % length();
+                nw[i] = world[slot]; nx[i] = x[slot]; ny[i] = y[slot]; nz[i] = z[slot];
+                np[i] = previous[slot]; nn[i] = next[slot]; nt[i] = time[slot];
+            }
+            allocatedEntries += length - length();
+            world = nw; x = nx; y = ny; z = nz; previous = np; next = nn; time = nt;
+            head = 0;
+        }
+
+        PopResult pop(long sinceMillis, Entry into) {
+            if (count == 0) {
+                if (diskCount == 0) return PopResult.END;
+                prefetch();
+                return PopResult.PENDING;
+            }
+            int slot = (head + count - 1) % length();
+            if (time[slot] < sinceMillis) return PopResult.END;
+            into.world = world[slot]; into.x = x[slot]; into.y = y[slot]; into.z = z[slot];
+            into.previous = previous[slot]; into.next = next[slot]; into.time = time[slot];
+            count--;
+            // start reading the next batch while half of this one is still left to undo
+            if (count <= refillSize() / 2) prefetch();
+            return PopResult.ENTRY;
+        }
+
+        private int refillSize() {
+            return Math.min(capacity / 2, Math.max(INITIAL_ENTRIES, length()));
+        }
+
+        private void spill(int amount) {
+            var buf = ByteBuffer.allocate(amount * RECORD_BYTES);
+            for (int i = 0; i < amount; i++) {
+                int slot = (head + i) % length();
+                buf.putInt(world[slot]).putInt(x[slot]).putInt(y[slot]).putInt(z[slot])
+                    .putInt(previous[slot]).putInt(next[slot]).putLong(time[slot]);
+            }
+            buf.flip();
+            io.execute(() -> {
+                try {
+                    append(spillDir, spillFile, buf);
+                } catch (IllegalStateException e) {
+                    logger.warning("Journal spill failed, dropping oldest entries: " + e.getMessage());
+                }
+            });
+            diskCount += amount;
+            spills++;
+            head = (head + amount) % length();
+            count -= amount;
+        }
+
+        private void prefetch() {
+            if (fetching || diskCount == 0) return;
+            fetching = true;
+            int wanted = (int) Math.min(refillSize(), diskCount);
+            long spillsAtRequest = spills;
+            long generationAtRequest = generation;
+            io.execute(() -> {
+                Tail tail;
+                try {
+                    tail = readTail(spillFile, wanted);
+                } catch (IOException e) {
+                    logger.warning("Journal reload failed: " + e.getMessage());
+                    tail = null;
+                }
+                var read = tail;
+                if (plugin.isEnabled()) {
+                    Bukkit.getScheduler().runTask(plugin, () -> accept(read, spillsAtRequest, generationAtRequest));
+                }
+            });
+        }
+
+        // main thread: takes a read-back batch in below the in-memory entries, which are all newer
+        private void accept(Tail tail, long spillsAtRequest, long generationAtRequest) {
+            fetching = false;
+            if (generationAtRequest != generation || logs.get(key) != this) return;
+            if (tail == null) {
+                diskCount = 0;
+                return;
+            }
+            // newer entries were spilled behind the ones read; they stay on disk and are read again later
+            if (spills != spillsAtRequest) return;
+            int n = tail.count();
+            if (count + n > capacity) return;
+            if (length() < count + n) {
+                // an undo always gets its entries back, even if the budget has to run over briefly
+                reserve(this, count + n - length());
+                resize(count + n);
+            }
+            head = Math.floorMod(head - n, length());
+            var buf = tail.records();
+            for (int i = 0; i < n; i++) {
+                int slot = (head + i) % length();
+                world[slot] = buf.getInt(); x[slot] = buf.getInt(); y[slot] = buf.getInt(); z[slot] = buf.getInt();
+                previous[slot] = buf.getInt(); next[slot] = buf.getInt(); time[slot] = buf.getLong();
+            }
+            count += n;
+            diskCount = tail.remaining();
+            // queued ahead of any later spill, so it only cuts off the records just taken
+            long keep = tail.offset();
+            io.execute(() -> {
+                try (var channel = FileChannel.open(spillFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(keep);
+                } catch (NoSuchFileException ignored) {
+                } catch (IOException e) {
+                    logger.warning("Journal truncate failed: " + e.getMessage());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.nando256.twbridge.world;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Parks main-thread work that would touch an unloaded chunk, loads the chunk
+// through Paper's async chunk API and resumes the work once it is ready, so a
+// bridge request never forces a synchronous chunk load.
+public final class ChunkGate {
+    private final Plugin plugin;
+    private final int maxParked;
+    private final Map<ChunkRef, List<Parked>> pending = new HashMap<>();
+    private int parked;
+    private long requested;
+    private boolean stopped;
+
+    public ChunkGate(Plugin plugin, int maxParked) {
+        this.plugin = plugin;
+        this.maxParked = Math.max(1, maxParked);
+    }
+
+    public void whenLoaded(World world, int chunkX, int chunkZ, Runnable resume, Consumer<String> onFailure) {
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            resume.run();
+            return;
+        }
+        if (stopped || parked >= maxParked) {
+            if (onFailure != null) onFailure.accept("too many operations waiting for chunks");
+            return;
+        }
+        var key = new ChunkRef(world.getUID(), chunkX, chunkZ);
+        var waiting = pending.get(key);
+        boolean first = waiting == null;
+        if (first) {
+            waiting = new ArrayList<>(2);
+            pending.put(key, waiting);
+        }
+        waiting.add(new Parked(resume, onFailure));
+        parked++;
+        if (!first) return;
+        requested++;
+        world.getChunkAtAsync(chunkX, chunkZ).whenComplete((chunk, error) -> {
+            if (Bukkit.isPrimaryThread()) {
+                resume(key, error);
+            } else if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, () -> resume(key, error));
+            }
+        });
+    }
+
+    public void stop() {
+        stopped = true;
+        var all = new ArrayList<>(pending.values());
+        pending.clear();
+        parked = 0;
+        for (var waiting : all) {
+            for (var op : waiting) {
+                if (op.onFailure() != null) op.onFailure().accept("server stopping");
+            }
+        }
+    }
+
+    public int parked() {
+        return parked;
+    }
+
+    public long requested() {
+        return requested;
+    }
+
+    private void resume(ChunkRef key, Throwable error) {
+        var waiting = pending.remove(key);
+        if (waiting == null) return;
+        parked -= waiting.size();
+        for (var op : waiting) {
+            if (error != null) {
+                if (op.onFailure() != null) op.onFailure().accept("chunk load failed");
+                continue;
+            }
+            try {
+                op.resume().run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("[twbridge] Resumed chunk operation failed: " + e.getMessage());
+                if (op.onFailure() != null) op.onFailure().accept("operation failed");
+            }
+        }
+    }
+
+    private record ChunkRef(UUID world, int x, int z) {}
+
+    private record Parked(Runnable resume, Consumer<String> onFailure) {}
+}
@@ -0,0 +1,61 @@
+package net.nando256.twbridge.world;
+
+import java.util.function.Consumer;
+
+public final class JournalRevertJob implements PlacementJob, BlockPlacementPipeline.WriteListener {
+    private final ChangeJournal journal;
+    private final String owner;
+    private final long sinceMillis;
+    private final ChangeJournal.Entry entry = new ChangeJournal.Entry();
+    private final Consumer<Integer> onSuccess;
+    private final Consumer<String> onFailure;
+    private int remaining;
+    private int reverted;
+    private boolean waiting;
+
+    public JournalRevertJob(ChangeJournal journal, String owner, int limit, long sinceMillis,
+                            Consumer<Integer> onSuccess, Consumer<String> onFailure) {
+        this.journal = journal;
+        this.owner = owner;
+        this.remaining = limit;
+        this.sinceMillis = sinceMillis;
+        this.onSuccess = onSuccess;
+        this.onFailure = onFailure;
+    }
+
+    @Override
+    public boolean placeNext(BlockPlacementPipeline pipeline) {
+        if (remaining <= 0) return false;
+        var popped = journal.pop(owner, sinceMillis, entry);
+        waiting = popped == ChangeJournal.PopResult.PENDING;
+        if (waiting) return true;
+        if (popped == ChangeJournal.PopResult.END) return false;
+        remaining--;
+        var world = journal.world(entry.world);
+        if (world != null) {
+            pipeline.write(world, entry.x, entry.y, entry.z,
+                journal.state(entry.previous), journal.state(entry.next), false, null, this);
+        }
+        return remaining > 0;
+    }
+
+    @Override
+    public boolean waiting() {
+        return waiting;
+    }
+
+    @Override
+    public void onWrite(BlockPlacementPipeline.WriteResult result) {
+        if (result == BlockPlacementPipeline.WriteResult.APPLIED) reverted++;
+    }
+
+    @Override
+    public void complete() {
+        if (onSuccess != null) onSuccess.accept(reverted);
+    }
+
+    @Override
+    public void abort(String reason) {
+        if (onFailure != null) onFailure.accept(reason);
+    }
+}
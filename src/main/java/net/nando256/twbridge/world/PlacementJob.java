@@ -0,0 +1,14 @@
+package net.nando256.twbridge.world;
+
+public interface PlacementJob {
+    boolean placeNext(BlockPlacementPipeline pipeline);
+
+    // true while the job has more to do but nothing to stage until a later tick
+    default boolean waiting() {
+        return false;
+    }
+
+    void complete();
+
+    void abort(String reason);
+}
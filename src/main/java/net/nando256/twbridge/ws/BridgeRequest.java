@@ -0,0 +1,316 @@
+package net.nando256.twbridge.ws;
+
+import java.util.UUID;
+
+// Per-thread scratch reader for bridge frames: values stay as spans into the
+// frame text until asked for, so copy what you need before leaving the thread.
+final class BridgeRequest {
+    private static final String[] KEYS = {
+        "id", "sessionId", "cmd", "player", "code", "command", "agentId", "direction",
+        "blocks", "slot", "amount", "block", "name", "count",
+        "x1", "y1", "z1", "x2", "y2", "z2", "overwrite", "includeAir",
+        "rays", "spread", "distance", "pitch", "workspace", "agents", "slots"
+    };
+    private static final ThreadLocal<BridgeRequest> SCRATCH = ThreadLocal.withInitial(BridgeRequest::new);
+
+    private static final byte ABSENT = 0;
+    private static final byte STRING = 1;
+    private static final byte ESCAPED_STRING = 2;
+    private static final byte NUMBER = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte NULL = 6;
+    private static final byte COMPOSITE = 7;
+
+    private final byte[] kinds = new byte[KEYS.length];
+    private final int[] starts = new int[KEYS.length];
+    private final int[] ends = new int[KEYS.length];
+    private String text;
+    private int pos;
+
+    private BridgeRequest() {}
+
+    static BridgeRequest parse(String text) {
+        var req = SCRATCH.get();
+        req.text = text;
+        req.pos = 0;
+        java.util.Arrays.fill(req.kinds, ABSENT);
+        req.parseObject();
+        return req;
+    }
+
+    UUID id() {
+        int slot = slotOf("id");
+        byte kind = kinds[slot];
+        if (kind == ABSENT || kind == NULL) return UUID.randomUUID();
+        if (kind == STRING && ends[slot] - starts[slot] == 36) {
+            var parsed = parseCanonicalUuid(starts[slot]);
+            if (parsed != null) return parsed;
+        }
+        return UUID.fromString(optString("id", ""));
+    }
+
+    boolean isCmd(String name) {
+        return stringEquals("cmd", name);
+    }
+
+    boolean has(String key) {
+        return kinds[slotOf(key)] != ABSENT;
+    }
+
+    String optString(String key, String defaultValue) {
+        int slot = slotOf(key);
+        return switch (kinds[slot]) {
+            case ABSENT, NULL -> defaultValue;
+            case ESCAPED_STRING -> unescape(starts[slot], ends[slot]);
+            default -> text.substring(starts[slot], ends[slot]);
+        };
+    }
+
+    // arrays and objects stay unparsed; hand their text to org.json when needed
+    String optRaw(String key) {
+        int slot = slotOf(key);
+        return kinds[slot] == COMPOSITE ? text.substring(starts[slot], ends[slot]) : null;
+    }
+
+    boolean stringEquals(String key, String expected) {
+        int slot = slotOf(key);
+        if (expected == null) return false;
+        if (kinds[slot] == ESCAPED_STRING) return expected.equals(optString(key, null));
+        if (kinds[slot] != STRING) return false;
+        int len = ends[slot] - starts[slot];
+        return len == expected.length() && text.regionMatches(starts[slot], expected, 0, len);
+    }
+
+    int optInt(String key, int defaultValue) {
+        int slot = slotOf(key);
+        if (kinds[slot] != NUMBER && kinds[slot] != STRING) return defaultValue;
+        long exact = parseLong(starts[slot], ends[slot]);
+        if (exact != Long.MIN_VALUE) return (int) exact;
+        double value = parseDouble(starts[slot], ends[slot]);
+        return Double.isNaN(value) ? defaultValue : (int) value;
+    }
+
+    double optDouble(String key, double defaultValue) {
+        int slot = slotOf(key);
+        if (kinds[slot] != NUMBER && kinds[slot] != STRING) return defaultValue;
+        long exact = parseLong(starts[slot], ends[slot]);
+        if (exact != Long.MIN_VALUE) return exact;
+        double value = parseDouble(starts[slot], ends[slot]);
+        return Double.isNaN(value) ? defaultValue : value;
+    }
+
+    boolean optBoolean(String key, boolean defaultValue) {
+        int slot = slotOf(key);
+        return switch (kinds[slot]) {
+            case TRUE -> true;
+            case FALSE -> false;
+            case STRING -> {
+                int len = ends[slot] - starts[slot];
+                if (len == 4 && text.regionMatches(true, starts[slot], "true", 0, 4)) yield true;
+                if (len == 5 && text.regionMatches(true, starts[slot], "false", 0, 5)) yield false;
+                yield defaultValue;
+            }
+            default -> defaultValue;
+        };
+    }
+
+    private static int slotOf(String key) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (KEYS[i] == key || KEYS[i].equals(key)) return i;
+        }
+        throw new IllegalArgumentException("unknown field " + key);
+    }
+
+    private void parseObject() {
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') { pos++; finish(); return; }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            int keyStart = pos;
+            boolean keyEscaped = scanString();
+            int keyEnd = pos - 1;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            int slot = keyEscaped ? -1 : matchKey(keyStart, keyEnd);
+            parseValue(slot);
+            skipWhitespace();
+            char c = next();
+            if (c == ',') continue;
+            if (c == '}') break;
+            throw new IllegalArgumentException("expected , or } at " + (pos - 1));
+        }
+        finish();
+    }
+
+    private void finish() {
+        skipWhitespace();
+        if (pos != text.length()) throw new IllegalArgumentException("trailing data");
+    }
+
+    private int matchKey(int start, int end) {
+        int len = end - start;
+        for (int i = 0; i < KEYS.length; i++) {
+            var key = KEYS[i];
+            if (key.length() == len && text.regionMatches(start, key, 0, len)) return i;
+        }
+        return -1;
+    }
+
+    private void parseValue(int slot) {
+        char c = peek();
+        byte kind;
+        int start = pos;
+        int end;
+        if (c == '"') {
+            pos++;
+            start = pos;
+            kind = scanString() ? ESCAPED_STRING : STRING;
+            end = pos - 1;
+        } else if (c == '{' || c == '[') {
+            skipComposite();
+            kind = COMPOSITE;
+            end = pos;
+        } else if (c == 't') {
+            expectLiteral("true");
+            kind = TRUE;
+            end = pos;
+        } else if (c == 'f') {
+            expectLiteral("false");
+            kind = FALSE;
+            end = pos;
+        } else if (c == 'n') {
+            expectLiteral("null");
+            kind = NULL;
+            end = pos;
+        } else {
+            while (pos < text.length() && isNumberChar(text.charAt(pos))) pos++;
+            if (pos == start) throw new IllegalArgumentException("unexpected character at " + pos);
+            kind = NUMBER;
+            end = pos;
+        }
+        if (slot >= 0) {
+            kinds[slot] = kind;
+            starts[slot] = start;
+            ends[slot] = end;
+        }
+    }
+
+    private boolean scanString() {
+        boolean escaped = false;
+        while (true) {
+            char c = next();
+            if (c == '"') return escaped;
+            if (c == '\\') {
+                escaped = true;
+                next();
+            } else if (c < 0x20) {
+                throw new IllegalArgumentException("control character in string");
+            }
+        }
+    }
+
+    private void skipComposite() {
+        int depth = 0;
+        do {
+            char c = next();
+            if (c == '"') scanString();
+            else if (c == '{' || c == '[') depth++;
+            else if (c == '}' || c == ']') depth--;
+        } while (depth > 0);
+    }
+
+    private void expectLiteral(String literal) {
+        if (!text.startsWith(literal, pos)) throw new IllegalArgumentException("invalid literal at " + pos);
+        pos += literal.length();
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= text.length()) throw new IllegalArgumentException("unexpected end");
+        return text.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) throw new IllegalArgumentException("expected " + expected + " at " + (pos - 1));
+    }
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private long parseLong(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && text.charAt(i) == '-') { negative = true; i++; }
+        if (i == end || end - i > 18) return Long.MIN_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return Long.MIN_VALUE;
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private double parseDouble(int start, int end) {
+        try {
+            return Double.parseDouble(text.substring(start, end).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private UUID parseCanonicalUuid(int start) {
+        if (text.charAt(start + 8) != '-' || text.charAt(start + 13) != '-'
+            || text.charAt(start + 18) != '-' || text.charAt(start + 23) != '-') return null;
+        long msb = 0, lsb = 0;
+        for (int i = 0; i < 36; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) continue;
+            int digit = Character.digit(text.charAt(start + i), 16);
+            if (digit < 0) return null;
+            if (i < 19) msb = (msb << 4) | digit;
+            else lsb = (lsb << 4) | digit;
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private String unescape(int start, int end) {
+        var sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\\') { sb.append(c); continue; }
+            char e = text.charAt(++i);
+            switch (e) {
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    sb.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                default -> sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,70 +1,106 @@
 package net.nando256.twbridge.ws;
 
 import net.nando256.twbridge.TwBridgePlugin;
+import net.nando256.twbridge.agent.AgentInventory;
+import net.nando256.twbridge.agent.AgentRaycaster;
+import net.nando256.twbridge.command.CommandPolicy;
+import net.nando256.twbridge.http.TwHttpServer;
+import net.nando256.twbridge.log.EventLog.Category;
+import net.nando256.twbridge.structure.StructureRegion;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class BridgeServer extends WebSocketServer {
     private final TwBridgePlugin plugin;
-    private final Map<WebSocket, Integer> counters = new ConcurrentHashMap<>();
-    private final Map<WebSocket, Session> sessions = new ConcurrentHashMap<>();
-    private final Map<String, WebSocket> playerBindings = new ConcurrentHashMap<>();
-    private final Timer timer = new Timer(true);
-    private final java.security.SecureRandom rng = new java.security.SecureRandom();
+    private final BridgeState state;
+    private final Map<WebSocket, Integer> counters;
+    private final Map<WebSocket, BridgeState.Session> sessions;
 
     private final boolean pairingRequired;
-    private final int pairWindowSeconds;
     private final int maxMsgPerSec;
     private final int maxMsgBytes;
     private final java.util.Set<String> allowedOrigins;
-
-    private volatile String activePairCode = null;
-    private volatile long pairExpireAt = 0L;
+    private final boolean reusePort;
+    private volatile CachedJson blocksJsonCache;
 
     public BridgeServer(TwBridgePlugin plugin,
+                        BridgeState state,
                         String host, int port,
                         java.util.Set<String> allowedOrigins,
                         int maxMsgPerSec, int maxMsgBytes,
-                        boolean pairingRequired, int pairWindowSeconds) {
-        super(new InetSocketAddress(host, port));
+                        int decoderThreads, boolean reusePort,
+                        TwHttpServer httpFrontend) {
+        super(new InetSocketAddress(host, port),
+            decoderThreads > 0 ? decoderThreads : Runtime.getRuntime().availableProcessors(),
+            httpFrontend == null ? null : List.<Draft>of(new Draft_6455(), new HttpDraft(httpFrontend::respond)));
         this.plugin = plugin;
+        this.state = state;
+        this.counters = state.counters;
+        this.sessions = state.sessions;
         this.allowedOrigins = allowedOrigins;
         this.maxMsgPerSec = maxMsgPerSec;
         this.maxMsgBytes = maxMsgBytes;
-        this.pairingRequired = pairingRequired;
-        this.pairWindowSeconds = pairWindowSeconds;
+        this.pairingRequired = state.pairingRequired();
+        this.reusePort = reusePort;
+    }
 
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override public void run() {
-                counters.replaceAll((k,v) -> 0);
-            }
-        }, 1000, 1000);
+    public static boolean isReusePortSupported() {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) return false;
+        try (var channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-        if (pairingRequired) rotatePairCode();
+    @Override
+    public int getReceiveBufferSize() {
+        // WebSocketServer opens its channel and binds it in one private method; this
+        // getter runs between the two, so it is the only place SO_REUSEPORT can be set.
+        if (reusePort) enableReusePort();
+        return super.getReceiveBufferSize();
     }
 
-    public String rotatePairCode() {
-        if (!pairingRequired) return null;
-        this.activePairCode = String.format("%06d", rng.nextInt(1_000_000));
-        this.pairExpireAt = System.currentTimeMillis() + pairWindowSeconds * 1000L;
-        plugin.getLogger().info("[twbridge] Pairing code: " + activePairCode + " (valid " + pairWindowSeconds + "s)");
-        return activePairCode;
+    private void enableReusePort() {
+        try {
+            var field = WebSocketServer.class.getDeclaredField("server");
+            field.setAccessible(true);
+            if (field.get(this) instanceof ServerSocketChannel channel) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+        } catch (ReflectiveOperationException | IOException | RuntimeException e) {
+            plugin.getLogger().warning("[twbridge] SO_REUSEPORT could not be enabled: " + e.getMessage());
+        }
     }
 
     @Override
     public void onOpen(WebSocket conn, ClientHandshake hs) {
+        if (HttpDraft.isHttp(conn.getDraft())) {
+            // the HTTP response went out as the handshake; close once it is flushed
+            if (conn instanceof WebSocketImpl impl) impl.flushAndClose(1000, "http", false);
+            else conn.close();
+            return;
+        }
         InetAddress addr = conn.getRemoteSocketAddress().getAddress();
         if (addr == null) {
             conn.close(1008, "address unknown");
@@ -75,310 +111,854 @@ public class BridgeServer extends WebSocketServer {
             return;
         }
         plugin.getLogger().info("[twbridge] WS connected: " + conn.getRemoteSocketAddress());
-        plugin.logDebug("Connection opened: " + conn.getRemoteSocketAddress());
+        plugin.events().info(Category.WS, "ws.open", e -> e.field("remote", conn.getRemoteSocketAddress()));
         counters.put(conn, 0);
+        state.traffic.put(conn, new BridgeState.Traffic());
+        if (state.recorder != null) state.recorder.opened(conn, String.valueOf(conn.getRemoteSocketAddress()));
         sendJson(conn, new JSONObject().put("hello", "twbridge").put("pairing", pairingRequired));
+        conn.send(allowanceFrame());
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
         if (message.length() > maxMsgBytes) { conn.close(1009, "msg too large"); return; }
-        counters.compute(conn, (k,v) -> v == null ? 1 : v + 1);
-        if (counters.get(conn) > maxMsgPerSec) { conn.close(1011, "rate limit"); return; }
+        int count = counters.compute(conn, (k,v) -> v == null ? 1 : v + 1);
+        if (count > maxMsgPerSec) { conn.close(1011, "rate limit"); return; }
+        var recorder = state.recorder;
+        if (recorder != null) recorder.inbound(conn, message);
+        var traffic = state.traffic.get(conn);
+        if (traffic != null) traffic.inbound.increment();
+        Consumer<String> out = reply -> {
+            if (recorder != null) recorder.outbound(conn, reply);
+            if (traffic != null) traffic.outbound.increment();
+            conn.send(reply);
+        };
 
         try {
-            var json = new JSONObject(message);
-            var id = UUID.fromString(json.optString("id", UUID.randomUUID().toString()));
-            var cmd = json.optString("cmd", "");
+            var json = BridgeRequest.parse(message);
+            var id = json.id();
 
-            if ("pair.start".equals(cmd)) {
+            if (json.isCmd("pair.start")) {
                 if (sessions.containsKey(conn)) {
-                    err(conn, id, "session already established");
+                    err(out, id, "session already established");
                     return;
                 }
                 var requestedPlayer = json.optString("player", "").trim();
                 if (requestedPlayer.isEmpty()) {
-                    err(conn, id, "player required");
+                    err(out, id, "player required");
                     conn.close(1008, "player required");
                     return;
                 }
                 var resolvedPlayer = plugin.resolveOnlinePlayerName(requestedPlayer);
                 if (resolvedPlayer == null) {
-                    err(conn, id, "player not online");
+                    err(out, id, "player not online");
                     conn.close(1008, "player not online");
                     return;
                 }
                 if (!pairingRequired) {
                     var sessId = UUID.randomUUID().toString();
-                    if (!bindPlayer(resolvedPlayer, conn)) {
-                        err(conn, id, "player already bound");
+                    if (!state.bindPlayer(resolvedPlayer, conn)) {
+                        err(out, id, "player already bound");
                         conn.close(1008, "player already bound");
                         return;
                     }
-                    sessions.put(conn, new Session(sessId, System.currentTimeMillis(), resolvedPlayer));
-                    plugin.logDebug("Session established for " + conn.getRemoteSocketAddress() + " player=" + resolvedPlayer);
-                    ok(conn, id, new JSONObject().put("sessionId", sessId));
+                    sessions.put(conn, new BridgeState.Session(sessId, System.currentTimeMillis(), resolvedPlayer));
+                    plugin.events().info(Category.WS, "ws.session", e -> e.field("remote", conn.getRemoteSocketAddress()).field("player", resolvedPlayer));
+                    out.accept(ReplyWriter.start(id, true).result().field("sessionId", sessId).finish());
                     return;
                 }
                 var code = json.optString("code", "");
                 var now = System.currentTimeMillis();
-                if (!code.equals(activePairCode) || now > pairExpireAt) {
-                    err(conn, id, "invalid or expired code");
+                if (!state.isPairCodeValid(code, now)) {
+                    err(out, id, "invalid or expired code");
                     conn.close(1008, "invalid or expired code");
                     return;
                 }
                 var sessId = UUID.randomUUID().toString();
-                if (!bindPlayer(resolvedPlayer, conn)) {
-                    err(conn, id, "player already bound");
+                if (!state.bindPlayer(resolvedPlayer, conn)) {
+                    err(out, id, "player already bound");
                     conn.close(1008, "player already bound");
                     return;
                 }
-                sessions.put(conn, new Session(sessId, now, resolvedPlayer));
-                activePairCode = null; pairExpireAt = 0L;
-                ok(conn, id, new JSONObject().put("sessionId", sessId));
-                plugin.logDebug("Session established for " + conn.getRemoteSocketAddress() + " player=" + resolvedPlayer);
+                sessions.put(conn, new BridgeState.Session(sessId, now, resolvedPlayer));
+                state.consumePairCode(code);
+                out.accept(ReplyWriter.start(id, true).result().field("sessionId", sessId).finish());
+                plugin.events().info(Category.WS, "ws.session", e -> e.field("remote", conn.getRemoteSocketAddress()).field("player", resolvedPlayer));
+                return;
+            }
+
+            // between the throttled allowance and the hard limit requests are refused, not disconnected
+            if (count > allowance()) {
+                err(out, id, "server busy");
                 return;
             }
 
             if (pairingRequired && !requireActiveSession(conn, json)) {
-                err(conn, id, "not paired");
+                err(out, id, "not paired");
                 conn.close(1008, "pairing required");
                 return;
             }
 
-            if ("command.run".equals(cmd)) {
-                var command = json.optString("command", "").trim();
-                if (command.isEmpty()) { err(conn, id, "command missing"); return; }
-                plugin.logDebug("command.run: " + command);
-                plugin.handleCommand(command,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "command failed" : msg));
+            var session = sessions.get(conn);
+            var player = session == null ? null : session.player();
+            if (json.isCmd("workspace.create") || json.isCmd("workspace.join")
+                || json.isCmd("workspace.leave") || json.isCmd("workspace.close")) {
+                handleWorkspace(conn, out, id, player, json);
                 return;
             }
-
-            if ("agent.teleportToPlayer".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
+            var owner = player;
+            var agentId = json.optString("agentId", "").trim();
+            if (json.has("workspace")) {
+                // shared agents are addressed as the workspace owner's; workspaces are local to this node
+                var workspace = state.workspaces.member(conn, json.optString("workspace", ""));
+                if (workspace == null) {
+                    err(out, id, "not a workspace member");
                     return;
                 }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
+                if (!workspace.agentIds.contains(agentId)) {
+                    err(out, id, "agent not in workspace");
                     return;
                 }
-                plugin.logDebug("agent.teleportToPlayer id=" + agentId + " player=" + owner);
-                plugin.handleAgentTeleportToPlayer(
-                    agentId,
-                    owner,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "teleport failed" : msg)
-                );
-                return;
-            }
-
-            if ("agent.move".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                var direction = json.optString("direction", "forward").trim();
-                double blocks = json.has("blocks") ? json.optDouble("blocks", Double.NaN) : 0.0;
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
+                // the owner's own agents are theirs to drive in full; only members are limited
+                if (!workspace.isOwner(conn) && !allowedInWorkspace(json)) {
+                    err(out, id, "not allowed in workspace");
                     return;
                 }
-                if (!Double.isFinite(blocks)) {
-                    err(conn, id, "blocks must be a number");
-                    return;
-                }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
-                    return;
-                }
-                plugin.logDebug("agent.move id=" + agentId + " player=" + owner + " dir=" + direction + " blocks=" + blocks);
-                plugin.handleAgentMove(
-                    agentId,
-                    owner,
-                    direction,
-                    blocks,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "move failed" : msg)
-                );
-                return;
-            }
-
-            if ("agent.rotate".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                var direction = json.optString("direction", "left").trim();
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
-                    return;
-                }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
-                    return;
-                }
-                plugin.logDebug("agent.rotate id=" + agentId + " player=" + owner + " dir=" + direction);
-                plugin.handleAgentRotate(
-                    agentId,
-                    owner,
-                    direction,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "rotate failed" : msg)
-                );
-                return;
-            }
-
-            if ("agent.slotActivate".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                int slot = json.optInt("slot", -1);
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
-                    return;
-                }
-                if (slot < 1 || slot > 27) {
-                    err(conn, id, "slot must be 1-27");
-                    return;
-                }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
+                owner = workspace.owner;
+            } else if (!json.isCmd("blocks.list") && forwardToOwnerNode(out, id, owner, message)) {
+                return;
+            }
+            if (owner != null && !agentId.isEmpty() && isAgentCommand(json)) {
+                var workspace = state.workspaces.forAgent(TwBridgePlugin.agentMapKey(owner, agentId));
+                if (workspace != null) {
+                    sequence(conn, out, id, owner, player, workspace, agentId, json.optString("cmd", ""), message);
                     return;
                 }
-                plugin.logDebug("agent.slotActivate id=" + agentId + " player=" + owner + " slot=" + slot);
-                plugin.handleAgentSlotActivate(
-                    agentId,
-                    owner,
-                    slot,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "slot activate failed" : msg)
-                );
+            }
+            dispatch(conn, out, id, owner, json);
+        } catch (Exception e) {
+            conn.close(1011, "bad message");
+        }
+    }
+
+    public void dispatchForwarded(String owner, String frame, Consumer<String> out) {
+        var id = UUID.randomUUID();
+        try {
+            var json = BridgeRequest.parse(frame);
+            id = json.id();
+            if (json.isCmd("pair.start")) {
+                err(out, id, "not forwardable");
                 return;
             }
+            dispatch(null, out, id, owner, json);
+        } catch (Exception e) {
+            err(out, id, "bad message");
+        }
+    }
 
-            if ("blocks.list".equals(cmd)) {
-                var array = new JSONArray();
-                plugin.getAvailableBlocks().forEach(block ->
-                    array.put(new JSONObject().put("id", block.id()).put("name", block.name()))
-                );
-                ok(conn, id, new JSONObject().put("blocks", array));
+    // package-private, like dispatch, so tests can route frames without a plugin behind them
+    boolean forwardToOwnerNode(Consumer<String> out, UUID id, String owner, String message) {
+        var cluster = plugin.getCluster();
+        if (cluster == null || owner == null || owner.isBlank()) return false;
+        var node = cluster.route(owner);
+        if (node == null) return false;
+        plugin.events().debug(Category.CLUSTER, "cluster.forward", e -> e.field("player", owner).field("node", node));
+        cluster.forward(node, owner, message, out,
+            (msg) -> err(out, id, msg == null ? "forward failed" : msg));
+        return true;
+    }
+
+    void dispatch(WebSocket conn, Consumer<String> out, UUID id, String owner, BridgeRequest json) {
+        if (owner != null && plugin.isFrozen(owner) && isAgentCommand(json)) {
+            err(out, id, "agents frozen by admin");
+            return;
+        }
+        if (json.isCmd("command.run")) {
+            var command = json.optString("command", "").trim();
+            if (command.isEmpty()) { err(out, id, "command missing"); return; }
+            var policy = plugin.getCommandPolicy();
+            // as the player, feedback goes to their chat and never reaches the reply
+            boolean captured = policy.runAs() != CommandPolicy.RunAs.PLAYER;
+            if (!captured && json.optBoolean("output", false)) {
+                err(out, id, "command output not available with runAs: player");
+                return;
+            }
+            var decision = policy.evaluate(command);
+            if (!decision.allowed()) {
+                err(out, id, "command not allowed: " + decision.label());
+                return;
+            }
+            if (conn != null && decision.cost() > 1 && counters.merge(conn, decision.cost() - 1, Integer::sum) > allowance()) {
+                err(out, id, "rate limit");
                 return;
             }
+            plugin.events().debug(Category.COMMAND, "command.run", e -> e.field("player", owner).field("command", command));
+            plugin.handleCommand(owner, command, decision,
+                (output) -> out.accept(captured
+                    ? ReplyWriter.start(id, true).result()
+                        .field("output", output.lines())
+                        .field("truncated", output.truncated())
+                        .finish()
+                    : ReplyWriter.start(id, true).finish()),
+                (msg) -> err(out, id, msg == null ? "command failed" : msg));
+            return;
+        }
 
-            if ("agent.place".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                var direction = json.optString("direction", "forward").trim();
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
-                    return;
-                }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
-                    return;
-                }
-                plugin.logDebug("agent.place id=" + agentId + " player=" + owner + " dir=" + direction);
-                plugin.handleAgentPlace(
-                    agentId,
-                    owner,
-                    direction,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "place failed" : msg)
-                );
-                return;
-            }
-
-            if ("agent.slotSetBlock".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                var block = json.optString("block", "").trim();
-                int amount = json.optInt("amount", -1);
-                int slot = json.optInt("slot", -1);
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
-                    return;
-                }
-                if (slot < 1 || slot > 27) {
-                    err(conn, id, "slot must be 1-27");
-                    return;
-                }
-                if (amount < 1 || amount > 64) {
-                    err(conn, id, "amount must be 1-64");
-                    return;
-                }
-                if (block.isEmpty()) {
-                    err(conn, id, "block required");
-                    return;
-                }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
-                    return;
-                }
-                plugin.logDebug("agent.slotSetBlock id=" + agentId + " player=" + owner + " slot=" + slot + " block=" + block + " amount=" + amount);
-                plugin.handleAgentSlotAssignBlock(
-                    agentId,
-                    owner,
-                    block,
-                    amount,
-                    slot,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "slot set failed" : msg)
-                );
-                return;
-            }
-
-            if ("agent.despawn".equals(cmd)) {
-                var agentId = json.optString("agentId", "").trim();
-                if (agentId.isEmpty()) {
-                    err(conn, id, "agentId required");
-                    return;
+        if (json.isCmd("agent.teleportToPlayer")) {
+            var agentId = json.optString("agentId", "").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.teleportToPlayer", e -> e.field("agentId", agentId).field("player", owner));
+            plugin.handleAgentTeleportToPlayer(
+                agentId,
+                owner,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "teleport failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.move")) {
+            var agentId = json.optString("agentId", "").trim();
+            var direction = json.optString("direction", "forward").trim();
+            double blocks = json.has("blocks") ? json.optDouble("blocks", Double.NaN) : 0.0;
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (!Double.isFinite(blocks)) {
+                err(out, id, "blocks must be a number");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.move", e -> e.field("agentId", agentId).field("player", owner)
+                .field("direction", direction).field("blocks", blocks));
+            plugin.handleAgentMove(
+                agentId,
+                owner,
+                direction,
+                blocks,
+                (result) -> {
+                    var reply = ReplyWriter.start(id, !result.blocked());
+                    if (result.outOfRange()) reply.error("out of range");
+                    else if (result.blocked()) reply.error("blocked");
+                    out.accept(reply.result()
+                        .field("travelled", result.travelled())
+                        .field("blocked", result.blocked())
+                        .finish());
+                },
+                (msg) -> err(out, id, msg == null ? "move failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.rotate")) {
+            var agentId = json.optString("agentId", "").trim();
+            var direction = json.optString("direction", "left").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.rotate", e -> e.field("agentId", agentId).field("player", owner).field("direction", direction));
+            plugin.handleAgentRotate(
+                agentId,
+                owner,
+                direction,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "rotate failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.slotActivate")) {
+            var agentId = json.optString("agentId", "").trim();
+            int slot = json.optInt("slot", -1);
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (slot < 1 || slot > 27) {
+                err(out, id, "slot must be 1-27");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.slotActivate", e -> e.field("agentId", agentId).field("player", owner).field("slot", slot));
+            plugin.handleAgentSlotActivate(
+                agentId,
+                owner,
+                slot,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "slot activate failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("blocks.list")) {
+            out.accept(ReplyWriter.start(id, true).result().raw("blocks", blocksJson()).finish());
+            return;
+        }
+
+        if (json.isCmd("agent.place")) {
+            var agentId = json.optString("agentId", "").trim();
+            var direction = json.optString("direction", "forward").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.place", e -> e.field("agentId", agentId).field("player", owner).field("direction", direction));
+            plugin.handleAgentPlace(
+                agentId,
+                owner,
+                direction,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "place failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.slotSetBlock")) {
+            var agentId = json.optString("agentId", "").trim();
+            var block = json.optString("block", "").trim();
+            int amount = json.optInt("amount", -1);
+            int slot = json.optInt("slot", -1);
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (slot < 1 || slot > 27) {
+                err(out, id, "slot must be 1-27");
+                return;
+            }
+            if (amount < 1 || amount > 64) {
+                err(out, id, "amount must be 1-64");
+                return;
+            }
+            if (block.isEmpty()) {
+                err(out, id, "block required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.slotSetBlock", e -> e.field("agentId", agentId).field("player", owner)
+                .field("slot", slot).field("block", block).field("amount", amount));
+            plugin.handleAgentSlotAssignBlock(
+                agentId,
+                owner,
+                block,
+                amount,
+                slot,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "slot set failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.slotsSet")) {
+            var agentId = json.optString("agentId", "").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            var raw = json.optRaw("slots");
+            if (raw == null || !raw.startsWith("[")) {
+                err(out, id, "slots must be a list");
+                return;
+            }
+            var stacks = new ArrayList<AgentInventory.Stack>();
+            try {
+                var array = new JSONArray(raw);
+                for (int i = 0; i < array.length(); i++) {
+                    var item = array.optJSONObject(i);
+                    if (item == null) {
+                        err(out, id, "slots must hold {slot, block, amount} objects");
+                        return;
+                    }
+                    stacks.add(new AgentInventory.Stack(item.optInt("slot", -1), item.optString("block", "").trim(), item.optInt("amount", -1)));
                 }
-                var session = sessions.get(conn);
-                var owner = session == null ? null : session.player();
-                if (owner == null || owner.isBlank()) {
-                    err(conn, id, "player not bound");
-                    return;
+            } catch (JSONException e) {
+                err(out, id, "slots must be a list");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.slotsSet", e -> e.field("agentId", agentId).field("player", owner).field("slots", stacks.size()));
+            plugin.handleAgentSlotsSet(
+                agentId,
+                owner,
+                stacks,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "slots set failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.inventory")) {
+            var agentId = json.optString("agentId", "").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.handleAgentInventory(
+                agentId,
+                owner,
+                (snapshot) -> {
+                    var slots = new JSONArray();
+                    for (var stack : snapshot.stacks()) {
+                        slots.put(new JSONObject().put("slot", stack.slot()).put("block", stack.block()).put("amount", stack.amount()));
+                    }
+                    out.accept(ReplyWriter.start(id, true).result()
+                        .field("active", snapshot.activeSlot())
+                        .raw("slots", slots.toString())
+                        .finish());
+                },
+                (msg) -> err(out, id, msg == null ? "inventory failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.chestTake") || json.isCmd("agent.chestPut")) {
+            var agentId = json.optString("agentId", "").trim();
+            var direction = json.optString("direction", "forward").trim();
+            var block = json.optString("block", "").trim();
+            boolean take = json.isCmd("agent.chestTake");
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, take ? "agent.chestTake" : "agent.chestPut", e -> e.field("agentId", agentId).field("player", owner)
+                .field("direction", direction).field("block", block));
+            plugin.handleAgentChestTransfer(
+                agentId,
+                owner,
+                direction,
+                block,
+                take,
+                (moved) -> out.accept(ReplyWriter.start(id, true).result().field("moved", moved).finish()),
+                (msg) -> err(out, id, msg == null ? "chest transfer failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.undo")) {
+            int count = json.optInt("count", 1);
+            if (count < 1) {
+                err(out, id, "count must be at least 1");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.WORLD, "agent.undo", e -> e.field("player", owner).field("count", count));
+            plugin.handleAgentUndo(
+                owner,
+                count,
+                (reverted) -> out.accept(ReplyWriter.start(id, true).result().field("reverted", reverted).finish()),
+                (msg) -> err(out, id, msg == null ? "undo failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("structure.save")) {
+            var agentId = json.optString("agentId", "").trim();
+            var name = json.optString("name", "").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (name.isEmpty()) {
+                err(out, id, "name required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            var region = new StructureRegion(
+                json.optInt("x1", 0), json.optInt("y1", 0), json.optInt("z1", 0),
+                json.optInt("x2", 0), json.optInt("y2", 0), json.optInt("z2", 0)
+            );
+            plugin.events().debug(Category.STRUCTURE, "structure.save", e -> e.field("agentId", agentId).field("player", owner)
+                .field("name", name).field("region", region));
+            plugin.handleStructureSave(
+                agentId,
+                owner,
+                name,
+                region,
+                json.optBoolean("overwrite", false),
+                (encoded) -> out.accept(ReplyWriter.start(id, true).result()
+                    .raw("size", "[" + encoded.sizeX() + "," + encoded.sizeY() + "," + encoded.sizeZ() + "]")
+                    .field("palette", encoded.palette().size())
+                    .field("blocks", encoded.solidBlocks())
+                    .finish()),
+                (msg) -> err(out, id, msg == null ? "save failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("structure.paste")) {
+            var agentId = json.optString("agentId", "").trim();
+            var name = json.optString("name", "").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (name.isEmpty()) {
+                err(out, id, "name required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.STRUCTURE, "structure.paste", e -> e.field("agentId", agentId).field("player", owner).field("name", name));
+            plugin.handleStructurePaste(
+                agentId,
+                owner,
+                name,
+                json.optBoolean("includeAir", false),
+                (placed) -> out.accept(ReplyWriter.start(id, true).result().field("placed", placed).finish()),
+                (msg) -> err(out, id, msg == null ? "paste failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.raycast")) {
+            var agentId = json.optString("agentId", "").trim();
+            int rays = json.optInt("rays", 1);
+            double spread = json.optDouble("spread", 90.0);
+            double distance = json.optDouble("distance", 16.0);
+            double pitch = json.optDouble("pitch", 0.0);
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (rays < 1 || rays > AgentRaycaster.MAX_RAYS) {
+                err(out, id, "rays must be 1-" + AgentRaycaster.MAX_RAYS);
+                return;
+            }
+            if (!Double.isFinite(spread) || spread < 0 || spread > 360) {
+                err(out, id, "spread must be 0-360");
+                return;
+            }
+            if (!Double.isFinite(distance) || distance < 1 || distance > AgentRaycaster.MAX_DISTANCE) {
+                err(out, id, "distance must be 1-" + (int) AgentRaycaster.MAX_DISTANCE);
+                return;
+            }
+            if (!Double.isFinite(pitch) || pitch < -90 || pitch > 90) {
+                err(out, id, "pitch must be -90 to 90");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.raycast", e -> e.field("agentId", agentId).field("player", owner)
+                .field("rays", rays).field("spread", spread).field("distance", distance));
+            plugin.handleAgentRaycast(
+                agentId,
+                owner,
+                rays,
+                spread,
+                distance,
+                pitch,
+                (hits) -> {
+                    var array = new JSONArray();
+                    for (var hit : hits) {
+                        var ray = new JSONObject().put("angle", hit.angle()).put("distance", hit.distance());
+                        if (hit.block() != null) ray.put("block", hit.block());
+                        if (hit.unloaded()) ray.put("unloaded", true);
+                        array.put(ray);
+                    }
+                    out.accept(ReplyWriter.start(id, true).result().raw("rays", array.toString()).finish());
+                },
+                (msg) -> err(out, id, msg == null ? "raycast failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.watch") || json.isCmd("agent.unwatch")) {
+            var agentId = json.optString("agentId", "").trim();
+            boolean watch = json.isCmd("agent.watch");
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            if (conn == null) {
+                err(out, id, "agent.watch is not available across cluster nodes");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, watch ? "agent.watch" : "agent.unwatch", e -> e.field("agentId", agentId).field("player", owner));
+            plugin.handleAgentWatch(
+                conn,
+                conn::send,
+                agentId,
+                owner,
+                watch,
+                (state) -> {
+                    if (state == null) ok(out, id);
+                    else out.accept(ReplyWriter.start(id, true).result().raw("state", state).finish());
+                },
+                (msg) -> err(out, id, msg == null ? "watch failed" : msg)
+            );
+            return;
+        }
+
+        if (json.isCmd("agent.despawn")) {
+            var agentId = json.optString("agentId", "").trim();
+            if (agentId.isEmpty()) {
+                err(out, id, "agentId required");
+                return;
+            }
+            if (owner == null || owner.isBlank()) {
+                err(out, id, "player not bound");
+                return;
+            }
+            plugin.events().debug(Category.AGENT, "agent.despawn", e -> e.field("agentId", agentId).field("player", owner));
+            plugin.handleAgentDespawn(
+                agentId,
+                owner,
+                () -> ok(out, id),
+                (msg) -> err(out, id, msg == null ? "despawn failed" : msg)
+            );
+            return;
+        }
+
+        err(out, id, "unknown cmd: " + json.optString("cmd", ""));
+    }
+
+    // one command per shared agent at a time, across all members; the next starts once the reply is out
+    private void sequence(WebSocket conn, Consumer<String> out, UUID id, String owner, String player,
+                          WorkspaceRegistry.Workspace workspace, String agentId, String cmd, String message) {
+        state.agentSequencer.submit(TwBridgePlugin.agentMapKey(owner, agentId), (seq, done) -> {
+            Consumer<String> sequencedOut = reply -> {
+                out.accept(reply);
+                // broadcast before releasing the agent so members see the commands in sequence order
+                workspace.broadcast("{\"event\":\"workspace.command\",\"workspace\":" + ReplyWriter.quote(workspace.id)
+                    + ",\"agentId\":" + ReplyWriter.quote(agentId) + ",\"seq\":" + seq
+                    + ",\"cmd\":" + ReplyWriter.quote(cmd) + ",\"by\":" + ReplyWriter.quote(player)
+                    + ",\"reply\":" + reply + "}");
+                done.run();
+            };
+            try {
+                // the request reader is per thread and the step may run on another one, so parse again
+                dispatch(conn, sequencedOut, id, owner, BridgeRequest.parse(message));
+            } catch (RuntimeException e) {
+                err(sequencedOut, id, "bad message");
+            }
+        });
+    }
+
+    private void handleWorkspace(WebSocket conn, Consumer<String> out, UUID id, String player, BridgeRequest json) {
+        if (player == null || player.isBlank()) {
+            err(out, id, "player not bound");
+            return;
+        }
+        var workspaces = state.workspaces;
+        if (json.isCmd("workspace.create")) {
+            var raw = json.optRaw("agents");
+            if (raw == null || !raw.startsWith("[")) {
+                err(out, id, "agents must be a list of agent ids");
+                return;
+            }
+            var agentIds = new ArrayList<String>();
+            try {
+                var array = new JSONArray(raw);
+                for (int i = 0; i < array.length(); i++) {
+                    var agentId = array.optString(i, "").trim();
+                    if (agentId.isEmpty()) {
+                        err(out, id, "agent ids must be non-empty");
+                        return;
+                    }
+                    agentIds.add(agentId);
                 }
-                plugin.logDebug("agent.despawn id=" + agentId + " player=" + owner);
-                plugin.handleAgentDespawn(
-                    agentId,
-                    owner,
-                    () -> ok(conn, id, null),
-                    (msg) -> err(conn, id, msg == null ? "despawn failed" : msg)
-                );
+            } catch (JSONException e) {
+                err(out, id, "agents must be a list of agent ids");
+                return;
+            }
+            WorkspaceRegistry.Workspace workspace;
+            try {
+                workspace = workspaces.create(conn, player, agentIds);
+            } catch (IllegalStateException e) {
+                err(out, id, e.getMessage());
                 return;
             }
+            plugin.events().info(Category.WS, "workspace.create", e -> e.field("player", player)
+                .field("workspace", workspace.id).field("agents", workspace.agentIds.size()));
+            watchWorkspace(conn, workspace, true);
+            out.accept(ReplyWriter.start(id, true).result()
+                .field("workspace", workspace.id)
+                .field("code", workspace.code)
+                .field("agents", List.copyOf(workspace.agentIds))
+                .finish());
+            return;
+        }
 
-            err(conn, id, "unknown cmd: " + cmd);
-        } catch (Exception e) {
-            conn.close(1011, "bad message");
+        if (json.isCmd("workspace.join")) {
+            var code = json.optString("code", "").trim();
+            if (code.isEmpty()) {
+                err(out, id, "code required");
+                return;
+            }
+            WorkspaceRegistry.Workspace workspace;
+            try {
+                workspace = workspaces.join(conn, player, code);
+            } catch (IllegalStateException e) {
+                err(out, id, e.getMessage());
+                return;
+            }
+            plugin.events().info(Category.WS, "workspace.join", e -> e.field("player", player).field("workspace", workspace.id));
+            watchWorkspace(conn, workspace, true);
+            out.accept(ReplyWriter.start(id, true).result()
+                .field("workspace", workspace.id)
+                .field("owner", workspace.owner)
+                .field("agents", List.copyOf(workspace.agentIds))
+                .finish());
+            return;
         }
+
+        var workspace = workspaces.member(conn, json.optString("workspace", ""));
+        if (workspace == null) {
+            err(out, id, "not a workspace member");
+            return;
+        }
+        if (json.isCmd("workspace.close") && !workspace.isOwner(conn)) {
+            err(out, id, "only the owner can close the workspace");
+            return;
+        }
+        // the owner leaving would strand the members, so it closes the workspace instead
+        if (workspace.isOwner(conn)) {
+            closeWorkspace(workspace);
+        } else {
+            workspaces.leave(conn, workspace);
+            watchWorkspace(conn, workspace, false);
+            plugin.events().info(Category.WS, "workspace.leave", e -> e.field("player", player).field("workspace", workspace.id));
+        }
+        ok(out, id);
+    }
+
+    private void closeWorkspace(WorkspaceRegistry.Workspace workspace) {
+        workspace.broadcast("{\"event\":\"workspace.closed\",\"workspace\":" + ReplyWriter.quote(workspace.id) + "}");
+        state.workspaces.close(workspace);
+        for (var member : workspace.members.keySet()) {
+            if (!workspace.isOwner(member)) watchWorkspace(member, workspace, false);
+        }
+        plugin.events().info(Category.WS, "workspace.close", e -> e.field("player", workspace.owner).field("workspace", workspace.id));
+    }
+
+    // members get the same agent.state pushes as agent.watch, starting with a full snapshot
+    private void watchWorkspace(WebSocket conn, WorkspaceRegistry.Workspace workspace, boolean watch) {
+        for (var agentId : workspace.agentIds) {
+            plugin.handleAgentWatch(conn, conn::send, agentId, workspace.owner, watch,
+                (snapshot) -> {
+                    if (snapshot != null && conn.isOpen()) conn.send("{\"event\":\"agent.state\",\"agents\":[" + snapshot + "]}");
+                },
+                null);
+        }
+    }
+
+    // Per-agent commands a member may send as the workspace owner. Anything that acts
+    // for the owner as a whole (commands, undo, spawning, structures) stays with them;
+    // the owner's own requests are not limited.
+    private static final Set<String> WORKSPACE_COMMANDS = Set.of(
+        "agent.move", "agent.rotate", "agent.place", "agent.raycast",
+        "agent.slotActivate", "agent.slotSetBlock", "agent.slotsSet", "agent.inventory",
+        "agent.chestTake", "agent.chestPut", "agent.watch", "agent.unwatch");
+
+    static boolean allowedInWorkspace(BridgeRequest json) {
+        return WORKSPACE_COMMANDS.contains(json.optString("cmd", ""));
+    }
+
+    private static boolean isAgentCommand(BridgeRequest json) {
+        var cmd = json.optString("cmd", "");
+        if (cmd.equals("agent.watch") || cmd.equals("agent.unwatch")) return false;
+        return cmd.startsWith("agent.") || cmd.startsWith("structure.");
+    }
+
+    public void pushAllowance() {
+        var frame = allowanceFrame();
+        for (var conn : getConnections()) {
+            if (conn.isOpen() && !HttpDraft.isHttp(conn.getDraft())) conn.send(frame);
+        }
+    }
+
+    private int allowance() {
+        return Math.max(1, (int) (maxMsgPerSec * state.throttle()));
     }
 
-    private boolean requireActiveSession(WebSocket conn, JSONObject json) {
+    private String allowanceFrame() {
+        return "{\"event\":\"bridge.allowance\",\"msgPerSecond\":" + allowance()
+            + ",\"scale\":" + Math.round(state.throttle() * 100) / 100.0
+            + ",\"health\":\"" + state.health() + "\"}";
+    }
+
+    private boolean requireActiveSession(WebSocket conn, BridgeRequest json) {
         if (!pairingRequired) return true;
         var session = sessions.get(conn);
-        return session != null && json.optString("sessionId", "").equals(session.sessionId());
+        return session != null && json.stringEquals("sessionId", session.sessionId());
     }
 
     private void sendJson(WebSocket conn, JSONObject obj) { conn.send(obj.toString()); }
 
-    private void ok(WebSocket conn, UUID id, JSONObject res) {
-        var payload = new JSONObject().put("id", id.toString()).put("ok", true);
-        if (res != null) payload.put("result", res);
-        sendJson(conn, payload);
+    private void ok(Consumer<String> out, UUID id) {
+        out.accept(ReplyWriter.start(id, true).finish());
+    }
+
+    private void err(Consumer<String> out, UUID id, String msg) {
+        out.accept(ReplyWriter.start(id, false).error(msg).finish());
     }
 
-    private void err(WebSocket conn, UUID id, String msg) {
-        sendJson(conn, new JSONObject().put("id", id.toString()).put("ok", false).put("error", msg));
+    private String blocksJson() {
+        var blocks = plugin.getAvailableBlocks();
+        var cached = blocksJsonCache;
+        if (cached != null && cached.source() == blocks) return cached.json();
+        var array = new JSONArray();
+        blocks.forEach(block ->
+            array.put(new JSONObject().put("id", block.id()).put("name", block.name()))
+        );
+        var json = array.toString();
+        blocksJsonCache = new CachedJson(blocks, json);
+        return json;
     }
 
+    private record CachedJson(Object source, String json) {}
+
     private boolean isOriginAllowed(String origin) {
         if (origin == null || origin.isBlank()) return true;
         if (allowedOrigins.isEmpty()) return true;
@@ -388,13 +968,12 @@ public class BridgeServer extends WebSocketServer {
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        if (HttpDraft.isHttp(conn.getDraft())) return;
         plugin.getLogger().info("[twbridge] WS disconnected: " + conn.getRemoteSocketAddress() + " code=" + code + " reason=" + reason);
-        counters.remove(conn);
-        var session = sessions.remove(conn);
-        if (session != null && session.player() != null) {
-            var normalized = session.player().toLowerCase(Locale.ROOT);
-            playerBindings.remove(normalized, conn);
-        }
+        state.release(conn);
+        for (var workspace : state.workspaces.release(conn)) closeWorkspace(workspace);
+        if (state.recorder != null) state.recorder.closed(conn);
+        plugin.releaseAgentWatches(conn);
     }
 
     @Override
@@ -407,15 +986,4 @@ public class BridgeServer extends WebSocketServer {
     public void onStart() {
         plugin.getLogger().info("[twbridge] BridgeServer listening on " + getAddress());
     }
-
-    private boolean bindPlayer(String playerName, WebSocket conn) {
-        var normalized = playerName.toLowerCase(Locale.ROOT);
-        var existing = playerBindings.putIfAbsent(normalized, conn);
-        if (existing != null && existing != conn) {
-            return false;
-        }
-        return true;
-    }
-
-    private record Session(String sessionId, long createdAt, String player) {}
 }
@@ -0,0 +1,161 @@
+package net.nando256.twbridge.ws;
+
+import net.nando256.twbridge.TwBridgePlugin;
+import net.nando256.twbridge.agent.AgentWatchHub;
+import net.nando256.twbridge.command.KeyedSequencer;
+import net.nando256.twbridge.replay.SessionRecorder;
+import org.java_websocket.WebSocket;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class BridgeState {
+    final Map<WebSocket, Integer> counters = new ConcurrentHashMap<>();
+    final Map<WebSocket, Session> sessions = new ConcurrentHashMap<>();
+    final Map<String, WebSocket> playerBindings = new ConcurrentHashMap<>();
+    final Map<WebSocket, Traffic> traffic = new ConcurrentHashMap<>();
+    final SessionRecorder recorder;
+    final WorkspaceRegistry workspaces;
+    final KeyedSequencer agentSequencer;
+    private final TwBridgePlugin plugin;
+    private final Timer timer = new Timer("twbridge-ws-counters", true);
+    private final SecureRandom rng = new SecureRandom();
+    private final boolean pairingRequired;
+    private final int pairWindowSeconds;
+
+    private volatile double throttle = 1.0;
+    private volatile String health = "normal";
+    private volatile String activePairCode = null;
+    private volatile long pairExpireAt = 0L;
+
+    public BridgeState(TwBridgePlugin plugin, boolean pairingRequired, int pairWindowSeconds, SessionRecorder recorder,
+                       int workspaceMaxMembers, int workspaceStallSeconds) {
+        this.plugin = plugin;
+        this.recorder = recorder;
+        this.pairingRequired = pairingRequired;
+        this.pairWindowSeconds = pairWindowSeconds;
+        // members auto-watch every shared agent, so a workspace never holds more than one connection can watch
+        this.workspaces = new WorkspaceRegistry(workspaceMaxMembers, AgentWatchHub.MAX_WATCHES_PER_CONNECTION);
+        this.agentSequencer = new KeyedSequencer(Math.max(1, workspaceStallSeconds) * 1000L);
+
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override public void run() {
+                counters.replaceAll((k,v) -> 0);
+                int released = agentSequencer.releaseStalled();
+                if (released > 0) plugin.getLogger().warning("[twbridge] Released " + released + " stalled workspace command(s)");
+            }
+        }, 1000, 1000);
+
+        if (pairingRequired) rotatePairCode();
+    }
+
+    public boolean pairingRequired() {
+        return pairingRequired;
+    }
+
+    public synchronized String rotatePairCode() {
+        if (!pairingRequired) return null;
+        this.activePairCode = String.format("%06d", rng.nextInt(1_000_000));
+        this.pairExpireAt = System.currentTimeMillis() + pairWindowSeconds * 1000L;
+        plugin.getLogger().info("[twbridge] Pairing code: " + activePairCode + " (valid " + pairWindowSeconds + "s)");
+        return activePairCode;
+    }
+
+    boolean isPairCodeValid(String code, long now) {
+        return code.equals(activePairCode) && now <= pairExpireAt;
+    }
+
+    synchronized void consumePairCode(String code) {
+        if (code.equals(activePairCode)) {
+            activePairCode = null;
+            pairExpireAt = 0L;
+        }
+    }
+
+    boolean bindPlayer(String playerName, WebSocket conn) {
+        var normalized = playerName.toLowerCase(Locale.ROOT);
+        var existing = playerBindings.putIfAbsent(normalized, conn);
+        return existing == null || existing == conn;
+    }
+
+    void release(WebSocket conn) {
+        counters.remove(conn);
+        traffic.remove(conn);
+        var session = sessions.remove(conn);
+        if (session != null && session.player() != null) {
+            var normalized = session.player().toLowerCase(Locale.ROOT);
+            playerBindings.remove(normalized, conn);
+        }
+    }
+
+    public void throttle(double scale, String health) {
+        this.throttle = Math.max(0.0, Math.min(scale, 1.0));
+        this.health = health;
+    }
+
+    double throttle() {
+        return throttle;
+    }
+
+    String health() {
+        return health;
+    }
+
+    public WorkspaceRegistry workspaces() {
+        return workspaces;
+    }
+
+    public int activeSequences() {
+        return agentSequencer.activeKeys();
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    public List<ConnectionInfo> connections() {
+        var out = new ArrayList<ConnectionInfo>(traffic.size());
+        traffic.forEach((conn, counts) -> {
+            var session = sessions.get(conn);
+            out.add(new ConnectionInfo(connectionId(conn, session), String.valueOf(conn.getRemoteSocketAddress()),
+                session == null ? null : session.player(), counts.openedAt,
+                counts.inbound.sum(), counts.outbound.sum()));
+        });
+        return out;
+    }
+
+    public boolean kick(String connectionId) {
+        for (var conn : traffic.keySet()) {
+            if (!connectionId.equals(connectionId(conn, sessions.get(conn)))) continue;
+            conn.close(1008, "kicked by admin");
+            return true;
+        }
+        return false;
+    }
+
+    // unpaired connections have no session id yet, so they are addressed by their remote address
+    private static String connectionId(WebSocket conn, Session session) {
+        return session != null ? session.sessionId() : String.valueOf(conn.getRemoteSocketAddress());
+    }
+
+    public void close() {
+        timer.cancel();
+    }
+
+    record Session(String sessionId, long createdAt, String player) {}
+
+    public record ConnectionInfo(String id, String remote, String player, long openedAt, long inbound, long outbound) {}
+
+    static final class Traffic {
+        final long openedAt = System.currentTimeMillis();
+        final LongAdder inbound = new LongAdder();
+        final LongAdder outbound = new LongAdder();
+    }
+}
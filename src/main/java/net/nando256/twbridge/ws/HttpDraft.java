@@ -0,0 +1,99 @@
+package net.nando256.twbridge.ws;
+
+import net.nando256.twbridge.http.HttpReply;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.HandshakeState;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.HandshakeBuilder;
+import org.java_websocket.handshake.Handshakedata;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+// Lets the WebSocket listener answer plain HTTP GETs: Java-WebSocket hands every
+// request that no WebSocket draft accepts to the next draft, so this one matches
+// non-upgrade requests and writes an ordinary HTTP response as its "handshake".
+final class HttpDraft extends Draft_6455 {
+    interface Responder {
+        HttpReply respond(String method, URI uri, String ifNoneMatch);
+    }
+
+    private final Responder responder;
+
+    HttpDraft(Responder responder) {
+        this.responder = responder;
+    }
+
+    @Override
+    public HandshakeState acceptHandshakeAsServer(ClientHandshake handshake) {
+        var upgrade = handshake.getFieldValue("Upgrade");
+        return upgrade == null || upgrade.isBlank() ? HandshakeState.MATCHED : HandshakeState.NOT_MATCHED;
+    }
+
+    @Override
+    public HandshakeBuilder postProcessHandshakeResponseAsServer(ClientHandshake request, ServerHandshakeBuilder response) {
+        URI uri;
+        try {
+            uri = URI.create(request.getResourceDescriptor());
+        } catch (IllegalArgumentException e) {
+            uri = URI.create("/");
+        }
+        var ifNoneMatch = request.hasFieldValue("If-None-Match") ? request.getFieldValue("If-None-Match") : null;
+        var reply = responder.respond("GET", uri, ifNoneMatch);
+        response.setHttpStatus((short) reply.status());
+        response.setHttpStatusMessage(reasonPhrase(reply.status()));
+        reply.headers().forEach(response::put);
+        var body = reply.body() == null ? new byte[0] : reply.body();
+        response.put("Content-Length", Integer.toString(body.length));
+        response.put("Connection", "close");
+        response.setContent(body);
+        return response;
+    }
+
+    @Override
+    public List<ByteBuffer> createHandshake(Handshakedata handshake, boolean withContent) {
+        var sb = new StringBuilder(256);
+        if (handshake instanceof ServerHandshake server) {
+            sb.append("HTTP/1.1 ").append(server.getHttpStatus()).append(' ').append(server.getHttpStatusMessage());
+        }
+        sb.append("\r\n");
+        for (Iterator<String> it = handshake.iterateHttpFields(); it.hasNext(); ) {
+            var name = it.next();
+            sb.append(name).append(": ").append(handshake.getFieldValue(name)).append("\r\n");
+        }
+        sb.append("\r\n");
+        var head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        var content = withContent ? handshake.getContent() : null;
+        var buffer = ByteBuffer.allocate(head.length + (content == null ? 0 : content.length));
+        buffer.put(head);
+        if (content != null) buffer.put(content);
+        buffer.flip();
+        return List.of(buffer);
+    }
+
+    @Override
+    public Draft copyInstance() {
+        return new HttpDraft(responder);
+    }
+
+    static boolean isHttp(Draft draft) {
+        return draft instanceof HttpDraft;
+    }
+
+    private static String reasonPhrase(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 204 -> "No Content";
+            case 302 -> "Found";
+            case 304 -> "Not Modified";
+            case 404 -> "Not Found";
+            default -> "Status " + status;
+        };
+    }
+}
@@ -0,0 +1,144 @@
+package net.nando256.twbridge.ws;
+
+import java.util.UUID;
+
+// Per-thread reply builder; finish() must be called before the next start() on the same thread.
+final class ReplyWriter {
+    private static final ThreadLocal<ReplyWriter> SCRATCH = ThreadLocal.withInitial(ReplyWriter::new);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private StringBuilder sb = new StringBuilder(256);
+    private boolean inResult;
+    private boolean firstField;
+
+    private ReplyWriter() {}
+
+    static ReplyWriter start(UUID id, boolean ok) {
+        var writer = SCRATCH.get();
+        if (writer.sb.capacity() > MAX_RETAINED_CAPACITY) writer.sb = new StringBuilder(256);
+        writer.sb.setLength(0);
+        writer.inResult = false;
+        writer.sb.append("{\"id\":\"");
+        writer.appendUuid(id);
+        writer.sb.append("\",\"ok\":").append(ok);
+        return writer;
+    }
+
+    ReplyWriter error(String message) {
+        sb.append(",\"error\":");
+        appendString(message);
+        return this;
+    }
+
+    ReplyWriter result() {
+        sb.append(",\"result\":{");
+        inResult = true;
+        firstField = true;
+        return this;
+    }
+
+    ReplyWriter field(String key, long value) {
+        key(key);
+        sb.append(value);
+        return this;
+    }
+
+    ReplyWriter field(String key, double value) {
+        key(key);
+        if (Double.isFinite(value)) sb.append(value);
+        else sb.append("null");
+        return this;
+    }
+
+    ReplyWriter field(String key, boolean value) {
+        key(key);
+        sb.append(value);
+        return this;
+    }
+
+    ReplyWriter field(String key, String value) {
+        key(key);
+        if (value == null) sb.append("null");
+        else appendString(value);
+        return this;
+    }
+
+    ReplyWriter field(String key, java.util.List<String> values) {
+        key(key);
+        sb.append('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) sb.append(',');
+            appendString(values.get(i));
+        }
+        sb.append(']');
+        return this;
+    }
+
+    ReplyWriter raw(String key, String json) {
+        key(key);
+        sb.append(json);
+        return this;
+    }
+
+    String finish() {
+        if (inResult) sb.append('}');
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private void key(String key) {
+        if (!firstField) sb.append(',');
+        firstField = false;
+        appendString(key);
+        sb.append(':');
+    }
+
+    private void appendUuid(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        appendHex(msb >>> 32, 8);
+        sb.append('-');
+        appendHex(msb >>> 16, 4);
+        sb.append('-');
+        appendHex(msb, 4);
+        sb.append('-');
+        appendHex(lsb >>> 48, 4);
+        sb.append('-');
+        appendHex(lsb, 12);
+    }
+
+    private void appendHex(long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            sb.append(HEX[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    void appendString(String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    static String quote(String value) {
+        var writer = new ReplyWriter();
+        writer.appendString(value);
+        return writer.sb.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package net.nando256.twbridge.ws;
+
+import net.nando256.twbridge.TwBridgePlugin;
+import org.java_websocket.WebSocket;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Shared control of a set of agents: the owner opens a workspace over some of
+// their agents and hands out a join code; every member may then drive those
+// agents. Agents stay keyed by their owner, so a workspace only changes who
+// may address them, and each agent belongs to at most one workspace.
+public final class WorkspaceRegistry {
+    private final Map<String, Workspace> byId = new ConcurrentHashMap<>();
+    private final Map<String, Workspace> byCode = new ConcurrentHashMap<>();
+    private final Map<String, Workspace> byAgent = new ConcurrentHashMap<>();
+    private final Map<WebSocket, Set<Workspace>> memberships = new ConcurrentHashMap<>();
+    private final SecureRandom rng = new SecureRandom();
+    private final int maxMembers;
+    private final int maxAgents;
+
+    public WorkspaceRegistry(int maxMembers, int maxAgents) {
+        this.maxMembers = Math.max(2, maxMembers);
+        this.maxAgents = Math.max(1, maxAgents);
+    }
+
+    Workspace create(WebSocket conn, String owner, List<String> agentIds) {
+        if (agentIds.isEmpty()) throw new IllegalStateException("agents required");
+        if (agentIds.size() > maxAgents) throw new IllegalStateException("too many agents (max " + maxAgents + ")");
+        var workspace = new Workspace(UUID.randomUUID().toString(), conn, owner, Set.copyOf(agentIds));
+        var claimed = new ArrayList<String>(agentIds.size());
+        for (var agentId : workspace.agentIds) {
+            var agentKey = TwBridgePlugin.agentMapKey(owner, agentId);
+            if (byAgent.putIfAbsent(agentKey, workspace) != null) {
+                claimed.forEach(key -> byAgent.remove(key, workspace));
+                throw new IllegalStateException("agent " + agentId + " is already shared");
+            }
+            claimed.add(agentKey);
+        }
+        String code;
+        do {
+            code = String.format(Locale.ROOT, "%06d", rng.nextInt(1_000_000));
+        } while (byCode.putIfAbsent(code, workspace) != null);
+        workspace.code = code;
+        byId.put(workspace.id, workspace);
+        workspace.members.put(conn, owner);
+        memberships.computeIfAbsent(conn, k -> ConcurrentHashMap.newKeySet()).add(workspace);
+        return workspace;
+    }
+
+    Workspace join(WebSocket conn, String player, String code) {
+        var workspace = byCode.get(code);
+        if (workspace == null) throw new IllegalStateException("unknown workspace code");
+        if (!workspace.members.containsKey(conn) && workspace.members.size() >= maxMembers) {
+            throw new IllegalStateException("workspace full (max " + maxMembers + ")");
+        }
+        workspace.members.put(conn, player);
+        memberships.computeIfAbsent(conn, k -> ConcurrentHashMap.newKeySet()).add(workspace);
+        // closed while we were joining: undo so the connection does not keep a dead membership
+        if (!byId.containsKey(workspace.id)) {
+            leave(conn, workspace);
+            throw new IllegalStateException("unknown workspace code");
+        }
+        return workspace;
+    }
+
+    Workspace member(WebSocket conn, String workspaceId) {
+        var workspace = byId.get(workspaceId);
+        return workspace != null && workspace.members.containsKey(conn) ? workspace : null;
+    }
+
+    Workspace forAgent(String agentKey) {
+        return byAgent.get(agentKey);
+    }
+
+    void leave(WebSocket conn, Workspace workspace) {
+        workspace.members.remove(conn);
+        var joined = memberships.get(conn);
+        if (joined != null) joined.remove(workspace);
+    }
+
+    void close(Workspace workspace) {
+        if (byId.remove(workspace.id) == null) return;
+        byCode.remove(workspace.code, workspace);
+        for (var agentId : workspace.agentIds) byAgent.remove(TwBridgePlugin.agentMapKey(workspace.owner, agentId), workspace);
+        for (var conn : workspace.members.keySet()) {
+            var joined = memberships.get(conn);
+            if (joined != null) joined.remove(workspace);
+        }
+    }
+
+    // returns the workspaces that closed because their owner's connection went away
+    List<Workspace> release(WebSocket conn) {
+        var joined = memberships.remove(conn);
+        if (joined == null) return List.of();
+        var closed = new ArrayList<Workspace>();
+        for (var workspace : joined) {
+            if (workspace.isOwner(conn)) {
+                close(workspace);
+                closed.add(workspace);
+            }
+            workspace.members.remove(conn);
+        }
+        return closed;
+    }
+
+    public int count() {
+        return byId.size();
+    }
+
+    public int memberCount() {
+        return memberships.size();
+    }
+
+    static final class Workspace {
+        final String id;
+        final String owner;
+        final Set<String> agentIds;
+        final Map<WebSocket, String> members = new ConcurrentHashMap<>();
+        private final WebSocket ownerConn;
+        volatile String code;
+
+        Workspace(String id, WebSocket ownerConn, String owner, Set<String> agentIds) {
+            this.id = id;
+            this.ownerConn = ownerConn;
+            this.owner = owner;
+            this.agentIds = agentIds;
+        }
+
+        boolean isOwner(WebSocket conn) {
+            return ownerConn == conn;
+        }
+
+        void broadcast(String frame) {
+            for (var conn : members.keySet()) {
+                if (conn.isOpen()) conn.send(frame);
+            }
+        }
+    }
+}
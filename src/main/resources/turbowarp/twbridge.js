@@ -19,6 +19,7 @@
       blockIsConnected: 'connected?',
       blockCurrentPlayer: 'connected player',
       blockRunCommand: 'execute [CMD]',
+      blockCommandOutput: 'output of [CMD]',
       blockTeleport: 'teleport agent [ID] to my player',
       blockDespawn: 'despawn agent [ID]',
       blockMove: 'move agent [ID] [DIRECTION] [BLOCKS] blocks',
@@ -26,6 +27,38 @@
       blockSlotActivate: 'activate agent [ID] slot [SLOT]',
       blockSlotSet: 'set agent [ID] slot [SLOT] to [BLOCK] x [COUNT]',
       blockPlace: 'place from agent [ID] toward [DIR]',
+      blockStructureSave: 'save structure [NAME] from agent [ID] offset [X1] [Y1] [Z1] to [X2] [Y2] [Z2] [MODE]',
+      saveKeep: 'unless it exists',
+      saveReplace: 'replacing it',
+      blockStructurePaste: 'paste structure [NAME] at agent [ID]',
+      blockUndo: 'undo last [COUNT] agent block changes',
+      blockWatch: 'watch agent [ID]',
+      blockUnwatch: 'stop watching agent [ID]',
+      blockAgentState: 'agent [ID] [PROPERTY]',
+      blockRaycast: 'scan with agent [ID]: [RAYS] rays across [SPREAD]° up to [DISTANCE] blocks',
+      blockRayResult: 'ray [N] [RAYPROP] of agent [ID] scan',
+      blockShareAgents: 'share agents [IDS] with a workspace',
+      blockJoinWorkspace: 'join workspace with code [CODE]',
+      blockLeaveWorkspace: 'leave workspace',
+      blockWorkspaceCode: 'workspace join code',
+      blockSlotsSet: 'fill agent [ID] slots with [ITEMS]',
+      blockReadInventory: 'read inventory of agent [ID]',
+      blockInventorySlot: 'agent [ID] slot [SLOT] [SLOTPROP]',
+      blockChestTake: 'agent [ID] takes blocks from chest [DIR]',
+      blockChestPut: 'agent [ID] puts blocks into chest [DIR]',
+      slotBlock: 'block',
+      slotAmount: 'amount',
+      rayBlock: 'block',
+      rayDistance: 'distance',
+      rayAngle: 'angle',
+      propX: 'x',
+      propY: 'y',
+      propZ: 'z',
+      propYaw: 'facing',
+      propHeld: 'held block',
+      propCount: 'held count',
+      propSlot: 'active slot',
+      propPresent: 'exists?',
       dirForward: 'forward',
       dirBack: 'back',
       dirRight: 'right',
@@ -42,6 +75,7 @@
       blockIsConnected: '接続中？',
       blockCurrentPlayer: '接続中のプレイヤー',
       blockRunCommand: 'コマンド [CMD] を実行',
+      blockCommandOutput: 'コマンド [CMD] の結果',
       blockTeleport: 'エージェント [ID] を自分のプレイヤーへテレポート',
       blockDespawn: 'エージェント [ID] を消す',
       blockMove: 'エージェント [ID] を [DIRECTION] に [BLOCKS] ブロック移動',
@@ -49,6 +83,38 @@
       blockSlotActivate: 'エージェント [ID] のスロット [SLOT] を有効にする',
       blockSlotSet: 'エージェント [ID] のスロット [SLOT] に [BLOCK] を [COUNT] 個セット',
       blockPlace: 'エージェント [ID] に [DIR] へ置かせる',
+      blockStructureSave: '構造物 [NAME] をエージェント [ID] から [X1] [Y1] [Z1] ～ [X2] [Y2] [Z2] の範囲で保存 [MODE]',
+      saveKeep: '（あれば保存しない）',
+      saveReplace: '（上書きする）',
+      blockStructurePaste: '構造物 [NAME] をエージェント [ID] の位置に貼り付け',
+      blockUndo: 'エージェントのブロック変更を [COUNT] 個取り消す',
+      blockWatch: 'エージェント [ID] を見守る',
+      blockUnwatch: 'エージェント [ID] の見守りをやめる',
+      blockAgentState: 'エージェント [ID] の [PROPERTY]',
+      blockRaycast: 'エージェント [ID] で [SPREAD]° の範囲に [RAYS] 本、[DISTANCE] ブロック先まで調べる',
+      blockRayResult: 'エージェント [ID] の調査 [N] 本目の [RAYPROP]',
+      blockShareAgents: 'エージェント [IDS] をワークスペースで共有する',
+      blockJoinWorkspace: 'コード [CODE] でワークスペースに参加',
+      blockLeaveWorkspace: 'ワークスペースから抜ける',
+      blockWorkspaceCode: 'ワークスペースの参加コード',
+      blockSlotsSet: 'エージェント [ID] のスロットに [ITEMS] を入れる',
+      blockReadInventory: 'エージェント [ID] の持ち物を調べる',
+      blockInventorySlot: 'エージェント [ID] のスロット [SLOT] の [SLOTPROP]',
+      blockChestTake: 'エージェント [ID] が [DIR] のチェストからブロックを取る',
+      blockChestPut: 'エージェント [ID] が [DIR] のチェストにブロックを入れる',
+      slotBlock: 'ブロック',
+      slotAmount: '個数',
+      rayBlock: 'ブロック',
+      rayDistance: '距離',
+      rayAngle: '角度',
+      propX: 'x座標',
+      propY: 'y座標',
+      propZ: 'z座標',
+      propYaw: '向き',
+      propHeld: '持っているブロック',
+      propCount: '持っている数',
+      propSlot: '有効なスロット',
+      propPresent: 'いる？',
       dirForward: '前',
       dirBack: '後ろ',
       dirRight: '右',
@@ -92,6 +158,12 @@
         ];
       };
       this.waiters = new Map();
+      this.allowance = { msgPerSecond: 0, scale: 1 };
+      this.nextSendAt = 0;
+      this.agentStates = new Map();
+      this.agentScans = new Map();
+      this.agentInventories = new Map();
+      this.workspace = null;
       this.opening = false;
       this.connected = false;
     }
@@ -117,6 +189,19 @@
       this.ws.onmessage = ev => {
         try {
           const msg = JSON.parse(ev.data);
+          if (msg.event === 'bridge.allowance') {
+            this.allowance = { msgPerSecond: Number(msg.msgPerSecond) || 0, scale: Number(msg.scale) || 1 };
+            return;
+          }
+          if (msg.event === 'agent.state' && Array.isArray(msg.agents)) {
+            msg.agents.forEach(delta => this._applyAgentState(delta));
+            return;
+          }
+          if (msg.event === 'workspace.closed') {
+            if (this.workspace && this.workspace.id === msg.workspace) this._dropWorkspace();
+            return;
+          }
+          if (msg.event === 'workspace.command') return;
           if (msg.id && this.waiters.has(msg.id)) {
             const { resolve, reject } = this.waiters.get(msg.id);
             this.waiters.delete(msg.id);
@@ -124,7 +209,7 @@
           }
         } catch {}
       };
-      this.ws.onclose = () => { this.sessionId = null; this.boundPlayer = null; this.connected = false; };
+      this.ws.onclose = () => { this.nextSendAt = 0; this.allowance = { msgPerSecond: 0, scale: 1 }; this.sessionId = null; this.boundPlayer = null; this.connected = false; this.agentStates.clear(); this.agentScans.clear(); this.agentInventories.clear(); this.workspace = null; };
       await new Promise((resolve, reject) => {
         this.ws.onopen = () => resolve();
         this.ws.onerror = () => { this.connected = false; reject(new Error('ws open failed')); };
@@ -134,14 +219,28 @@
       this.opening = false;
     }
 
-    _send(payload) {
+    _send(payload, timeoutMs = 5000) {
+      // space requests out to the allowance the server pushed, and give a throttled
+      // server proportionally longer to answer
+      const { msgPerSecond, scale } = this.allowance;
+      const now = Date.now();
+      const sendAt = Math.max(now, this.nextSendAt);
+      this.nextSendAt = sendAt + (msgPerSecond > 0 ? 1000 / msgPerSecond : 0);
+      const waitMs = Math.round(timeoutMs / Math.max(0.2, Math.min(scale, 1)));
       return new Promise((resolve, reject) => {
         const id = this._uuid();
-        this.waiters.set(id, { resolve, reject });
-        this.ws.send(JSON.stringify({ id, sessionId: this.sessionId, ...payload }));
-        setTimeout(() => {
-          if (this.waiters.has(id)) { this.waiters.delete(id); reject('timeout'); }
-        }, 5000);
+        const dispatch = () => {
+          if (!this.ws || this.ws.readyState !== WebSocket.OPEN) { reject('disconnected'); return; }
+          this.waiters.set(id, { resolve, reject });
+          // members reach shared agents through the workspace; the owner addresses them directly
+          const shared = this.workspace && !this.workspace.owned && payload.agentId && this.workspace.agents.includes(payload.agentId);
+          this.ws.send(JSON.stringify({ id, sessionId: this.sessionId, ...(shared ? { workspace: this.workspace.id } : {}), ...payload }));
+          setTimeout(() => {
+            if (this.waiters.has(id)) { this.waiters.delete(id); reject('timeout'); }
+          }, waitMs);
+        };
+        if (sendAt > now) setTimeout(dispatch, sendAt - now);
+        else dispatch();
       });
     }
 
@@ -195,12 +294,13 @@
         .filter(Boolean);
     }
 
-    async runCommand(command) {
+    // wantOutput: fail instead of returning nothing when the server runs commands as the player
+    async runCommand(command, wantOutput) {
       if (!this.sessionId) throw new Error('not connected');
       const cmd = String(command || '').trim();
       if (!cmd) throw new Error('command required');
       if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
-      return this._send({ cmd: 'command.run', command: cmd });
+      return this._send(wantOutput ? { cmd: 'command.run', command: cmd, output: true } : { cmd: 'command.run', command: cmd });
     }
 
     async teleportAgent(agentId) {
@@ -232,7 +332,7 @@
       if (!Number.isFinite(stepsRaw)) throw new Error('blocks must be a number');
       const steps = Math.max(1, Math.min(Math.round(Math.abs(stepsRaw)), 64));
       if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
-      return this._send({ cmd: 'agent.move', agentId: id, direction: dir, blocks: steps });
+      return this._send({ cmd: 'agent.move', agentId: id, direction: dir, blocks: steps }, 5000 + steps * 200);
     }
 
     async rotateAgent(agentId, turn) {
@@ -282,6 +382,196 @@
       if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
       return this._send({ cmd: 'agent.place', agentId: id, direction });
     }
+
+    async saveStructure(agentId, name, from, to, overwrite = false) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      const structure = String(name || '').trim();
+      if (!id) throw new Error('agent id required');
+      if (!structure) throw new Error('name required');
+      const [x1, y1, z1] = from.map(v => Math.round(Number(v) || 0));
+      const [x2, y2, z2] = to.map(v => Math.round(Number(v) || 0));
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      return this._send({ cmd: 'structure.save', agentId: id, name: structure, x1, y1, z1, x2, y2, z2, overwrite: overwrite === true }, 30000);
+    }
+
+    async pasteStructure(agentId, name) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      const structure = String(name || '').trim();
+      if (!id) throw new Error('agent id required');
+      if (!structure) throw new Error('name required');
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      return this._send({ cmd: 'structure.paste', agentId: id, name: structure }, 60000);
+    }
+
+    // "stone 64, dirt 32" fills slots 1, 2, ... in one request; a missing amount means a full stack
+    async setAgentSlots(agentId, items) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      if (!id) throw new Error('agent id required');
+      const slots = String(items || '').split(',').map(s => s.trim()).filter(Boolean).map((entry, i) => {
+        const [, block, amount] = entry.match(/^(.*?)(?:\s+(\d+))?$/);
+        return { slot: i + 1, block, amount: amount === undefined ? 64 : Number(amount) };
+      });
+      if (slots.length === 0) throw new Error('items required');
+      if (slots.length > 27) throw new Error('at most 27 slots');
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      return this._send({ cmd: 'agent.slotsSet', agentId: id, slots });
+    }
+
+    async readInventory(agentId) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      if (!id) throw new Error('agent id required');
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      const res = await this._send({ cmd: 'agent.inventory', agentId: id });
+      this.agentInventories.set(this._agentKey(this._ownerOf(id), id), Array.isArray(res.slots) ? res.slots : []);
+      return res;
+    }
+
+    inventorySlot(agentId, slot, property) {
+      const id = String(agentId || '').trim();
+      const slots = this.agentInventories.get(this._agentKey(this._ownerOf(id), id));
+      const entry = slots && slots.find(s => s.slot === Math.round(Number(slot)));
+      if (!entry) return property === 'amount' ? 0 : '';
+      return entry[property] === undefined ? '' : entry[property];
+    }
+
+    async chestTransfer(agentId, dir, take) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      if (!id) throw new Error('agent id required');
+      const direction = String(dir || 'forward').trim().toLowerCase();
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      return this._send({ cmd: take ? 'agent.chestTake' : 'agent.chestPut', agentId: id, direction });
+    }
+
+    async undo(count) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const n = Number(count);
+      if (!Number.isInteger(n) || n < 1) throw new Error('count must be at least 1');
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      return this._send({ cmd: 'agent.undo', count: n }, 30000);
+    }
+
+    async watchAgent(agentId, watch) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      if (!id) throw new Error('agent id required');
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      const res = await this._send({ cmd: watch ? 'agent.watch' : 'agent.unwatch', agentId: id });
+      const key = this._agentKey(this._ownerOf(id), id);
+      if (watch && res && res.state) {
+        this.agentStates.delete(key);
+        this._applyAgentState(res.state);
+      } else if (!watch) {
+        this.agentStates.delete(key);
+      }
+      return res;
+    }
+
+    async shareAgents(agentIds) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const agents = String(agentIds || '').split(',').map(id => id.trim()).filter(Boolean);
+      if (agents.length === 0) throw new Error('agent id required');
+      if (this.workspace) await this.leaveWorkspace();
+      const res = await this._send({ cmd: 'workspace.create', agents });
+      this.workspace = { id: res.workspace, code: res.code, agents: res.agents || agents, owned: true };
+      return res;
+    }
+
+    async joinWorkspace(code) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const joinCode = String(code || '').trim();
+      if (!joinCode) throw new Error('code required');
+      if (this.workspace) await this.leaveWorkspace();
+      const res = await this._send({ cmd: 'workspace.join', code: joinCode });
+      this.workspace = { id: res.workspace, code: joinCode, agents: res.agents || [], owner: res.owner };
+      return res;
+    }
+
+    async leaveWorkspace() {
+      const workspace = this._dropWorkspace();
+      if (!workspace) return;
+      return this._send({ cmd: 'workspace.leave', workspace: workspace.id });
+    }
+
+    // forgets a joined workspace's shared agents; the owner's own agents keep their state
+    _dropWorkspace() {
+      const workspace = this.workspace;
+      if (!workspace) return null;
+      this.workspace = null;
+      if (!workspace.owned) {
+        workspace.agents.forEach(id => {
+          const key = this._agentKey(workspace.owner, id);
+          this.agentStates.delete(key);
+          this.agentScans.delete(key);
+          this.agentInventories.delete(key);
+        });
+      }
+      return workspace;
+    }
+
+    // agent ids are only unique per owner, so cached agent data is keyed by both
+    _agentKey(owner, agentId) {
+      return `${String(owner || '').toLowerCase()}/${agentId}`;
+    }
+
+    // whose agent a block's id names: the shared one while in someone else's workspace, else our own
+    _ownerOf(agentId) {
+      const shared = this.workspace && !this.workspace.owned && this.workspace.agents.includes(agentId);
+      return shared ? this.workspace.owner : this.boundPlayer;
+    }
+
+    async raycast(agentId, rays, spread, distance) {
+      if (!this.sessionId) throw new Error('not connected');
+      if (!this.boundPlayer) throw new Error('player not bound');
+      const id = String(agentId || '').trim();
+      const count = Math.round(Number(rays));
+      const dist = Number(distance);
+      if (!id) throw new Error('agent id required');
+      if (!Number.isInteger(count) || count < 1 || count > 16) throw new Error('rays must be 1-16');
+      if (!Number.isFinite(dist) || dist < 1 || dist > 32) throw new Error('distance must be 1-32');
+      if (!this.ws || this.ws.readyState !== WebSocket.OPEN) await this._ensureWS();
+      const res = await this._send({ cmd: 'agent.raycast', agentId: id, rays: count, spread: Number(spread) || 0, distance: dist });
+      this.agentScans.set(this._agentKey(this._ownerOf(id), id), Array.isArray(res && res.rays) ? res.rays : []);
+      return res;
+    }
+
+    rayResult(agentId, index, property) {
+      const id = String(agentId || '').trim();
+      const rays = this.agentScans.get(this._agentKey(this._ownerOf(id), id));
+      const ray = rays && rays[Math.round(Number(index)) - 1];
+      if (!ray) return '';
+      const value = ray[property];
+      return value === undefined ? '' : value;
+    }
+
+    _applyAgentState(delta) {
+      if (!delta || !delta.agentId) return;
+      const key = this._agentKey(delta.owner || this.boundPlayer, delta.agentId);
+      const current = this.agentStates.get(key) || {};
+      this.agentStates.set(key, Object.assign(current, delta));
+    }
+
+    agentState(agentId, property) {
+      const id = String(agentId || '').trim();
+      const state = this.agentStates.get(this._agentKey(this._ownerOf(id), id));
+      if (!state) return property === 'present' ? false : '';
+      const value = state[property];
+      if (property === 'present') return value === true;
+      return value === undefined ? '' : value;
+    }
   }
 
   const bridge = new Bridge();
@@ -327,6 +617,14 @@
               CMD: { type: Scratch.ArgumentType.STRING, defaultValue: 'say hello from tw' }
             }
           },
+          {
+            opcode: 'commandOutput',
+            blockType: Scratch.BlockType.REPORTER,
+            text: twbText('blockCommandOutput'),
+            arguments: {
+              CMD: { type: Scratch.ArgumentType.STRING, defaultValue: 'time query daytime' }
+            }
+          },
           {
             opcode: 'teleportAgent',
             blockType: Scratch.BlockType.COMMAND,
@@ -406,6 +704,156 @@
                 defaultValue: 'forward'
               }
             }
+          },
+          {
+            opcode: 'saveStructure',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockStructureSave'),
+            arguments: {
+              NAME: { type: Scratch.ArgumentType.STRING, defaultValue: 'house' },
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              X1: { type: Scratch.ArgumentType.NUMBER, defaultValue: 1 },
+              Y1: { type: Scratch.ArgumentType.NUMBER, defaultValue: 0 },
+              Z1: { type: Scratch.ArgumentType.NUMBER, defaultValue: 1 },
+              X2: { type: Scratch.ArgumentType.NUMBER, defaultValue: 5 },
+              Y2: { type: Scratch.ArgumentType.NUMBER, defaultValue: 4 },
+              Z2: { type: Scratch.ArgumentType.NUMBER, defaultValue: 5 },
+              MODE: { type: Scratch.ArgumentType.STRING, menu: 'structureSaveModes', defaultValue: 'keep' }
+            }
+          },
+          {
+            opcode: 'pasteStructure',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockStructurePaste'),
+            arguments: {
+              NAME: { type: Scratch.ArgumentType.STRING, defaultValue: 'house' },
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' }
+            }
+          },
+          {
+            opcode: 'undo',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockUndo'),
+            arguments: {
+              COUNT: { type: Scratch.ArgumentType.NUMBER, defaultValue: 1 }
+            }
+          },
+          {
+            opcode: 'watchAgent',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockWatch'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' }
+            }
+          },
+          {
+            opcode: 'unwatchAgent',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockUnwatch'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' }
+            }
+          },
+          {
+            opcode: 'agentState',
+            blockType: Scratch.BlockType.REPORTER,
+            text: twbText('blockAgentState'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              PROPERTY: { type: Scratch.ArgumentType.STRING, menu: 'agentStateProperties', defaultValue: 'x' }
+            }
+          },
+          {
+            opcode: 'raycastAgent',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockRaycast'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              RAYS: { type: Scratch.ArgumentType.NUMBER, defaultValue: 5 },
+              SPREAD: { type: Scratch.ArgumentType.NUMBER, defaultValue: 90 },
+              DISTANCE: { type: Scratch.ArgumentType.NUMBER, defaultValue: 8 }
+            }
+          },
+          {
+            opcode: 'rayResult',
+            blockType: Scratch.BlockType.REPORTER,
+            text: twbText('blockRayResult'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              N: { type: Scratch.ArgumentType.NUMBER, defaultValue: 1 },
+              RAYPROP: { type: Scratch.ArgumentType.STRING, menu: 'rayProperties', defaultValue: 'block' }
+            }
+          },
+          {
+            opcode: 'setAgentSlots',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockSlotsSet'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              ITEMS: { type: Scratch.ArgumentType.STRING, defaultValue: 'stone 64, dirt 64' }
+            }
+          },
+          {
+            opcode: 'readInventory',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockReadInventory'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' }
+            }
+          },
+          {
+            opcode: 'inventorySlot',
+            blockType: Scratch.BlockType.REPORTER,
+            text: twbText('blockInventorySlot'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              SLOT: { type: Scratch.ArgumentType.NUMBER, defaultValue: 1 },
+              SLOTPROP: { type: Scratch.ArgumentType.STRING, menu: 'slotProperties', defaultValue: 'block' }
+            }
+          },
+          {
+            opcode: 'chestTake',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockChestTake'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              DIR: { type: Scratch.ArgumentType.STRING, menu: 'agentPlaceDirections', defaultValue: 'forward' }
+            }
+          },
+          {
+            opcode: 'chestPut',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockChestPut'),
+            arguments: {
+              ID: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' },
+              DIR: { type: Scratch.ArgumentType.STRING, menu: 'agentPlaceDirections', defaultValue: 'forward' }
+            }
+          },
+          {
+            opcode: 'shareAgents',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockShareAgents'),
+            arguments: {
+              IDS: { type: Scratch.ArgumentType.STRING, defaultValue: 'agent1' }
+            }
+          },
+          {
+            opcode: 'workspaceCode',
+            blockType: Scratch.BlockType.REPORTER,
+            text: twbText('blockWorkspaceCode')
+          },
+          {
+            opcode: 'joinWorkspace',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockJoinWorkspace'),
+            arguments: {
+              CODE: { type: Scratch.ArgumentType.STRING, defaultValue: '000000' }
+            }
+          },
+          {
+            opcode: 'leaveWorkspace',
+            blockType: Scratch.BlockType.COMMAND,
+            text: twbText('blockLeaveWorkspace')
           }
         ],
         menus: {
@@ -436,6 +884,41 @@
               return null;
             }).filter(Boolean)
           },
+          agentStateProperties: {
+            acceptReporters: false,
+            items: [
+              { text: twbText('propX'), value: 'x' },
+              { text: twbText('propY'), value: 'y' },
+              { text: twbText('propZ'), value: 'z' },
+              { text: twbText('propYaw'), value: 'yaw' },
+              { text: twbText('propHeld'), value: 'held' },
+              { text: twbText('propCount'), value: 'count' },
+              { text: twbText('propSlot'), value: 'slot' },
+              { text: twbText('propPresent'), value: 'present' }
+            ]
+          },
+          rayProperties: {
+            acceptReporters: false,
+            items: [
+              { text: twbText('rayBlock'), value: 'block' },
+              { text: twbText('rayDistance'), value: 'distance' },
+              { text: twbText('rayAngle'), value: 'angle' }
+            ]
+          },
+          structureSaveModes: {
+            acceptReporters: false,
+            items: [
+              { text: twbText('saveKeep'), value: 'keep' },
+              { text: twbText('saveReplace'), value: 'replace' }
+            ]
+          },
+          slotProperties: {
+            acceptReporters: false,
+            items: [
+              { text: twbText('slotBlock'), value: 'block' },
+              { text: twbText('slotAmount'), value: 'amount' }
+            ]
+          },
           agentPlaceDirections: {
             acceptReporters: false,
             items: [
@@ -469,6 +952,14 @@
     isConnected() { return bridge.isConnected(); }
     currentPlayer() { return bridge.currentPlayer(); }
     async runCommand(args) { await bridge.runCommand(String(args.CMD || "")); }
+    async commandOutput(args) {
+      try {
+        const res = await bridge.runCommand(String(args.CMD || ""), true);
+        return Array.isArray(res && res.output) ? res.output.join('\n') : '';
+      } catch (e) {
+        return String((e && e.message) || e || '');
+      }
+    }
     async teleportAgent(args) { await bridge.teleportAgent(String(args.ID || "")); }
     async despawnAgent(args) { await bridge.despawnAgent(String(args.ID || "")); }
     async moveAgent(args) {
@@ -504,6 +995,43 @@
         args.DIR || "forward"
       );
     }
+    async saveStructure(args) {
+      await bridge.saveStructure(
+        String(args.ID || ""),
+        String(args.NAME || ""),
+        [args.X1, args.Y1, args.Z1],
+        [args.X2, args.Y2, args.Z2],
+        args.MODE === 'replace'
+      );
+    }
+    async pasteStructure(args) {
+      await bridge.pasteStructure(
+        String(args.ID || ""),
+        String(args.NAME || "")
+      );
+    }
+    async undo(args) { await bridge.undo(Math.round(Number(args.COUNT || 1))); }
+    async watchAgent(args) { await bridge.watchAgent(String(args.ID || ""), true); }
+    async unwatchAgent(args) { await bridge.watchAgent(String(args.ID || ""), false); }
+    agentState(args) { return bridge.agentState(String(args.ID || ""), String(args.PROPERTY || "x")); }
+    async raycastAgent(args) {
+      await bridge.raycast(
+        String(args.ID || ""),
+        Number(args.RAYS || 1),
+        Number(args.SPREAD || 0),
+        Number(args.DISTANCE || 8)
+      );
+    }
+    rayResult(args) { return bridge.rayResult(String(args.ID || ""), Number(args.N || 1), String(args.RAYPROP || "block")); }
+    async setAgentSlots(args) { await bridge.setAgentSlots(String(args.ID || ""), String(args.ITEMS || "")); }
+    async readInventory(args) { await bridge.readInventory(String(args.ID || "")); }
+    inventorySlot(args) { return bridge.inventorySlot(String(args.ID || ""), Number(args.SLOT || 1), String(args.SLOTPROP || "block")); }
+    async chestTake(args) { await bridge.chestTransfer(String(args.ID || ""), args.DIR || "forward", true); }
+    async chestPut(args) { await bridge.chestTransfer(String(args.ID || ""), args.DIR || "forward", false); }
+    async shareAgents(args) { await bridge.shareAgents(String(args.IDS || "")); }
+    workspaceCode() { return bridge.workspace ? bridge.workspace.code : ""; }
+    async joinWorkspace(args) { await bridge.joinWorkspace(String(args.CODE || "")); }
+    async leaveWorkspace() { await bridge.leaveWorkspace(); }
   }
 
   Scratch.extensions.register(new TwBridgeExt());
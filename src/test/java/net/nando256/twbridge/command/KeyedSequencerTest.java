@@ -0,0 +1,165 @@
+package net.nando256.twbridge.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyedSequencerTest {
+    @Test
+    void inlineStepsRunInSubmissionOrder() {
+        var sequencer = new KeyedSequencer(60_000);
+        var ran = new ArrayList<String>();
+        for (var name : List.of("first", "second", "third")) {
+            sequencer.submit("agent", (seq, done) -> {
+                ran.add(name + "#" + seq);
+                done.run();
+            });
+        }
+        assertEquals(List.of("first#1", "second#2", "third#3"), ran);
+        assertEquals(0, sequencer.activeKeys());
+    }
+
+    @Test
+    void asyncStepHoldsItsKeyOnly() {
+        var sequencer = new KeyedSequencer(60_000);
+        var ran = new ArrayList<String>();
+        var pending = new ArrayList<Runnable>();
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a1");
+            pending.add(done);
+        });
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a2");
+            done.run();
+        });
+        sequencer.submit("b", (seq, done) -> {
+            ran.add("b1");
+            done.run();
+        });
+        assertEquals(List.of("a1", "b1"), ran);
+        assertEquals(1, sequencer.activeKeys());
+        pending.get(0).run();
+        assertEquals(List.of("a1", "b1", "a2"), ran);
+        assertEquals(0, sequencer.activeKeys());
+    }
+
+    @Test
+    void completingTwiceAdvancesOnce() {
+        var sequencer = new KeyedSequencer(60_000);
+        var ran = new ArrayList<String>();
+        var pending = new ArrayList<Runnable>();
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a1");
+            done.run();
+            done.run();
+        });
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a2");
+            pending.add(done);
+        });
+        sequencer.submit("a", (seq, done) -> ran.add("a3"));
+        assertEquals(List.of("a1", "a2"), ran);
+        pending.get(0).run();
+        pending.get(0).run();
+        assertEquals(List.of("a1", "a2", "a3"), ran);
+        assertEquals(1, sequencer.activeKeys());
+    }
+
+    @Test
+    void throwingStepReleasesTheKey() {
+        var sequencer = new KeyedSequencer(60_000);
+        var ran = new ArrayList<String>();
+        sequencer.submit("a", (seq, done) -> {
+            throw new IllegalStateException("boom");
+        });
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a2");
+            done.run();
+        });
+        assertEquals(List.of("a2"), ran);
+        assertEquals(0, sequencer.activeKeys());
+    }
+
+    @Test
+    void stalledStepIsReleased() throws InterruptedException {
+        var sequencer = new KeyedSequencer(50);
+        var ran = new ArrayList<String>();
+        var pending = new ArrayList<Runnable>();
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a1");
+            pending.add(done);
+        });
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a2");
+            done.run();
+        });
+        assertEquals(0, sequencer.releaseStalled());
+        Thread.sleep(100);
+        assertEquals(1, sequencer.releaseStalled());
+        assertEquals(List.of("a1", "a2"), ran);
+        assertEquals(0, sequencer.activeKeys());
+        // the late completion of the released step must not skip anything submitted later
+        sequencer.submit("a", (seq, done) -> {
+            ran.add("a3");
+            pending.add(done);
+        });
+        sequencer.submit("a", (seq, done) -> ran.add("a4"));
+        pending.get(0).run();
+        assertEquals(List.of("a1", "a2", "a3"), ran);
+        pending.get(1).run();
+        assertEquals(List.of("a1", "a2", "a3", "a4"), ran);
+    }
+
+    @Test
+    void sequenceNumbersKeepRisingAfterAKeyGoesIdle() {
+        var sequencer = new KeyedSequencer(60_000);
+        var seqs = new ArrayList<Long>();
+        for (int i = 0; i < 3; i++) {
+            sequencer.submit("a", (seq, done) -> {
+                seqs.add(seq);
+                done.run();
+            });
+            assertEquals(0, sequencer.activeKeys());
+        }
+        assertEquals(List.of(1L, 2L, 3L), seqs);
+    }
+
+    @Test
+    void concurrentSubmittersNeverOverlapOnAKey() throws InterruptedException {
+        var sequencer = new KeyedSequencer(60_000);
+        var inFlight = new AtomicInteger();
+        var overlaps = new AtomicInteger();
+        var completed = new AtomicInteger();
+        int threads = 4;
+        int perThread = 2_000;
+        var finished = new CountDownLatch(threads * perThread);
+        var workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            var worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    sequencer.submit("shared", (seq, done) -> {
+                        if (inFlight.incrementAndGet() != 1) overlaps.incrementAndGet();
+                        completed.incrementAndGet();
+                        inFlight.decrementAndGet();
+                        finished.countDown();
+                        done.run();
+                    });
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (var worker : workers) worker.join();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        assertEquals(threads * perThread, completed.get());
+        assertEquals(0, sequencer.activeKeys());
+    }
+}
@@ -0,0 +1,190 @@
+package net.nando256.twbridge.ws;
+
+import org.java_websocket.WebSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Sends frames through BridgeServer.onMessage with dispatch stubbed out, so the
+// workspace checks, owner routing and per-agent sequencing run for real.
+class WorkspaceRoutingTest {
+    private BridgeState state;
+    private RoutingServer server;
+    private Client alice;
+    private Client bob;
+    private WorkspaceRegistry.Workspace workspace;
+
+    @BeforeEach
+    void setUp() {
+        state = new BridgeState(null, false, 60, null, 8, 120);
+        server = new RoutingServer(state);
+        alice = new Client("alice");
+        bob = new Client("bob");
+        workspace = state.workspaces.create(alice.conn, "alice", List.of("builder", "digger"));
+        state.workspaces.join(bob.conn, "bob", workspace.code);
+    }
+
+    @AfterEach
+    void tearDown() {
+        state.close();
+    }
+
+    @Test
+    void rejectsNonMembers() {
+        var carol = new Client("carol");
+        var reply = carol.send("agent.move", "builder", workspace.id);
+        assertError("not a workspace member", reply);
+        assertTrue(server.dispatched.isEmpty());
+    }
+
+    @Test
+    void rejectsAgentsOutsideTheWorkspace() {
+        var reply = bob.send("agent.move", "miner", workspace.id);
+        assertError("agent not in workspace", reply);
+        assertTrue(server.dispatched.isEmpty());
+    }
+
+    @Test
+    void rejectsOwnerWideCommandsFromMembers() {
+        for (var cmd : List.of("command.run", "agent.undo", "agent.despawn", "agent.teleportToPlayer", "structure.paste")) {
+            assertError("not allowed in workspace", bob.send(cmd, "builder", workspace.id));
+        }
+        assertTrue(server.dispatched.isEmpty());
+    }
+
+    @Test
+    void routesMemberCommandsToTheOwner() {
+        assertOk(bob.send("agent.move", "builder", workspace.id));
+        assertEquals(1, server.dispatched.size());
+        assertEquals("alice", server.dispatched.get(0).owner());
+        assertEquals("agent.move", server.dispatched.get(0).cmd());
+    }
+
+    @Test
+    void ownerKeepsFullControlOfSharedAgents() {
+        // with and without the workspace field: the owner is a member too
+        for (var cmd : List.of("agent.despawn", "structure.save", "agent.teleportToPlayer")) {
+            assertOk(alice.send(cmd, "builder", workspace.id));
+            assertOk(alice.send(cmd, "builder", null));
+        }
+        assertEquals(6, server.dispatched.size());
+        server.dispatched.forEach(call -> assertEquals("alice", call.owner()));
+    }
+
+    @Test
+    void sharedAgentRunsOneCommandAtATime() {
+        server.holdReplies = true;
+        alice.send("agent.move", "builder", null);
+        bob.send("agent.place", "builder", workspace.id);
+        bob.send("agent.move", "digger", workspace.id);
+        // the second builder command waits; the other shared agent is not held up
+        assertEquals(List.of("agent.move", "agent.move"), server.dispatched.stream().map(Call::cmd).toList());
+        assertFalse(alice.hasReply());
+        server.dispatched.get(0).reply();
+        assertTrue(alice.hasReply());
+        assertFalse(bob.hasReply());
+        assertEquals(3, server.dispatched.size());
+        assertEquals("agent.place", server.dispatched.get(2).cmd());
+        // every member hears about each command, numbered in the order it ran
+        var event = bob.lastEvent("workspace.command");
+        assertTrue(event.contains("\"seq\":1,"), event);
+        assertTrue(event.contains("\"by\":\"alice\""), event);
+    }
+
+    @Test
+    void ownAgentsOutsideTheWorkspaceAreNotSequenced() {
+        server.holdReplies = true;
+        bob.send("agent.move", "builder", null);
+        bob.send("agent.move", "builder", null);
+        assertEquals(2, server.dispatched.size());
+        server.dispatched.forEach(call -> assertEquals("bob", call.owner()));
+    }
+
+    private static void assertOk(String reply) {
+        assertTrue(reply.contains("\"ok\":true"), reply);
+    }
+
+    private static void assertError(String error, String reply) {
+        assertTrue(reply.contains("\"ok\":false,\"error\":" + ReplyWriter.quote(error)), reply);
+    }
+
+    private record Call(String owner, String cmd, Consumer<String> out, UUID id) {
+        void reply() {
+            out.accept(ReplyWriter.start(id, true).finish());
+        }
+    }
+
+    private static final class RoutingServer extends BridgeServer {
+        final List<Call> dispatched = new ArrayList<>();
+        boolean holdReplies;
+
+        RoutingServer(BridgeState state) {
+            super(null, state, "127.0.0.1", 0, Set.of(), 1000, 65536, 1, false, null);
+        }
+
+        @Override
+        void dispatch(WebSocket conn, Consumer<String> out, UUID id, String owner, BridgeRequest json) {
+            var call = new Call(owner, json.optString("cmd", ""), out, id);
+            dispatched.add(call);
+            if (!holdReplies) call.reply();
+        }
+
+        @Override
+        boolean forwardToOwnerNode(Consumer<String> out, UUID id, String owner, String message) {
+            return false;
+        }
+    }
+
+    private final class Client {
+        final List<String> sent = new ArrayList<>();
+        final WebSocket conn;
+
+        Client(String player) {
+            conn = (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(), new Class<?>[]{WebSocket.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "send" -> {
+                        sent.add((String) args[0]);
+                        yield null;
+                    }
+                    case "isOpen" -> true;
+                    case "close" -> throw new AssertionError(player + "'s connection closed: " + args[args.length - 1]);
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> player;
+                    default -> null;
+                });
+            state.sessions.put(conn, new BridgeState.Session(UUID.randomUUID().toString(), 0L, player));
+        }
+
+        // the reply to this request, or "" while it is still held
+        String send(String cmd, String agentId, String workspaceId) {
+            var id = UUID.randomUUID().toString();
+            var frame = "{\"id\":\"" + id + "\",\"cmd\":\"" + cmd + "\",\"agentId\":\"" + agentId + "\""
+                + (workspaceId == null ? "" : ",\"workspace\":\"" + workspaceId + "\"") + "}";
+            server.onMessage(conn, frame);
+            return sent.stream().filter(message -> message.startsWith("{\"id\":\"" + id + "\"")).findFirst().orElse("");
+        }
+
+        boolean hasReply() {
+            return sent.stream().anyMatch(message -> message.startsWith("{\"id\":"));
+        }
+
+        String lastEvent(String name) {
+            for (int i = sent.size() - 1; i >= 0; i--) {
+                if (sent.get(i).startsWith("{\"event\":\"" + name + "\"")) return sent.get(i);
+            }
+            throw new AssertionError("no " + name + " event");
+        }
+    }
+}